@@ -1,201 +1,7183 @@
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
 import javax.swing.*;
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
 import java.awt.*;
+import java.awt.event.FocusAdapter;
+import java.awt.event.FocusEvent;
+import java.awt.event.KeyAdapter;
+import java.awt.event.KeyEvent;
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.lang.management.ManagementFactory;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.text.Normalizer;
 import java.util.*;
 import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountedCompleter;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Function;
+import java.util.function.IntPredicate;
+import java.util.function.LongPredicate;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.function.Predicate;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+import java.util.zip.CRC32;
+
+public class IntegratedProject {
+
+    // A route as interned city ids plus its distance; names and the display string are only
+    // produced when asked for.
+    static class RouteResult {
+        private final CompactGraph graph;
+        private final int mode;
+        private final int[] cities;
+        private final int distance;
+
+        RouteResult(CompactGraph graph, int mode, int[] cities, int distance) {
+            this.graph = graph;
+            this.mode = mode;
+            this.cities = cities;
+            this.distance = distance;
+        }
+
+        public int size() {
+            return cities.length;
+        }
+
+        public int cityId(int index) {
+            return cities[index];
+        }
+
+        public String cityName(int index) {
+            return graph.cityName(cities[index]);
+        }
+
+        public int getDistance() {
+            return distance;
+        }
+
+        public String getMode() {
+            return CompactGraph.MODES[mode];
+        }
+
+        public List<String> getCities() {
+            List<String> names = new ArrayList<>(cities.length);
+            for (int city : cities) {
+                names.add(graph.cityName(city));
+            }
+            return names;
+        }
+
+        public String format(boolean showDistance) {
+            StringBuilder route = new StringBuilder("Route: [");
+            for (int i = 0; i < cities.length; i++) {
+                if (i > 0) {
+                    route.append(", ");
+                }
+                route.append(graph.cityName(cities[i]));
+            }
+            route.append(']');
+            if (showDistance) {
+                route.append(" || Distance: ").append(distance);
+            }
+            return route.toString();
+        }
+
+        @Override
+        public String toString() {
+            return format(mode == CompactGraph.modeIndex("Road"));
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if (!(other instanceof RouteResult)) {
+                return false;
+            }
+            RouteResult route = (RouteResult) other;
+            return mode == route.mode && Arrays.equals(cities, route.cities);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * mode + Arrays.hashCode(cities);
+        }
+    }
+
+    // Yen's algorithm over one mode of a CompactGraph. Each next() computes exactly one more
+    // loopless route in order of distance, so callers only pay for the routes they consume.
+    static class KShortestRoutes implements Iterator<RouteResult> {
+        private final CompactGraph graph;
+        private final int mode;
+        private final int source;
+        private final int target;
+        private final long deadline;
+        private final boolean bounded;
+        private final GeoSearch guide;
+
+        private final List<RouteResult> accepted = new ArrayList<>();
+        private final PriorityQueue<RouteResult> candidates = new PriorityQueue<>(Comparator.comparingInt(r -> r.distance));
+        private final Set<RouteResult> seen = new HashSet<>();
+        private RouteResult next;
+        private boolean exhausted;
+
+        private int[] distances;
+        private int[] previous;
+        private boolean[] blocked;
+        private int[] estimates;
+        private int[] touched = new int[64];
+        private int touchedCount;
+        private final LongHeap heap = new LongHeap();
+        private long expandedNodes;
+        private int spurSearches;
+
+        // A guide, when given, turns every spur search into A* towards the target; the routes are the same.
+        KShortestRoutes(CompactGraph graph, int mode, int source, int target, GeoSearch guide) {
+            this(graph, mode, source, target, 0, false, guide);
+        }
+
+        KShortestRoutes(CompactGraph graph, int mode, int source, int target, long deadline, GeoSearch guide) {
+            this(graph, mode, source, target, deadline, true, guide);
+        }
+
+        private KShortestRoutes(CompactGraph graph, int mode, int source, int target, long deadline, boolean bounded,
+                                GeoSearch guide) {
+            this.graph = graph;
+            this.mode = mode;
+            this.source = source;
+            this.target = target;
+            this.deadline = deadline;
+            this.bounded = bounded;
+            this.guide = guide;
+            this.exhausted = mode < 0 || source < 0 || target < 0;
+        }
+
+        @Override
+        public boolean hasNext() {
+            if (next == null && !exhausted) {
+                next = advance();
+                exhausted = next == null;
+            }
+            return next != null;
+        }
+
+        @Override
+        public RouteResult next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            RouteResult route = next;
+            next = null;
+            return route;
+        }
+
+        private boolean expired() {
+            return (bounded && System.nanoTime() - deadline >= 0) || Thread.currentThread().isInterrupted();
+        }
+
+        // Cities settled across all spur searches so far.
+        long expandedNodes() {
+            return expandedNodes;
+        }
+
+        // Number of spur searches, i.e. partial paths extended so far.
+        int spurSearches() {
+            return spurSearches;
+        }
+
+        private RouteResult advance() {
+            if (expired()) {
+                return null;
+            }
+            if (distances == null) {
+                distances = new int[graph.cityCount()];
+                previous = new int[graph.cityCount()];
+                blocked = new boolean[graph.cityCount()];
+                Arrays.fill(distances, Integer.MAX_VALUE);
+                if (guide != null) {
+                    estimates = new int[graph.cityCount()];
+                    Arrays.fill(estimates, -1);
+                }
+            }
+
+            RouteResult route;
+            if (accepted.isEmpty()) {
+                route = source == target
+                        ? new RouteResult(graph, mode, new int[]{source}, 0)
+                        : spurRoute(new int[0], 0, source, new int[0]);
+            } else {
+                int[] last = accepted.get(accepted.size() - 1).cities;
+                int rootDistance = 0;
+                for (int i = 0; i < last.length - 1; i++) {
+                    if (expired()) {
+                        return null;
+                    }
+                    int[] root = Arrays.copyOf(last, i);
+                    int[] blockedNext = new int[accepted.size()];
+                    int blockedCount = 0;
+                    for (RouteResult done : accepted) {
+                        if (done.cities.length > i + 1 && Arrays.equals(done.cities, 0, i + 1, last, 0, i + 1)) {
+                            blockedNext[blockedCount++] = done.cities[i + 1];
+                        }
+                    }
+
+                    RouteResult candidate = spurRoute(root, rootDistance, last[i], Arrays.copyOf(blockedNext, blockedCount));
+                    if (candidate != null && seen.add(candidate)) {
+                        candidates.add(candidate);
+                    }
+                    rootDistance += arcWeight(last[i], last[i + 1]);
+                }
+                if (expired()) {
+                    return null;
+                }
+                route = candidates.poll();
+            }
+
+            if (route != null) {
+                seen.add(route);
+                accepted.add(route);
+            }
+            return route;
+        }
+
+        // Dijkstra (A* when guided) from spurCity to the target that avoids the root's cities and the
+        // blocked first hops. Blocking only lengthens routes, so the estimates stay lower bounds.
+        private RouteResult spurRoute(int[] root, int rootDistance, int spurCity, int[] blockedNext) {
+            for (int city : root) {
+                blocked[city] = true;
+            }
+            int[] offset = graph.offsets[mode];
+            int[] targets = graph.targets[mode];
+            int[] weights = graph.weights[mode];
+
+            heap.clear();
+            visit(spurCity, 0, -1);
+            heap.push(estimate(spurCity), spurCity);
+            int found = -1;
+            int settled = 0;
+            while (!heap.isEmpty()) {
+                long top = heap.pop();
+                int city = LongHeap.value(top);
+                int distance = distances[city];
+                if (LongHeap.key(top) > distance + estimate(city)) {
+                    continue;
+                }
+                if (city == target) {
+                    found = distance;
+                    break;
+                }
+                if ((++settled & 1023) == 0 && Thread.currentThread().isInterrupted()) {
+                    break;
+                }
+                for (int i = offset[city]; i < offset[city + 1]; i++) {
+                    int nextCity = targets[i];
+                    if (blocked[nextCity] || (city == spurCity && contains(blockedNext, nextCity))) {
+                        continue;
+                    }
+                    int nextDistance = distance + weights[i];
+                    if (nextDistance < distances[nextCity]) {
+                        visit(nextCity, nextDistance, city);
+                        heap.push(nextDistance + estimate(nextCity), nextCity);
+                    }
+                }
+            }
+
+            expandedNodes += settled;
+            spurSearches++;
+            RouteResult route = null;
+            if (found >= 0) {
+                int hops = 0;
+                for (int city = target; city != spurCity; city = previous[city]) {
+                    hops++;
+                }
+                int[] cities = Arrays.copyOf(root, root.length + hops + 1);
+                int index = cities.length - 1;
+                for (int city = target; city != spurCity; city = previous[city]) {
+                    cities[index--] = city;
+                }
+                cities[index] = spurCity;
+                route = new RouteResult(graph, mode, cities, rootDistance + found);
+            }
+
+            for (int city : root) {
+                blocked[city] = false;
+            }
+            for (int i = 0; i < touchedCount; i++) {
+                distances[touched[i]] = Integer.MAX_VALUE;
+            }
+            touchedCount = 0;
+            return route;
+        }
+
+        // Every spur search heads for the same target, so estimates are computed once per city.
+        private int estimate(int city) {
+            if (guide == null) {
+                return 0;
+            }
+            int estimate = estimates[city];
+            if (estimate < 0) {
+                estimate = guide.estimate(city, target);
+                estimates[city] = estimate;
+            }
+            return estimate;
+        }
+
+        private void visit(int city, int distance, int from) {
+            if (distances[city] == Integer.MAX_VALUE) {
+                if (touchedCount == touched.length) {
+                    touched = Arrays.copyOf(touched, touchedCount * 2);
+                }
+                touched[touchedCount++] = city;
+            }
+            distances[city] = distance;
+            previous[city] = from;
+        }
+
+        private int arcWeight(int from, int to) {
+            int best = Integer.MAX_VALUE;
+            for (int i = graph.offsets[mode][from]; i < graph.offsets[mode][from + 1]; i++) {
+                if (graph.targets[mode][i] == to) {
+                    best = Math.min(best, graph.weights[mode][i]);
+                }
+            }
+            return best;
+        }
+
+        private static boolean contains(int[] values, int value) {
+            for (int candidate : values) {
+                if (candidate == value) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    // Enumerates every simple route up to maxDepth hops on a fork/join pool. The first FORK_DEPTH
+    // levels of the DFS are split into CountedCompleter tasks that each carry their own copy of the
+    // path; below that a task recurses on its own. Tasks never block on children, so the visited
+    // marks can live in one array per worker thread. Each task hands its routes over in one batch.
+    // Once maxResults routes are found (or the deadline passes) the remaining tasks stop, and the
+    // answer is whichever routes were found, shortest first.
+    static class AllRoutesSearch {
+        private static final int FORK_DEPTH = 4;
+        private static final ThreadLocal<boolean[]> VISITED = ThreadLocal.withInitial(() -> new boolean[0]);
+
+        private final CompactGraph graph;
+        private final int mode;
+        private final int target;
+        private final int maxDepth;
+        private final int maxResults;
+        private final long deadline;
+        private final LongAdder found = new LongAdder();
+        private final ConcurrentLinkedQueue<List<RouteResult>> batches = new ConcurrentLinkedQueue<>();
+        private volatile boolean stopped;
+
+        AllRoutesSearch(CompactGraph graph, int mode, int target, int maxDepth, int maxResults, long deadline) {
+            this.graph = graph;
+            this.mode = mode;
+            this.target = target;
+            this.maxDepth = maxDepth;
+            this.maxResults = maxResults;
+            this.deadline = deadline;
+        }
+
+        List<RouteResult> run(ForkJoinPool pool, int source) {
+            if (mode < 0 || source < 0 || target < 0 || maxResults <= 0) {
+                return List.of();
+            }
+            if (source == target) {
+                return List.of(new RouteResult(graph, mode, new int[]{source}, 0));
+            }
+            pool.invoke(new Task(null, new int[]{source}, 0));
+
+            List<RouteResult> routes = new ArrayList<>();
+            for (List<RouteResult> batch : batches) {
+                routes.addAll(batch);
+            }
+            routes.sort(Comparator.comparingInt(RouteResult::getDistance));
+            return routes.size() > maxResults ? new ArrayList<>(routes.subList(0, maxResults)) : routes;
+        }
+
+        private final class Task extends CountedCompleter<Void> {
+            private static final long serialVersionUID = 1L;
+
+            private final int[] path;
+            private final int distance;
+            private List<RouteResult> routes;
+            private int expanded;
+
+            Task(CountedCompleter<?> parent, int[] path, int distance) {
+                super(parent);
+                this.path = path;
+                this.distance = distance;
+            }
+
+            @Override
+            public void compute() {
+                if (stopped || found.sum() >= maxResults) {
+                    stopped = true;
+                    tryComplete();
+                    return;
+                }
+                boolean[] visited = VISITED.get();
+                if (visited.length < graph.cityCount()) {
+                    visited = new boolean[graph.cityCount()];
+                    VISITED.set(visited);
+                }
+                int[] stack = Arrays.copyOf(path, maxDepth + 1);
+                for (int city : path) {
+                    visited[city] = true;
+                }
+                extend(stack, path.length, distance, visited);
+                for (int city : path) {
+                    visited[city] = false;
+                }
+                if (routes != null) {
+                    batches.add(routes);
+                }
+                tryComplete();
+            }
+
+            // stack[0..length) is the current path; its last city is extended by one hop.
+            private void extend(int[] stack, int length, int distance, boolean[] visited) {
+                if (stopped) {
+                    return;
+                }
+                if ((++expanded & 1023) == 0 && (Graph.expired(deadline) || found.sum() >= maxResults)) {
+                    stopped = true;
+                    return;
+                }
+                int city = stack[length - 1];
+                int[] offset = graph.offsets[mode];
+                int[] targets = graph.targets[mode];
+                int[] weights = graph.weights[mode];
+                for (int i = offset[city]; i < offset[city + 1]; i++) {
+                    int next = targets[i];
+                    if (visited[next]) {
+                        continue;
+                    }
+                    int nextDistance = distance + weights[i];
+                    if (next == target) {
+                        found(stack, length, nextDistance);
+                    } else if (length < maxDepth) {
+                        stack[length] = next;
+                        if (length < FORK_DEPTH) {
+                            addToPendingCount(1);
+                            new Task(this, Arrays.copyOf(stack, length + 1), nextDistance).fork();
+                        } else {
+                            visited[next] = true;
+                            extend(stack, length + 1, nextDistance, visited);
+                            visited[next] = false;
+                        }
+                    }
+                }
+            }
+
+            private void found(int[] stack, int length, int distance) {
+                int[] cities = Arrays.copyOf(stack, length + 1);
+                cities[length] = target;
+                if (routes == null) {
+                    routes = new ArrayList<>();
+                }
+                routes.add(new RouteResult(graph, mode, cities, distance));
+                found.increment();
+                if ((routes.size() & 63) == 0 && found.sum() >= maxResults) {
+                    stopped = true;
+                }
+            }
+        }
+    }
+
+    static class MultimodalRoute {
+        List<String> cities;
+        List<String> modes;
+        int cost;
+
+        MultimodalRoute(List<String> cities, List<String> modes, int cost) {
+            this.cities = cities;
+            this.modes = modes;
+            this.cost = cost;
+        }
+
+        public String format() {
+            StringBuilder route = new StringBuilder("Route: ").append(cities.get(0));
+            for (int i = 0; i < modes.size(); i++) {
+                route.append(" -").append(modes.get(i)).append("-> ").append(cities.get(i + 1));
+            }
+            return route.append(" || Cost: ").append(cost).toString();
+        }
+    }
+
+    static class MultimodalOptions {
+        int transferPenalty = 100;
+        // Indexed like CompactGraph.MODES; road edges are in km, the scheduled modes count one per hop.
+        int[] costPerUnit = {2, 150, 400, 120};
+    }
+
+    static class Graph {
+        static final int DEFAULT_MAX_ROUTES = 10;
+        static final long DEFAULT_TIMEOUT_MILLIS = 2000;
+        static final int DEFAULT_ALL_ROUTES_DEPTH = 8;
+        static final int DEFAULT_ALL_ROUTES_RESULTS = 1000;
+        static final String MULTIMODAL = "Multimodal";
+
+        // Writers hold writeLock only to queue their change. A background
+        // publisher folds the queued changes into a new GraphVersion, an immutable CompactGraph in
+        // which modes that did not change share their arrays with the previous version. Queries
+        // search the last published version without locking. The exception is a thread reading
+        // back its own unpublished writes, which folds them in itself.
+        private static final ExecutorService PUBLISHER = Executors.newSingleThreadExecutor(task -> {
+            Thread thread = new Thread(task, "graph-publisher");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        private final ReentrantLock writeLock = new ReentrantLock();
+        // Held while a version is built. Writers never take it, so they do not wait for a build.
+        private final ReentrantLock publishLock = new ReentrantLock();
+        private final AtomicBoolean publishQueued = new AtomicBoolean();
+        private final long[] modeVersions = new long[CompactGraph.MODES.length];
+        private List<PendingEdge> pendingEdges = new ArrayList<>();
+        private Map<String, float[]> pendingLocations = new HashMap<>();
+        private volatile long writeVersion;
+        private volatile GraphVersion published;
+        // The write version of each thread's last write.
+        private final ThreadLocal<long[]> lastWrite = ThreadLocal.withInitial(() -> new long[1]);
+        private final AtomicReferenceArray<ContractionHierarchy> hierarchies =
+                new AtomicReferenceArray<>(CompactGraph.MODES.length);
+        private volatile int hierarchyModes;
+        private final AtomicReferenceArray<GeoSearch> geoSearches = new AtomicReferenceArray<>(CompactGraph.MODES.length);
+        // Timetables are kept next to the links rather than derived from them: addConnection
+        // adds no edge, and the plain scheduled-mode searches keep counting hops.
+        private final Timetable.Builder schedule = new Timetable.Builder();
+        private volatile Timetable timetable;
+        private final RouteCache routeCache = new RouteCache(10_000, 8_000_000);
+
+        Graph() {
+            this(null);
+        }
+
+        // Starts from a frozen graph, e.g. one loaded from a snapshot; addEdge layers new edges on top of it.
+        Graph(CompactGraph base) {
+            published = new GraphVersion(base != null ? base : new CompactGraph.Builder().build(),
+                    new long[CompactGraph.MODES.length], 0);
+        }
+
+        // A link both ways in the mode with this CompactGraph.MODES index.
+        public void addEdge(int mode, String from, String to, int distance) {
+            if (mode < 0 || mode >= CompactGraph.MODES.length) {
+                throw new IllegalArgumentException("unknown mode " + mode);
+            }
+            writeLock.lock();
+            try {
+                modeVersions[mode]++;
+                pendingEdges.add(new PendingEdge(mode, from, to, distance));
+                lastWrite.get()[0] = ++writeVersion;
+            } finally {
+                writeLock.unlock();
+            }
+            schedulePublish();
+        }
+
+        // Latitude and longitude in degrees. Once every city with a road has one, road searches are
+        // steered towards the destination instead of expanding in all directions.
+        public void setLocation(String city, double latitude, double longitude) {
+            // Written this way round so that NaN fails too.
+            if (!(latitude >= -90 && latitude <= 90 && longitude >= -180 && longitude <= 180)) {
+                throw new IllegalArgumentException("invalid location " + latitude + "," + longitude + " for " + city);
+            }
+            writeLock.lock();
+            try {
+                pendingLocations.put(city, new float[]{(float) latitude, (float) longitude});
+                lastWrite.get()[0] = ++writeVersion;
+            } finally {
+                writeLock.unlock();
+            }
+            schedulePublish();
+        }
+
+        public void addRoadEdge(String from, String to, int distance) {
+            addEdge(CompactGraph.modeIndex("Road"), from, to, distance);
+        }
+
+        public void addTrainEdge(String from, String to) {
+            addEdge(CompactGraph.modeIndex("Train"), from, to, 1);
+        }
+
+        public void addPlaneEdge(String from, String to) {
+            addEdge(CompactGraph.modeIndex("Plane"), from, to, 1);
+        }
+
+        public void addBusEdge(String from, String to) {
+            addEdge(CompactGraph.modeIndex("Bus"), from, to, 1);
+        }
+
+        // One scheduled run of a Train, Plane or Bus trip between consecutive stops, in minutes after
+        // midnight. A trip's connections must be added in the order it runs them.
+        public void addConnection(String mode, String trip, String from, String to, int departure, int arrival) {
+            writeLock.lock();
+            try {
+                schedule.addConnection(CompactGraph.modeIndex(mode), trip, from, to, departure, arrival);
+                timetable = null;
+            } finally {
+                writeLock.unlock();
+            }
+        }
+
+        // Minimum minutes to change trips at a city; Timetable.DEFAULT_TRANSFER_MINUTES otherwise.
+        public void setTransferTime(String city, int minutes) {
+            writeLock.lock();
+            try {
+                schedule.setTransferTime(city, minutes);
+                timetable = null;
+            } finally {
+                writeLock.unlock();
+            }
+        }
+
+        // Mode is Train, Plane, Bus or MULTIMODAL for any of them. Null when the end cannot be
+        // reached from start on the day's schedule after departure.
+        public TimetableJourney earliestArrival(String start, String end, String mode, int departure) {
+            Timetable current = timetable();
+            return current.earliestArrival(current.cityId(start), current.cityId(end), departure, Timetable.modeMask(mode));
+        }
+
+        // The journeys worth taking when leaving between from and until: each leaves later or
+        // arrives earlier than the one before it.
+        public List<TimetableJourney> departureProfile(String start, String end, String mode, int from, int until) {
+            Timetable current = timetable();
+            return current.profile(current.cityId(start), current.cityId(end), from, until, Timetable.modeMask(mode));
+        }
+
+        Timetable timetable() {
+            Timetable current = timetable;
+            if (current != null) {
+                return current;
+            }
+            writeLock.lock();
+            try {
+                if (timetable == null) {
+                    timetable = schedule.build();
+                }
+                return timetable;
+            } finally {
+                writeLock.unlock();
+            }
+        }
+
+        public List<String> findRoutes(String start, String end, String mode) {
+            return findRoutes(start, end, mode, DEFAULT_MAX_ROUTES, DEFAULT_TIMEOUT_MILLIS);
+        }
+
+        public List<String> findRoutes(String start, String end, String mode, int maxRoutes, long timeoutMillis) {
+            if (CompactGraph.modeIndex(mode) < 0 && !mode.equals(MULTIMODAL)) {
+                return List.of("Invalid transport mode selected.");
+            }
+
+            List<String> routes = new ArrayList<>();
+            streamRoutes(start, end, mode, maxRoutes, timeoutMillis, routes::add);
+
+            if (routes.isEmpty()) {
+                routes.add("No routes found between " + start + " and " + end);
+            }
+            return routes;
+        }
+
+        // Hands each formatted route to the sink as soon as it is found; the sink returns false to stop.
+        // Complete answers are served from and stored in the route cache; searches that hit the
+        // deadline or were stopped by the sink are not cached.
+        public int streamRoutes(String start, String end, String mode, int maxRoutes, long timeoutMillis,
+                                Predicate<String> sink) {
+            LookupStats lookupStats = Metrics.enabled ? Metrics.route(mode) : null;
+            long started = lookupStats != null ? System.nanoTime() : 0;
+            RouteCache.Key key = new RouteCache.Key(start, end, mode, maxRoutes);
+            GraphVersion current = currentVersion();
+            long version = current.modeVersion(CompactGraph.modeIndex(mode));
+            List<String> cached = routeCache.get(key, version);
+            if (cached != null) {
+                int emitted = 0;
+                for (String route : cached) {
+                    emitted++;
+                    if (!sink.test(route)) {
+                        break;
+                    }
+                }
+                if (lookupStats != null) {
+                    lookupStats.recordRoute(started, emitted, null, start, end);
+                }
+                return emitted;
+            }
+
+            List<String> found = new ArrayList<>();
+            boolean[] stopped = {false};
+            long[] searchStats = lookupStats != null ? new long[3] : null;
+            long deadline = System.nanoTime() + timeoutMillis * 1_000_000L;
+            int count = searchRoutes(current.graph, start, end, mode, maxRoutes, deadline, route -> {
+                found.add(route);
+                stopped[0] = !sink.test(route);
+                return !stopped[0];
+            }, searchStats);
+            if (!stopped[0] && !expired(deadline)) {
+                routeCache.put(key, version, found);
+            }
+            if (lookupStats != null) {
+                lookupStats.recordRoute(started, count, searchStats, start, end);
+            }
+            return count;
+        }
+
+        // When stats is non-null it receives expanded nodes, partial paths and formatting nanoseconds.
+        private int searchRoutes(CompactGraph graph, String start, String end, String mode, int maxRoutes,
+                                 long deadline, Predicate<String> sink, long[] stats) {
+            if (mode.equals(MULTIMODAL)) {
+                MultimodalRoute route = findMultimodalRoute(graph, start, end, new MultimodalOptions(), stats);
+                return route != null && sink.test(route.format()) ? 1 : 0;
+            }
+            int index = CompactGraph.modeIndex(mode);
+            KShortestRoutes routes = new KShortestRoutes(graph, index, graph.cityId(start), graph.cityId(end), deadline,
+                    geoSearch(graph, index));
+            boolean showDistance = mode.equals("Road");
+            int count = 0;
+            while (count < maxRoutes && routes.hasNext()) {
+                count++;
+                RouteResult route = routes.next();
+                String formatted;
+                if (stats != null) {
+                    long formatStart = System.nanoTime();
+                    formatted = route.format(showDistance);
+                    stats[2] += System.nanoTime() - formatStart;
+                } else {
+                    formatted = route.format(showDistance);
+                }
+                if (!sink.test(formatted)) {
+                    break;
+                }
+            }
+            if (stats != null) {
+                stats[0] = routes.expandedNodes();
+                stats[1] = routes.spurSearches();
+            }
+            return count;
+        }
+
+        // Lazily enumerates loopless routes shortest first; nothing is computed until the stream is consumed.
+        public Stream<RouteResult> routes(String start, String end, String mode) {
+            return StreamSupport.stream(Spliterators.spliteratorUnknownSize(routeIterator(start, end, mode),
+                    Spliterator.ORDERED | Spliterator.DISTINCT | Spliterator.NONNULL), false);
+        }
+
+        // Every simple route of at most maxDepth hops, shortest first, searched in parallel on the
+        // common fork/join pool; stops early at maxResults routes or when the timeout passes.
+        public List<RouteResult> findAllRoutes(String start, String end, String mode, int maxDepth, int maxResults,
+                                               long timeoutMillis) {
+            CompactGraph graph = compact();
+            long deadline = System.nanoTime() + timeoutMillis * 1_000_000L;
+            return new AllRoutesSearch(graph, CompactGraph.modeIndex(mode), graph.cityId(end), maxDepth, maxResults, deadline)
+                    .run(ForkJoinPool.commonPool(), graph.cityId(start));
+        }
+
+        public Iterator<RouteResult> routeIterator(String start, String end, String mode) {
+            CompactGraph graph = compact();
+            int index = CompactGraph.modeIndex(mode);
+            return new KShortestRoutes(graph, index, graph.cityId(start), graph.cityId(end), geoSearch(graph, index));
+        }
+
+        public RouteCache routeCache() {
+            return routeCache;
+        }
+
+        public CompactGraph compact() {
+            return currentVersion().graph;
+        }
+
+        // Unlike compact(), includes every write made before the call, by any thread.
+        public CompactGraph latest() {
+            return publish().graph;
+        }
+
+        // Never waits for other threads' writes: they show up once the publisher has folded them in.
+        // A thread's own writes are always visible to it.
+        private GraphVersion currentVersion() {
+            GraphVersion current = published;
+            return current.version >= lastWrite.get()[0] ? current : publish();
+        }
+
+        private void schedulePublish() {
+            if (publishQueued.compareAndSet(false, true)) {
+                PUBLISHER.execute(() -> {
+                    // Cleared first, so that writes arriving during the build queue another one.
+                    publishQueued.set(false);
+                    rebuildHierarchies(publish().graph);
+                });
+            }
+        }
+
+        // Folds every queued write into a new version. writeLock is only held to take the queue.
+        private GraphVersion publish() {
+            publishLock.lock();
+            try {
+                List<PendingEdge> edges;
+                Map<String, float[]> locations;
+                long[] versions;
+                long version;
+                writeLock.lock();
+                try {
+                    if (published.version == writeVersion) {
+                        return published;
+                    }
+                    edges = pendingEdges;
+                    locations = pendingLocations;
+                    pendingEdges = new ArrayList<>();
+                    pendingLocations = new HashMap<>();
+                    versions = modeVersions.clone();
+                    version = writeVersion;
+                } finally {
+                    writeLock.unlock();
+                }
+
+                boolean[] changed = new boolean[CompactGraph.MODES.length];
+                for (PendingEdge edge : edges) {
+                    changed[edge.mode] = true;
+                }
+                CompactGraph.Builder builder = new CompactGraph.Builder(published.graph, changed);
+                for (Map.Entry<String, float[]> entry : locations.entrySet()) {
+                    builder.setLocation(builder.internCity(entry.getKey()), entry.getValue()[0], entry.getValue()[1]);
+                }
+                for (PendingEdge edge : edges) {
+                    builder.addEdge(edge.mode, edge.from, edge.to, edge.distance);
+                }
+                published = new GraphVersion(builder.build(), versions, version);
+                return published;
+            } finally {
+                publishLock.unlock();
+            }
+        }
+
+        private static class PendingEdge {
+            final int mode;
+            final String from;
+            final String to;
+            final int distance;
+
+            PendingEdge(int mode, String from, String to, int distance) {
+                this.mode = mode;
+                this.from = from;
+                this.to = to;
+                this.distance = distance;
+            }
+        }
+
+        private static class GraphVersion {
+            final CompactGraph graph;
+            final long[] modeVersions;
+            final long version;
+
+            GraphVersion(CompactGraph graph, long[] modeVersions, long version) {
+                this.graph = graph;
+                this.modeVersions = modeVersions;
+                this.version = version;
+            }
+
+            // Multimodal answers (mode -1) depend on every mode.
+            long modeVersion(int mode) {
+                if (mode >= 0) {
+                    return modeVersions[mode];
+                }
+                long sum = 0;
+                for (long modeVersion : modeVersions) {
+                    sum += modeVersion;
+                }
+                return sum;
+            }
+        }
+
+        public MultimodalRoute findMultimodalRoute(String start, String end, MultimodalOptions options) {
+            return findMultimodalRoute(compact(), start, end, options, null);
+        }
+
+        // One Dijkstra over (city, mode) states: riding an edge costs the mode's unit cost times its
+        // distance, and changing mode at a city costs the transfer penalty.
+        private MultimodalRoute findMultimodalRoute(CompactGraph graph, String start, String end, MultimodalOptions options,
+                                                    long[] stats) {
+            int source = graph.cityId(start);
+            int target = graph.cityId(end);
+            if (source < 0 || target < 0) {
+                return null;
+            }
+
+            int modes = CompactGraph.MODES.length;
+            int[] costs = new int[graph.cityCount() * modes];
+            int[] previous = new int[costs.length];
+            Arrays.fill(costs, Integer.MAX_VALUE);
+            Arrays.fill(previous, -1);
+
+            LongHeap heap = new LongHeap();
+            for (int mode = 0; mode < modes; mode++) {
+                costs[source * modes + mode] = 0;
+                heap.push(0, source * modes + mode);
+            }
+
+            int reached = -1;
+            int settled = 0;
+            while (!heap.isEmpty()) {
+                long top = heap.pop();
+                int state = LongHeap.value(top);
+                int cost = LongHeap.key(top);
+                if (cost > costs[state]) {
+                    continue;
+                }
+                settled++;
+                int city = state / modes;
+                int mode = state % modes;
+                if (city == target) {
+                    reached = state;
+                    break;
+                }
+
+                int[] offset = graph.offsets[mode];
+                for (int i = offset[city]; i < offset[city + 1]; i++) {
+                    int next = graph.targets[mode][i] * modes + mode;
+                    int nextCost = cost + options.costPerUnit[mode] * graph.weights[mode][i];
+                    if (nextCost < costs[next]) {
+                        costs[next] = nextCost;
+                        previous[next] = state;
+                        heap.push(nextCost, next);
+                    }
+                }
+                for (int other = 0; other < modes; other++) {
+                    int next = city * modes + other;
+                    int nextCost = cost + options.transferPenalty;
+                    if (other != mode && nextCost < costs[next]
+                            && graph.offsets[other][city] < graph.offsets[other][city + 1]) {
+                        costs[next] = nextCost;
+                        previous[next] = state;
+                        heap.push(nextCost, next);
+                    }
+                }
+            }
+            if (stats != null) {
+                stats[0] = settled;
+            }
+            if (reached < 0) {
+                return null;
+            }
+
+            LinkedList<String> cities = new LinkedList<>();
+            LinkedList<String> legModes = new LinkedList<>();
+            cities.addFirst(graph.cityName(reached / modes));
+            for (int state = reached; previous[state] >= 0; state = previous[state]) {
+                int from = previous[state];
+                if (from / modes != state / modes) {
+                    cities.addFirst(graph.cityName(from / modes));
+                    legModes.addFirst(CompactGraph.MODES[state % modes]);
+                }
+            }
+            return new MultimodalRoute(new ArrayList<>(cities), new ArrayList<>(legModes), costs[reached]);
+        }
+
+        // Optional preprocessing for repeated point-to-point queries. Once enabled for a mode, the
+        // publisher rebuilds the hierarchy after each version that changed the mode. Until it is
+        // done, queries on the new version search it without the hierarchy.
+        public void prepareHierarchy(String mode) {
+            int index = CompactGraph.modeIndex(mode);
+            if (index < 0) {
+                throw new IllegalArgumentException("unknown mode " + mode);
+            }
+            writeLock.lock();
+            try {
+                hierarchyModes |= 1 << index;
+            } finally {
+                writeLock.unlock();
+            }
+            buildHierarchy(compact(), index);
+        }
+
+        // Runs on the publisher. A newer version published meanwhile queues its own rebuild.
+        private void rebuildHierarchies(CompactGraph graph) {
+            int modes = hierarchyModes;
+            for (int index = 0; index < CompactGraph.MODES.length; index++) {
+                if ((modes & (1 << index)) != 0) {
+                    buildHierarchy(graph, index);
+                }
+            }
+        }
+
+        // Kept only if no other build replaced the hierarchy in the meantime.
+        private void buildHierarchy(CompactGraph graph, int index) {
+            ContractionHierarchy hierarchy = hierarchies.get(index);
+            if (hierarchy == null || !hierarchy.isBuiltFrom(graph, index)) {
+                hierarchies.compareAndSet(index, hierarchy, ContractionHierarchy.build(graph, index));
+            }
+        }
+
+        public int shortestDistance(String start, String end, String mode) {
+            int index = CompactGraph.modeIndex(mode);
+            CompactGraph graph = compact();
+            int source = graph.cityId(start);
+            int target = graph.cityId(end);
+            if (index < 0 || source < 0 || target < 0) {
+                return -1;
+            }
+
+            int distance;
+            GeoSearch search;
+            ContractionHierarchy hierarchy = hierarchies.get(index);
+            if (hierarchy != null && hierarchy.isBuiltFrom(graph, index)) {
+                distance = hierarchy.distance(source, target);
+            } else if ((search = geoSearch(graph, index)) != null) {
+                distance = search.bidirectionalDistance(source, target, null);
+            } else {
+                distance = graph.shortestDistance(index, source, target);
+            }
+            return distance == Integer.MAX_VALUE ? -1 : distance;
+        }
+
+        // Every city whose cheapest trip from start in this mode costs at most maxCost, nearest first.
+        public List<ReachableCity> reachable(String start, String mode, int maxCost) {
+            CompactGraph graph = compact();
+            return reachableCities(graph,
+                    Reachability.search(graph, CompactGraph.modeIndex(mode), graph.cityId(start), maxCost));
+        }
+
+        // reachable() for several origins at once, one search per origin on the common pool. Unknown
+        // origins map to an empty list.
+        public Map<String, List<ReachableCity>> reachableFrom(Collection<String> starts, String mode, int maxCost) {
+            CompactGraph graph = compact();
+            String[] origins = starts.toArray(new String[0]);
+            int[] sources = new int[origins.length];
+            for (int i = 0; i < origins.length; i++) {
+                sources[i] = graph.cityId(origins[i]);
+            }
+            long[][] results = Reachability.searchAll(graph, CompactGraph.modeIndex(mode), sources, maxCost,
+                    ForkJoinPool.commonPool());
+            Map<String, List<ReachableCity>> reachable = new LinkedHashMap<>();
+            for (int i = 0; i < origins.length; i++) {
+                reachable.put(origins[i], reachableCities(graph, results[i]));
+            }
+            return reachable;
+        }
+
+        private static List<ReachableCity> reachableCities(CompactGraph graph, long[] entries) {
+            List<ReachableCity> cities = new ArrayList<>(entries.length);
+            for (long entry : entries) {
+                cities.add(new ReachableCity(graph.cityName(LongHeap.value(entry)), LongHeap.key(entry)));
+            }
+            return cities;
+        }
+
+        // Only modes in which every city with an arc has a location get a search; it is rebuilt
+        // lazily whenever that mode or any location changes.
+        GeoSearch geoSearch(CompactGraph graph, int mode) {
+            if (mode < 0 || graph.latitudes == null) {
+                return null;
+            }
+            GeoSearch search = geoSearches.get(mode);
+            if (search == null || !search.isBuiltFrom(graph, mode)) {
+                search = GeoSearch.build(graph, mode);
+                geoSearches.set(mode, search);
+            }
+            return search.isGuided() ? search : null;
+        }
+
+        private static boolean expired(long deadline) {
+            return System.nanoTime() - deadline >= 0 || Thread.currentThread().isInterrupted();
+        }
+    }
+
+    // Frozen compressed-sparse-row form of Graph: cities are interned to ints and every mode
+    // keeps its adjacency in three flat arrays, so traversal never touches a String or an object.
+    static class CompactGraph {
+        static final String[] MODES = {"Road", "Train", "Plane", "Bus"};
+
+        // Names of a snapshot-loaded graph stay UTF-8 encoded in nameBytes until first asked for.
+        // cityTable is an open-addressing hash of name -> id + 1, so lookups need no boxed map.
+        private final String[] cityNames;
+        private final byte[] nameBytes;
+        private final int[] nameOffsets;
+        final int[] cityTable;
+        final int[][] offsets;
+        final int[][] targets;
+        final int[][] weights;
+        // Degrees per city id, NaN where a city has no known location; both null when none has one.
+        final float[] latitudes;
+        final float[] longitudes;
+        // Per mode, filled on first use: 1 when every arc weighs one, 2 otherwise.
+        private final byte[] unitWeights = new byte[MODES.length];
+
+        private CompactGraph(String[] cityNames, byte[] nameBytes, int[] nameOffsets, int[] cityTable,
+                             int[][] offsets, int[][] targets, int[][] weights, float[] latitudes, float[] longitudes) {
+            this.cityNames = cityNames;
+            this.nameBytes = nameBytes;
+            this.nameOffsets = nameOffsets;
+            this.cityTable = cityTable;
+            this.offsets = offsets;
+            this.targets = targets;
+            this.weights = weights;
+            this.latitudes = latitudes;
+            this.longitudes = longitudes;
+        }
+
+        private static int[] buildCityTable(String[] names) {
+            int[] table = new int[Integer.highestOneBit(Math.max(2, names.length * 2 - 1)) << 1];
+            for (int id = 0; id < names.length; id++) {
+                insertCity(table, names[id], id);
+            }
+            return table;
+        }
+
+        private static void insertCity(int[] table, String name, int id) {
+            int mask = table.length - 1;
+            int slot = tableSlot(name, mask);
+            while (table[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            table[slot] = id + 1;
+        }
+
+        private static int tableSlot(String name, int mask) {
+            int hash = name.hashCode();
+            return (hash ^ (hash >>> 16)) & mask;
+        }
+
+        static int modeIndex(String mode) {
+            for (int i = 0; i < MODES.length; i++) {
+                if (MODES[i].equals(mode)) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        public int cityCount() {
+            return cityNames.length;
+        }
+
+        public int cityId(String city) {
+            int mask = cityTable.length - 1;
+            for (int slot = tableSlot(city, mask); cityTable[slot] != 0; slot = (slot + 1) & mask) {
+                if (cityName(cityTable[slot] - 1).equals(city)) {
+                    return cityTable[slot] - 1;
+                }
+            }
+            return -1;
+        }
+
+        public String cityName(int id) {
+            String name = cityNames[id];
+            if (name == null) {
+                name = new String(nameBytes, nameOffsets[id], nameOffsets[id + 1] - nameOffsets[id],
+                        StandardCharsets.UTF_8);
+                cityNames[id] = name;
+            }
+            return name;
+        }
+
+        public int arcCount(int mode) {
+            return targets[mode].length;
+        }
+
+        public boolean hasUnitWeights(int mode) {
+            if (unitWeights[mode] == 0) {
+                byte unit = 1;
+                for (int weight : weights[mode]) {
+                    if (weight != 1) {
+                        unit = 2;
+                        break;
+                    }
+                }
+                unitWeights[mode] = unit;
+            }
+            return unitWeights[mode] == 1;
+        }
+
+        public boolean hasLocation(int city) {
+            return latitudes != null && !Float.isNaN(latitudes[city]);
+        }
+
+        private static float[] resizeLocations(float[] values, int length) {
+            int known = values.length;
+            values = Arrays.copyOf(values, length);
+            if (length > known) {
+                Arrays.fill(values, known, length, Float.NaN);
+            }
+            return values;
+        }
+
+        public int[] shortestDistances(int mode, int source) {
+            int[] offset = offsets[mode];
+            int[] target = targets[mode];
+            int[] weight = weights[mode];
+            int[] distances = new int[cityNames.length];
+            Arrays.fill(distances, Integer.MAX_VALUE);
+            distances[source] = 0;
+
+            LongHeap heap = new LongHeap();
+            heap.push(0, source);
+            while (!heap.isEmpty()) {
+                long top = heap.pop();
+                int city = LongHeap.value(top);
+                int distance = LongHeap.key(top);
+                if (distance > distances[city]) {
+                    continue;
+                }
+                for (int i = offset[city]; i < offset[city + 1]; i++) {
+                    int next = distance + weight[i];
+                    if (next < distances[target[i]]) {
+                        distances[target[i]] = next;
+                        heap.push(next, target[i]);
+                    }
+                }
+            }
+            return distances;
+        }
+
+        public int shortestDistance(int mode, int source, int target) {
+            return shortestDistance(mode, source, target, null);
+        }
+
+        // When stats is non-null, stats[0] receives the number of settled cities.
+        public int shortestDistance(int mode, int source, int target, long[] stats) {
+            int[] offset = offsets[mode];
+            int[] distances = new int[cityNames.length];
+            Arrays.fill(distances, Integer.MAX_VALUE);
+            distances[source] = 0;
+
+            LongHeap heap = new LongHeap();
+            heap.push(0, source);
+            int settled = 0;
+            int found = Integer.MAX_VALUE;
+            while (!heap.isEmpty()) {
+                long top = heap.pop();
+                int city = LongHeap.value(top);
+                int distance = LongHeap.key(top);
+                if (distance > distances[city]) {
+                    continue;
+                }
+                settled++;
+                if (city == target) {
+                    found = distance;
+                    break;
+                }
+                for (int i = offset[city]; i < offset[city + 1]; i++) {
+                    int next = distance + weights[mode][i];
+                    if (next < distances[targets[mode][i]]) {
+                        distances[targets[mode][i]] = next;
+                        heap.push(next, targets[mode][i]);
+                    }
+                }
+            }
+            if (stats != null) {
+                stats[0] = settled;
+            }
+            return found;
+        }
+
+        // When extending a previous version, its city ids are kept and new cities are appended.
+        // Modes not flagged in rebuild take no arcs and reuse the previous arrays, with offsets
+        // padded out for the new cities.
+        static class Builder {
+            private final CompactGraph previous;
+            private final boolean[] changed;
+            private final int firstNewCity;
+            private final Map<String, Integer> cityIds = new HashMap<>();
+            private final List<String> cityNames = new ArrayList<>();
+            private final int[][] froms = new int[MODES.length][16];
+            private final int[][] tos = new int[MODES.length][16];
+            private final int[][] distances = new int[MODES.length][16];
+            private final int[] arcCounts = new int[MODES.length];
+            private float[] latitudes;
+            private float[] longitudes;
+
+            Builder() {
+                this(null, null);
+            }
+
+            // Extends a previous version: modes marked changed get its arcs plus the ones added here,
+            // the other modes share its arrays.
+            Builder(CompactGraph previous, boolean[] changed) {
+                this.previous = previous;
+                this.changed = changed;
+                this.firstNewCity = previous == null ? 0 : previous.cityCount();
+            }
+
+            public int internCity(String city) {
+                if (previous != null) {
+                    int known = previous.cityId(city);
+                    if (known >= 0) {
+                        return known;
+                    }
+                }
+                Integer id = cityIds.get(city);
+                if (id == null) {
+                    id = firstNewCity + cityNames.size();
+                    cityIds.put(city, id);
+                    cityNames.add(city);
+                }
+                return id;
+            }
+
+            public void setLocation(int city, double latitude, double longitude) {
+                if (latitudes == null) {
+                    boolean inherited = previous != null && previous.latitudes != null;
+                    latitudes = inherited ? previous.latitudes.clone() : new float[0];
+                    longitudes = inherited ? previous.longitudes.clone() : new float[0];
+                }
+                if (city >= latitudes.length) {
+                    int length = Math.max(city + 1, latitudes.length * 2);
+                    latitudes = resizeLocations(latitudes, length);
+                    longitudes = resizeLocations(longitudes, length);
+                }
+                latitudes[city] = (float) latitude;
+                longitudes[city] = (float) longitude;
+            }
+
+            public void addEdge(int mode, String from, String to, int distance) {
+                int fromId = internCity(from);
+                int toId = internCity(to);
+                addArc(mode, fromId, toId, distance);
+                addArc(mode, toId, fromId, distance);
+            }
+
+            public void addArc(int mode, int from, int to, int distance) {
+                int count = arcCounts[mode];
+                if (count == froms[mode].length) {
+                    froms[mode] = Arrays.copyOf(froms[mode], count * 2);
+                    tos[mode] = Arrays.copyOf(tos[mode], count * 2);
+                    distances[mode] = Arrays.copyOf(distances[mode], count * 2);
+                }
+                froms[mode][count] = from;
+                tos[mode][count] = to;
+                distances[mode][count] = distance;
+                arcCounts[mode] = count + 1;
+            }
+
+            public CompactGraph build() {
+                int cityCount = firstNewCity + cityNames.size();
+                int[][] offsets = new int[MODES.length][];
+                int[][] targets = new int[MODES.length][];
+                int[][] weights = new int[MODES.length][];
+
+                for (int mode = 0; mode < MODES.length; mode++) {
+                    if (previous != null && !changed[mode]) {
+                        int[] offset = previous.offsets[mode];
+                        if (offset.length < cityCount + 1) {
+                            offset = Arrays.copyOf(offset, cityCount + 1);
+                            Arrays.fill(offset, previous.cityCount() + 1, cityCount + 1, offset[previous.cityCount()]);
+                        }
+                        offsets[mode] = offset;
+                        targets[mode] = previous.targets[mode];
+                        weights[mode] = previous.weights[mode];
+                        continue;
+                    }
+
+                    int count = arcCounts[mode];
+                    int[] offset = new int[cityCount + 1];
+                    for (int i = 0; i < count; i++) {
+                        offset[froms[mode][i] + 1]++;
+                    }
+                    int[] previousOffset = previous != null ? previous.offsets[mode] : null;
+                    int previousCities = previous != null ? previous.cityCount() : 0;
+                    for (int city = 0; city < cityCount; city++) {
+                        offset[city + 1] += offset[city]
+                                + (city < previousCities ? previousOffset[city + 1] - previousOffset[city] : 0);
+                    }
+
+                    int[] cursor = Arrays.copyOf(offset, cityCount);
+                    int[] target = new int[offset[cityCount]];
+                    int[] weight = new int[offset[cityCount]];
+                    for (int city = 0; city < previousCities; city++) {
+                        int degree = previousOffset[city + 1] - previousOffset[city];
+                        System.arraycopy(previous.targets[mode], previousOffset[city], target, cursor[city], degree);
+                        System.arraycopy(previous.weights[mode], previousOffset[city], weight, cursor[city], degree);
+                        cursor[city] += degree;
+                    }
+                    for (int i = 0; i < count; i++) {
+                        int slot = cursor[froms[mode][i]]++;
+                        target[slot] = tos[mode][i];
+                        weight[slot] = distances[mode][i];
+                    }
+
+                    offsets[mode] = offset;
+                    targets[mode] = target;
+                    weights[mode] = weight;
+                }
+                float[] cityLatitudes = latitudes != null ? latitudes : previous != null ? previous.latitudes : null;
+                float[] cityLongitudes = longitudes != null ? longitudes : previous != null ? previous.longitudes : null;
+                if (cityLatitudes != null && cityLatitudes.length != cityCount) {
+                    cityLatitudes = resizeLocations(cityLatitudes, cityCount);
+                    cityLongitudes = resizeLocations(cityLongitudes, cityCount);
+                }
+                if (previous == null) {
+                    String[] names = cityNames.toArray(new String[0]);
+                    return new CompactGraph(names, null, null, buildCityTable(names), offsets, targets, weights,
+                            cityLatitudes, cityLongitudes);
+                }
+
+                String[] names = Arrays.copyOf(previous.cityNames, cityCount);
+                for (int i = 0; i < cityNames.size(); i++) {
+                    names[firstNewCity + i] = cityNames.get(i);
+                }
+                int[] cityTable;
+                if (cityNames.isEmpty()) {
+                    cityTable = previous.cityTable;
+                } else if (cityCount * 2 <= previous.cityTable.length) {
+                    cityTable = previous.cityTable.clone();
+                    for (int id = firstNewCity; id < cityCount; id++) {
+                        insertCity(cityTable, names[id], id);
+                    }
+                } else {
+                    for (int id = 0; id < firstNewCity; id++) {
+                        names[id] = previous.cityName(id);
+                    }
+                    cityTable = buildCityTable(names);
+                }
+                return new CompactGraph(names, previous.nameBytes, previous.nameOffsets, cityTable,
+                        offsets, targets, weights, cityLatitudes, cityLongitudes);
+            }
+        }
+    }
+
+    // Contraction hierarchy over one mode of a CompactGraph. Every mode map is undirected, so a
+    // single upward graph serves both halves of the bidirectional query.
+    static class ContractionHierarchy {
+        private static final int WITNESS_SETTLE_LIMIT = 250;
+        private static final int ESTIMATE_SETTLE_LIMIT = 30;
+        private static final int PRIORITY_OFFSET = 1 << 20;
+
+        private final int[] upOffsets;
+        private final int[] upTargets;
+        private final int[] upWeights;
+        private final int shortcutCount;
+        private final int[] sourceTargets;
+        private final ThreadLocal<QueryState> queryState;
+
+        private ContractionHierarchy(int[] sourceTargets, int[] upOffsets, int[] upTargets, int[] upWeights,
+                                     int shortcutCount) {
+            this.sourceTargets = sourceTargets;
+            this.upOffsets = upOffsets;
+            this.upTargets = upTargets;
+            this.upWeights = upWeights;
+            this.shortcutCount = shortcutCount;
+            int cityCount = upOffsets.length - 1;
+            this.queryState = ThreadLocal.withInitial(() -> new QueryState(cityCount));
+        }
+
+        public int arcCount() {
+            return upTargets.length;
+        }
+
+        // Graph versions that did not change this mode share its arrays, so the hierarchy still applies.
+        boolean isBuiltFrom(CompactGraph graph, int mode) {
+            return graph.targets[mode] == sourceTargets;
+        }
+
+        public int shortcutCount() {
+            return shortcutCount;
+        }
+
+        static ContractionHierarchy build(CompactGraph graph, int mode) {
+            Contraction contraction = new Contraction(graph, mode);
+            int cityCount = graph.cityCount();
+
+            LongHeap order = new LongHeap();
+            for (int city = 0; city < cityCount; city++) {
+                order.push(contraction.priority(city) + PRIORITY_OFFSET, city);
+            }
+            while (!order.isEmpty()) {
+                int city = LongHeap.value(order.pop());
+                int priority = contraction.priority(city) + PRIORITY_OFFSET;
+                if (!order.isEmpty() && priority > LongHeap.key(order.peek())) {
+                    order.push(priority, city);
+                    continue;
+                }
+                contraction.contract(city);
+            }
+
+            int[] upOffsets = new int[cityCount + 1];
+            for (int i = 0; i < contraction.upCount; i++) {
+                upOffsets[contraction.upFrom[i] + 1]++;
+            }
+            for (int city = 0; city < cityCount; city++) {
+                upOffsets[city + 1] += upOffsets[city];
+            }
+            int[] cursor = Arrays.copyOf(upOffsets, cityCount);
+            int[] upTargets = new int[contraction.upCount];
+            int[] upWeights = new int[contraction.upCount];
+            for (int i = 0; i < contraction.upCount; i++) {
+                int slot = cursor[contraction.upFrom[i]]++;
+                upTargets[slot] = contraction.upTo[i];
+                upWeights[slot] = contraction.upWeight[i];
+            }
+            return new ContractionHierarchy(graph.targets[mode], upOffsets, upTargets, upWeights,
+                    contraction.shortcutCount);
+        }
+
+        public int distance(int source, int target) {
+            if (source == target) {
+                return 0;
+            }
+            if (source >= upOffsets.length - 1 || target >= upOffsets.length - 1) {
+                return Integer.MAX_VALUE;
+            }
+            QueryState state = queryState.get();
+            state.reset();
+            state.visit(state.forward, source, 0);
+            state.forwardHeap.push(0, source);
+            state.visit(state.backward, target, 0);
+            state.backwardHeap.push(0, target);
+
+            int best = Integer.MAX_VALUE;
+            while (true) {
+                int forwardMin = state.forwardHeap.isEmpty() ? Integer.MAX_VALUE : LongHeap.key(state.forwardHeap.peek());
+                int backwardMin = state.backwardHeap.isEmpty() ? Integer.MAX_VALUE : LongHeap.key(state.backwardHeap.peek());
+                if (Math.min(forwardMin, backwardMin) >= best) {
+                    return best;
+                }
+                if (forwardMin <= backwardMin) {
+                    best = settle(state, state.forwardHeap, state.forward, state.backward, best);
+                } else {
+                    best = settle(state, state.backwardHeap, state.backward, state.forward, best);
+                }
+            }
+        }
+
+        private int settle(QueryState state, LongHeap heap, int[] distances, int[] opposite, int best) {
+            long top = heap.pop();
+            int city = LongHeap.value(top);
+            int distance = LongHeap.key(top);
+            if (distance > distances[city]) {
+                return best;
+            }
+            if (opposite[city] != Integer.MAX_VALUE) {
+                best = Math.min(best, distance + opposite[city]);
+            }
+            for (int i = upOffsets[city]; i < upOffsets[city + 1]; i++) {
+                int next = distance + upWeights[i];
+                if (next < distances[upTargets[i]]) {
+                    state.visit(distances, upTargets[i], next);
+                    heap.push(next, upTargets[i]);
+                }
+            }
+            return best;
+        }
+
+        private static class QueryState {
+            final int[] forward;
+            final int[] backward;
+            final LongHeap forwardHeap = new LongHeap();
+            final LongHeap backwardHeap = new LongHeap();
+            private int[] touched = new int[64];
+            private int touchedCount;
+
+            QueryState(int cityCount) {
+                forward = new int[cityCount];
+                backward = new int[cityCount];
+                Arrays.fill(forward, Integer.MAX_VALUE);
+                Arrays.fill(backward, Integer.MAX_VALUE);
+            }
+
+            void visit(int[] distances, int city, int distance) {
+                if (forward[city] == Integer.MAX_VALUE && backward[city] == Integer.MAX_VALUE) {
+                    if (touchedCount == touched.length) {
+                        touched = Arrays.copyOf(touched, touchedCount * 2);
+                    }
+                    touched[touchedCount++] = city;
+                }
+                distances[city] = distance;
+            }
+
+            void reset() {
+                for (int i = 0; i < touchedCount; i++) {
+                    forward[touched[i]] = Integer.MAX_VALUE;
+                    backward[touched[i]] = Integer.MAX_VALUE;
+                }
+                touchedCount = 0;
+                forwardHeap.clear();
+                backwardHeap.clear();
+            }
+        }
+
+        // Mutable working graph used only while the hierarchy is being built.
+        private static class Contraction {
+            final int[][] neighbours;
+            final int[][] neighbourWeights;
+            final int[] degrees;
+            final int[] contractedNeighbours;
+            int[] upFrom = new int[16];
+            int[] upTo = new int[16];
+            int[] upWeight = new int[16];
+            int upCount;
+            int shortcutCount;
+
+            private final int[] witnessDistances;
+            private int[] witnessTouched = new int[64];
+            private int witnessTouchedCount;
+            private final LongHeap witnessHeap = new LongHeap();
+
+            Contraction(CompactGraph graph, int mode) {
+                int cityCount = graph.cityCount();
+                neighbours = new int[cityCount][];
+                neighbourWeights = new int[cityCount][];
+                degrees = new int[cityCount];
+                for (int city = 0; city < cityCount; city++) {
+                    int arcs = graph.offsets[mode][city + 1] - graph.offsets[mode][city];
+                    neighbours[city] = new int[Math.max(arcs, 4)];
+                    neighbourWeights[city] = new int[Math.max(arcs, 4)];
+                    for (int i = graph.offsets[mode][city]; i < graph.offsets[mode][city + 1]; i++) {
+                        if (graph.targets[mode][i] != city) {
+                            link(city, graph.targets[mode][i], graph.weights[mode][i]);
+                        }
+                    }
+                }
+                contractedNeighbours = new int[cityCount];
+                witnessDistances = new int[cityCount];
+                Arrays.fill(witnessDistances, Integer.MAX_VALUE);
+            }
+
+            int priority(int city) {
+                return shortcuts(city, false) - degrees[city] + contractedNeighbours[city];
+            }
+
+            void contract(int city) {
+                for (int i = 0; i < degrees[city]; i++) {
+                    addUpArc(city, neighbours[city][i], neighbourWeights[city][i]);
+                }
+                shortcuts(city, true);
+                for (int i = 0; i < degrees[city]; i++) {
+                    unlink(neighbours[city][i], city);
+                    contractedNeighbours[neighbours[city][i]]++;
+                }
+                degrees[city] = 0;
+            }
+
+            private int shortcuts(int city, boolean add) {
+                int count = degrees[city];
+                int[] ids = Arrays.copyOf(neighbours[city], count);
+                int[] weights = Arrays.copyOf(neighbourWeights[city], count);
+                int maxWeight = 0;
+                for (int i = 0; i < count; i++) {
+                    maxWeight = Math.max(maxWeight, weights[i]);
+                }
+
+                int shortcuts = 0;
+                for (int i = 0; i < count - 1; i++) {
+                    witnessSearch(ids[i], city, weights[i] + maxWeight,
+                            add ? WITNESS_SETTLE_LIMIT : ESTIMATE_SETTLE_LIMIT);
+                    for (int j = i + 1; j < count; j++) {
+                        int viaCity = weights[i] + weights[j];
+                        if (witnessDistances[ids[j]] > viaCity) {
+                            shortcuts++;
+                            if (add) {
+                                link(ids[i], ids[j], viaCity);
+                                link(ids[j], ids[i], viaCity);
+                                shortcutCount++;
+                            }
+                        }
+                    }
+                }
+                return shortcuts;
+            }
+
+            private void link(int from, int to, int weight) {
+                for (int i = 0; i < degrees[from]; i++) {
+                    if (neighbours[from][i] == to) {
+                        neighbourWeights[from][i] = Math.min(neighbourWeights[from][i], weight);
+                        return;
+                    }
+                }
+                if (degrees[from] == neighbours[from].length) {
+                    neighbours[from] = Arrays.copyOf(neighbours[from], degrees[from] * 2);
+                    neighbourWeights[from] = Arrays.copyOf(neighbourWeights[from], degrees[from] * 2);
+                }
+                neighbours[from][degrees[from]] = to;
+                neighbourWeights[from][degrees[from]++] = weight;
+            }
+
+            private void unlink(int from, int to) {
+                int last = --degrees[from];
+                for (int i = 0; i <= last; i++) {
+                    if (neighbours[from][i] == to) {
+                        neighbours[from][i] = neighbours[from][last];
+                        neighbourWeights[from][i] = neighbourWeights[from][last];
+                        return;
+                    }
+                }
+            }
+
+            private void witnessSearch(int source, int excluded, int limit, int settleLimit) {
+                for (int i = 0; i < witnessTouchedCount; i++) {
+                    witnessDistances[witnessTouched[i]] = Integer.MAX_VALUE;
+                }
+                witnessTouchedCount = 0;
+                witnessHeap.clear();
+                touchWitness(source, 0);
+                witnessHeap.push(0, source);
+
+                int settled = 0;
+                while (!witnessHeap.isEmpty() && settled++ < settleLimit) {
+                    long top = witnessHeap.pop();
+                    int city = LongHeap.value(top);
+                    int distance = LongHeap.key(top);
+                    if (distance > limit) {
+                        return;
+                    }
+                    if (distance > witnessDistances[city]) {
+                        continue;
+                    }
+                    for (int i = 0; i < degrees[city]; i++) {
+                        int next = neighbours[city][i];
+                        int nextDistance = distance + neighbourWeights[city][i];
+                        if (next != excluded && nextDistance < witnessDistances[next]) {
+                            touchWitness(next, nextDistance);
+                            witnessHeap.push(nextDistance, next);
+                        }
+                    }
+                }
+            }
+
+            private void touchWitness(int city, int distance) {
+                if (witnessDistances[city] == Integer.MAX_VALUE) {
+                    if (witnessTouchedCount == witnessTouched.length) {
+                        witnessTouched = Arrays.copyOf(witnessTouched, witnessTouchedCount * 2);
+                    }
+                    witnessTouched[witnessTouchedCount++] = city;
+                }
+                witnessDistances[city] = distance;
+            }
+
+            private void addUpArc(int from, int to, int weight) {
+                if (upCount == upFrom.length) {
+                    upFrom = Arrays.copyOf(upFrom, upCount * 2);
+                    upTo = Arrays.copyOf(upTo, upCount * 2);
+                    upWeight = Arrays.copyOf(upWeight, upCount * 2);
+                }
+                upFrom[upCount] = from;
+                upTo[upCount] = to;
+                upWeight[upCount++] = weight;
+            }
+        }
+    }
+
+    // A* over one mode of a CompactGraph, steered by the great-circle distance to the target. The
+    // distance is scaled by the smallest weight-to-great-circle ratio of any arc in the mode and
+    // floored, so the estimate never overestimates and stays consistent even where recorded
+    // distances are shorter than the straight line. If some city with an arc has no location the
+    // scale is 0 and every search degrades to plain Dijkstra.
+    static class GeoSearch {
+        private static final double EARTH_RADIUS_KM = 6371.0;
+        // Absorbs rounding in the scale, so an estimate cannot exceed the arc it was derived from.
+        private static final double SCALE_MARGIN = 0.999999;
+
+        private final int[] offsets;
+        private final int[] targets;
+        private final int[] weights;
+        private final float[] sourceLatitudes;
+        private final double[] points;
+        private final double scale;
+        private final ThreadLocal<QueryState> queryState;
+
+        private GeoSearch(CompactGraph graph, int mode, double[] points, double scale) {
+            this.offsets = graph.offsets[mode];
+            this.targets = graph.targets[mode];
+            this.weights = graph.weights[mode];
+            this.sourceLatitudes = graph.latitudes;
+            this.points = points;
+            this.scale = scale;
+            int cityCount = graph.cityCount();
+            this.queryState = ThreadLocal.withInitial(() -> new QueryState(cityCount));
+        }
+
+        static GeoSearch build(CompactGraph graph, int mode) {
+            int cityCount = graph.cityCount();
+            double[] points = new double[cityCount * 3];
+            for (int city = 0; city < cityCount; city++) {
+                if (graph.hasLocation(city)) {
+                    setPoint(points, city, graph.latitudes[city], graph.longitudes[city]);
+                } else {
+                    Arrays.fill(points, city * 3, city * 3 + 3, Double.NaN);
+                }
+            }
+
+            double scale = Double.POSITIVE_INFINITY;
+            int[] offset = graph.offsets[mode];
+            for (int city = 0; city < cityCount && scale > 0; city++) {
+                for (int i = offset[city]; i < offset[city + 1]; i++) {
+                    double kilometres = greatCircleKm(points, city, graph.targets[mode][i]);
+                    if (Double.isNaN(kilometres)) {
+                        scale = 0;
+                        break;
+                    }
+                    if (kilometres > 0) {
+                        scale = Math.min(scale, graph.weights[mode][i] / kilometres);
+                    }
+                }
+            }
+            return new GeoSearch(graph, mode, points, scale == Double.POSITIVE_INFINITY ? 0 : scale * SCALE_MARGIN);
+        }
+
+        static double greatCircleKm(double latitudeA, double longitudeA, double latitudeB, double longitudeB) {
+            double[] points = new double[6];
+            setPoint(points, 0, latitudeA, longitudeA);
+            setPoint(points, 1, latitudeB, longitudeB);
+            return greatCircleKm(points, 0, 1);
+        }
+
+        private static void setPoint(double[] points, int city, double latitudeDegrees, double longitudeDegrees) {
+            double latitude = Math.toRadians(latitudeDegrees);
+            double longitude = Math.toRadians(longitudeDegrees);
+            points[city * 3] = Math.cos(latitude) * Math.cos(longitude);
+            points[city * 3 + 1] = Math.cos(latitude) * Math.sin(longitude);
+            points[city * 3 + 2] = Math.sin(latitude);
+        }
+
+        // Straight-line chord between the two unit vectors, turned into the arc it subtends.
+        private static double greatCircleKm(double[] points, int a, int b) {
+            double dx = points[a * 3] - points[b * 3];
+            double dy = points[a * 3 + 1] - points[b * 3 + 1];
+            double dz = points[a * 3 + 2] - points[b * 3 + 2];
+            double chord = Math.sqrt(dx * dx + dy * dy + dz * dz);
+            return 2 * EARTH_RADIUS_KM * Math.asin(Math.min(1.0, chord / 2));
+        }
+
+        // A later graph version can reuse the search while this mode's arcs and all locations are unchanged.
+        boolean isBuiltFrom(CompactGraph graph, int mode) {
+            return graph.targets[mode] == targets && graph.latitudes == sourceLatitudes;
+        }
+
+        // False when the estimate is always 0, i.e. searches would expand exactly what Dijkstra does.
+        boolean isGuided() {
+            return scale > 0;
+        }
+
+        // Lower bound on the distance between two cities in this mode.
+        int estimate(int from, int to) {
+            if (scale == 0) {
+                return 0;
+            }
+            return (int) (scale * greatCircleKm(points, from, to));
+        }
+
+        // When stats is non-null, stats[0] receives the number of settled cities.
+        public int distance(int source, int target, long[] stats) {
+            if (source == target) {
+                return 0;
+            }
+            if (source >= offsets.length - 1 || target >= offsets.length - 1) {
+                return Integer.MAX_VALUE;
+            }
+            QueryState state = queryState.get();
+            state.reset();
+            int[] distances = state.forward;
+            int[] estimates = state.potentials;
+            state.reach(source, estimate(source, target));
+            distances[source] = 0;
+            state.forwardHeap.push(estimates[source], source);
+
+            int settled = 0;
+            int found = Integer.MAX_VALUE;
+            while (!state.forwardHeap.isEmpty()) {
+                long top = state.forwardHeap.pop();
+                int city = LongHeap.value(top);
+                int distance = distances[city];
+                if (LongHeap.key(top) > distance + estimates[city]) {
+                    continue;
+                }
+                settled++;
+                if (city == target) {
+                    found = distance;
+                    break;
+                }
+                for (int i = offsets[city]; i < offsets[city + 1]; i++) {
+                    int next = targets[i];
+                    int nextDistance = distance + weights[i];
+                    if (nextDistance < distances[next]) {
+                        if (!state.reached(next)) {
+                            state.reach(next, estimate(next, target));
+                        }
+                        distances[next] = nextDistance;
+                        state.forwardHeap.push(nextDistance + estimates[next], next);
+                    }
+                }
+            }
+            if (stats != null) {
+                stats[0] = settled;
+            }
+            return found;
+        }
+
+        // Bidirectional A* with the averaged potential (estimate(v, target) - estimate(v, source)) / 2,
+        // which is consistent in both directions. Keys are doubled to stay integral, so the forward
+        // key is 2g + potentials[v], the backward key 2g - potentials[v], and the search stops once
+        // the two smallest keys add up to twice the best route seen.
+        public int bidirectionalDistance(int source, int target, long[] stats) {
+            if (source == target) {
+                return 0;
+            }
+            if (source >= offsets.length - 1 || target >= offsets.length - 1) {
+                return Integer.MAX_VALUE;
+            }
+            QueryState state = queryState.get();
+            state.reset();
+            state.reach(source, estimate(source, target));
+            state.forward[source] = 0;
+            state.forwardHeap.push(state.potentials[source], source);
+            state.reach(target, -estimate(target, source));
+            state.backward[target] = 0;
+            state.backwardHeap.push(-state.potentials[target], target);
+
+            int best = Integer.MAX_VALUE;
+            int settled = 0;
+            while (!state.forwardHeap.isEmpty() && !state.backwardHeap.isEmpty()) {
+                long forwardTop = state.forwardHeap.peek();
+                long backwardTop = state.backwardHeap.peek();
+                if (best != Integer.MAX_VALUE
+                        && (long) LongHeap.key(forwardTop) + LongHeap.key(backwardTop) >= 2L * best) {
+                    break;
+                }
+                boolean forward = LongHeap.key(forwardTop) <= LongHeap.key(backwardTop);
+                LongHeap heap = forward ? state.forwardHeap : state.backwardHeap;
+                int[] distances = forward ? state.forward : state.backward;
+                int[] opposite = forward ? state.backward : state.forward;
+                int sign = forward ? 1 : -1;
+
+                long top = heap.pop();
+                int city = LongHeap.value(top);
+                int distance = distances[city];
+                if (LongHeap.key(top) > 2 * distance + sign * state.potentials[city]) {
+                    continue;
+                }
+                settled++;
+                for (int i = offsets[city]; i < offsets[city + 1]; i++) {
+                    int next = targets[i];
+                    int nextDistance = distance + weights[i];
+                    if (nextDistance < distances[next]) {
+                        if (!state.reached(next)) {
+                            state.reach(next, estimate(next, target) - estimate(next, source));
+                        }
+                        distances[next] = nextDistance;
+                        heap.push(2 * nextDistance + sign * state.potentials[next], next);
+                        if (opposite[next] != Integer.MAX_VALUE) {
+                            best = Math.min(best, nextDistance + opposite[next]);
+                        }
+                    }
+                }
+            }
+            if (stats != null) {
+                stats[0] = settled;
+            }
+            return best;
+        }
+
+        private static class QueryState {
+            final int[] forward;
+            final int[] backward;
+            final int[] potentials;
+            final LongHeap forwardHeap = new LongHeap();
+            final LongHeap backwardHeap = new LongHeap();
+            private final boolean[] reached;
+            private int[] touched = new int[64];
+            private int touchedCount;
+
+            QueryState(int cityCount) {
+                forward = new int[cityCount];
+                backward = new int[cityCount];
+                potentials = new int[cityCount];
+                reached = new boolean[cityCount];
+                Arrays.fill(forward, Integer.MAX_VALUE);
+                Arrays.fill(backward, Integer.MAX_VALUE);
+            }
+
+            boolean reached(int city) {
+                return reached[city];
+            }
+
+            void reach(int city, int potential) {
+                if (touchedCount == touched.length) {
+                    touched = Arrays.copyOf(touched, touchedCount * 2);
+                }
+                touched[touchedCount++] = city;
+                reached[city] = true;
+                potentials[city] = potential;
+            }
+
+            void reset() {
+                for (int i = 0; i < touchedCount; i++) {
+                    forward[touched[i]] = Integer.MAX_VALUE;
+                    backward[touched[i]] = Integer.MAX_VALUE;
+                    reached[touched[i]] = false;
+                }
+                touchedCount = 0;
+                forwardHeap.clear();
+                backwardHeap.clear();
+            }
+        }
+    }
+
+    // A city within reach of a reachability query, with the cheapest cost of getting there: kilometres
+    // for Road, legs for the scheduled modes.
+    static class ReachableCity {
+        final String city;
+        final int cost;
+
+        ReachableCity(String city, int cost) {
+            this.city = city;
+            this.cost = cost;
+        }
+
+        public String getCity() {
+            return city;
+        }
+
+        public int getCost() {
+            return cost;
+        }
+
+        @Override
+        public String toString() {
+            return city + " (" + cost + ")";
+        }
+    }
+
+    // Bounded one-to-all searches: everything within maxCost of a source, settled once, instead of a
+    // point-to-point search per destination. Modes whose arcs all weigh one are walked breadth-first;
+    // the rest run a Dijkstra that never pushes a city beyond the bound. Scratch arrays are per thread
+    // and reset through the touched list, so a small radius costs nothing proportional to the graph.
+    static class Reachability {
+        private static final ThreadLocal<Reachability> SCRATCH = ThreadLocal.withInitial(Reachability::new);
+
+        private int[] costs = new int[0];
+        // Touched cities in the order they were reached; the breadth-first walk uses it as its queue.
+        private int[] touched = new int[64];
+        private int touchedCount;
+        private final LongHeap heap = new LongHeap();
+
+        static long[] search(CompactGraph graph, int mode, int source, int maxCost) {
+            return search(graph, mode, source, maxCost, Integer.MAX_VALUE, null);
+        }
+
+        // Entries are cost << 32 | city, cheapest first, without the source itself. Only cities that
+        // pass include are reported, and the search stops once limit of them have been.
+        static long[] search(CompactGraph graph, int mode, int source, int maxCost, int limit, IntPredicate include) {
+            if (mode < 0 || source < 0 || maxCost < 0 || limit <= 0) {
+                return new long[0];
+            }
+            Reachability scratch = SCRATCH.get();
+            try {
+                return graph.hasUnitWeights(mode)
+                        ? scratch.breadthFirst(graph, mode, source, maxCost, limit, include)
+                        : scratch.dijkstra(graph, mode, source, maxCost, limit, include);
+            } finally {
+                scratch.reset();
+            }
+        }
+
+        // One bounded search per source, spread over the pool; results[i] belongs to sources[i].
+        static long[][] searchAll(CompactGraph graph, int mode, int[] sources, int maxCost, ForkJoinPool pool) {
+            long[][] results = new long[sources.length][];
+            if (sources.length > 0) {
+                pool.invoke(new SearchTask(graph, mode, sources, maxCost, results, 0, sources.length));
+            }
+            return results;
+        }
+
+        private long[] breadthFirst(CompactGraph graph, int mode, int source, int maxCost, int limit, IntPredicate include) {
+            int[] offset = graph.offsets[mode];
+            int[] target = graph.targets[mode];
+            prepare(graph);
+            long[] found = new long[16];
+            int count = 0;
+            touch(source, 0);
+            for (int head = 0; head < touchedCount && count < limit; head++) {
+                int city = touched[head];
+                int cost = costs[city];
+                if (city != source && (include == null || include.test(city))) {
+                    if (count == found.length) {
+                        found = Arrays.copyOf(found, count * 2);
+                    }
+                    found[count++] = ((long) cost << 32) | city;
+                }
+                if (cost == maxCost) {
+                    continue;
+                }
+                for (int i = offset[city]; i < offset[city + 1]; i++) {
+                    if (costs[target[i]] == Integer.MAX_VALUE) {
+                        touch(target[i], cost + 1);
+                    }
+                }
+            }
+            return Arrays.copyOf(found, count);
+        }
+
+        private long[] dijkstra(CompactGraph graph, int mode, int source, int maxCost, int limit, IntPredicate include) {
+            int[] offset = graph.offsets[mode];
+            int[] target = graph.targets[mode];
+            int[] weight = graph.weights[mode];
+            prepare(graph);
+            long[] found = new long[16];
+            int count = 0;
+            touch(source, 0);
+            heap.push(0, source);
+            while (!heap.isEmpty() && count < limit) {
+                long top = heap.pop();
+                int city = LongHeap.value(top);
+                int cost = LongHeap.key(top);
+                if (cost > costs[city]) {
+                    continue;
+                }
+                if (city != source && (include == null || include.test(city))) {
+                    if (count == found.length) {
+                        found = Arrays.copyOf(found, count * 2);
+                    }
+                    found[count++] = top;
+                }
+                for (int i = offset[city]; i < offset[city + 1]; i++) {
+                    if (weight[i] > maxCost - cost) {
+                        continue;
+                    }
+                    int next = cost + weight[i];
+                    int neighbour = target[i];
+                    if (costs[neighbour] == Integer.MAX_VALUE) {
+                        touch(neighbour, next);
+                        heap.push(next, neighbour);
+                    } else if (next < costs[neighbour]) {
+                        costs[neighbour] = next;
+                        heap.push(next, neighbour);
+                    }
+                }
+            }
+            return Arrays.copyOf(found, count);
+        }
+
+        private void prepare(CompactGraph graph) {
+            if (costs.length < graph.cityCount()) {
+                costs = new int[graph.cityCount()];
+                Arrays.fill(costs, Integer.MAX_VALUE);
+            }
+        }
+
+        private void touch(int city, int cost) {
+            if (touchedCount == touched.length) {
+                touched = Arrays.copyOf(touched, touchedCount * 2);
+            }
+            touched[touchedCount++] = city;
+            costs[city] = cost;
+        }
+
+        private void reset() {
+            for (int i = 0; i < touchedCount; i++) {
+                costs[touched[i]] = Integer.MAX_VALUE;
+            }
+            touchedCount = 0;
+            heap.clear();
+        }
+
+        private static final class SearchTask extends RecursiveAction {
+            private static final long serialVersionUID = 1L;
+
+            private final CompactGraph graph;
+            private final int mode;
+            private final int[] sources;
+            private final int maxCost;
+            private final long[][] results;
+            private final int from;
+            private final int to;
+
+            SearchTask(CompactGraph graph, int mode, int[] sources, int maxCost, long[][] results, int from, int to) {
+                this.graph = graph;
+                this.mode = mode;
+                this.sources = sources;
+                this.maxCost = maxCost;
+                this.results = results;
+                this.from = from;
+                this.to = to;
+            }
+
+            @Override
+            protected void compute() {
+                if (to - from > 1) {
+                    int mid = (from + to) >>> 1;
+                    invokeAll(new SearchTask(graph, mode, sources, maxCost, results, from, mid),
+                            new SearchTask(graph, mode, sources, maxCost, results, mid, to));
+                    return;
+                }
+                results[from] = search(graph, mode, sources[from], maxCost);
+            }
+        }
+    }
+
+    // A timetabled journey: leg i runs from cities[i] to cities[i + 1] on trips[i], departing at
+    // departures[i] and arriving at arrivals[i], in minutes after midnight of the travel day.
+    static class TimetableJourney {
+        final List<String> cities;
+        final List<String> modes;
+        final List<String> trips;
+        final int[] departures;
+        final int[] arrivals;
+
+        TimetableJourney(List<String> cities, List<String> modes, List<String> trips, int[] departures, int[] arrivals) {
+            this.cities = cities;
+            this.modes = modes;
+            this.trips = trips;
+            this.departures = departures;
+            this.arrivals = arrivals;
+        }
+
+        public int departure() {
+            return departures[0];
+        }
+
+        public int arrival() {
+            return arrivals[arrivals.length - 1];
+        }
+
+        public String format() {
+            StringBuilder journey = new StringBuilder("Journey: ").append(cities.get(0));
+            for (int i = 0; i < trips.size(); i++) {
+                journey.append(' ').append(Timetable.formatTime(departures[i]))
+                        .append(" -").append(modes.get(i)).append(' ').append(trips.get(i)).append("-> ")
+                        .append(cities.get(i + 1)).append(' ').append(Timetable.formatTime(arrivals[i]));
+            }
+            return journey.append(" || Departs ").append(Timetable.formatTime(departure()))
+                    .append(", arrives ").append(Timetable.formatTime(arrival())).toString();
+        }
+    }
+
+    // Frozen daily schedule of the Train, Plane and Bus modes as elementary connections, each one
+    // vehicle running from a city to the next stop of its trip, sorted by departure. Queries use the
+    // Connection Scan Algorithm: one pass over that array with no graph and no priority queue, so a
+    // query over millions of connections takes milliseconds. Times are minutes after midnight, and a
+    // trip that runs past midnight keeps counting, so 25:10 is 1510. Changing trips at a city takes
+    // at least its transfer time; staying on the same trip takes none.
+    static class Timetable {
+        static final int MINUTES_PER_DAY = 1440;
+        static final int DEFAULT_TRANSFER_MINUTES = 10;
+        private static final int UNREACHED = Integer.MAX_VALUE;
+        private static final ThreadLocal<ScanState> SCRATCH = ThreadLocal.withInitial(ScanState::new);
+
+        private final String[] cityNames;
+        private final Map<String, Integer> cityIds;
+        private final int[] transferTimes;
+        private final String[] tripNames;
+        private final byte[] tripModes;
+        // Connection c leaves departureCities[c] at departures[c] and reaches arrivalCities[c] at arrivals[c].
+        final int[] departureCities;
+        final int[] arrivalCities;
+        final int[] departures;
+        final int[] arrivals;
+        final int[] trips;
+
+        private Timetable(String[] cityNames, Map<String, Integer> cityIds, int[] transferTimes, String[] tripNames,
+                          byte[] tripModes, int[] departureCities, int[] arrivalCities, int[] departures, int[] arrivals,
+                          int[] trips) {
+            this.cityNames = cityNames;
+            this.cityIds = cityIds;
+            this.transferTimes = transferTimes;
+            this.tripNames = tripNames;
+            this.tripModes = tripModes;
+            this.departureCities = departureCities;
+            this.arrivalCities = arrivalCities;
+            this.departures = departures;
+            this.arrivals = arrivals;
+            this.trips = trips;
+        }
+
+        // Bit set of the CompactGraph.MODES a query may use: one scheduled mode, or all of them for
+        // Graph.MULTIMODAL. 0 for Road and unknown modes, which have no timetable.
+        static int modeMask(String mode) {
+            if (Graph.MULTIMODAL.equals(mode)) {
+                return scheduledMask();
+            }
+            int index = CompactGraph.modeIndex(mode);
+            return index >= 0 && (scheduledMask() & (1 << index)) != 0 ? 1 << index : 0;
+        }
+
+        private static int scheduledMask() {
+            return (1 << CompactGraph.modeIndex("Train")) | (1 << CompactGraph.modeIndex("Plane"))
+                    | (1 << CompactGraph.modeIndex("Bus"));
+        }
+
+        // "HH:MM", where hours past 23 mean the following day.
+        static int parseTime(String time) {
+            String[] parts = time.trim().split(":");
+            try {
+                if (parts.length == 2) {
+                    int hours = Integer.parseInt(parts[0]);
+                    int minutes = Integer.parseInt(parts[1]);
+                    if (hours >= 0 && minutes >= 0 && minutes < 60) {
+                        return hours * 60 + minutes;
+                    }
+                }
+            } catch (NumberFormatException e) {
+                // reported below
+            }
+            throw new IllegalArgumentException("time must look like HH:MM, not " + time);
+        }
+
+        static String formatTime(int minutes) {
+            int days = minutes / MINUTES_PER_DAY;
+            int time = minutes % MINUTES_PER_DAY;
+            String clock = String.format("%02d:%02d", time / 60, time % 60);
+            return days == 0 ? clock : clock + "+" + days;
+        }
+
+        public int cityId(String city) {
+            Integer id = cityIds.get(city);
+            return id == null ? -1 : id;
+        }
+
+        public int connectionCount() {
+            return departures.length;
+        }
+
+        // The journey that reaches target first among those leaving source at or after departure,
+        // or null when none arrives on the travel day's schedule.
+        public TimetableJourney earliestArrival(int source, int target, int departure, int modeMask) {
+            if (source < 0 || target < 0 || source == target) {
+                return null;
+            }
+            ScanState state = SCRATCH.get();
+            state.prepareArrivals(cityNames.length, tripNames.length);
+            long[] reachedCities = state.reachedCities;
+            long[] boardedTrips = state.boardedTrips;
+            int[] reached = state.reached;
+            int targetArrival = UNREACHED;
+            reachedCities[source >>> 6] |= 1L << source;
+            reached[source] = departure;
+            // Most connections leave cities not reached yet; the bit sets answer that from cache.
+            for (int c = firstDeparture(departure); c < departures.length && departures[c] < targetArrival; c++) {
+                int trip = trips[c];
+                if ((boardedTrips[trip >>> 6] & (1L << trip)) == 0) {
+                    int from = departureCities[c];
+                    if ((reachedCities[from >>> 6] & (1L << from)) == 0
+                            || readyAt(from, source, reached[from]) > departures[c]
+                            || (modeMask & (1 << tripModes[trip])) == 0) {
+                        continue;
+                    }
+                    boardedTrips[trip >>> 6] |= 1L << trip;
+                    state.boarded[trip] = c;
+                }
+                int to = arrivalCities[c];
+                if ((reachedCities[to >>> 6] & (1L << to)) == 0 || arrivals[c] < reached[to]) {
+                    reachedCities[to >>> 6] |= 1L << to;
+                    reached[to] = arrivals[c];
+                    state.via[to] = c;
+                    if (to == target) {
+                        targetArrival = arrivals[c];
+                    }
+                }
+            }
+            return targetArrival == UNREACHED ? null : journey(source, target, state);
+        }
+
+        // Every journey from source to target leaving between from and until that no other journey
+        // beats by leaving later and arriving no later, earliest departure first. One backward scan
+        // keeps, for every city, the departures from it that still improve the arrival at target.
+        // It starts at the earliest arrival for leaving at until, since anything departing after that
+        // can only belong to journeys the one leaving at until beats.
+        public List<TimetableJourney> profile(int source, int target, int from, int until, int modeMask) {
+            if (source < 0 || target < 0 || source == target || until < from) {
+                return List.of();
+            }
+            TimetableJourney latest = earliestArrival(source, target, until, modeMask);
+            int first = firstDeparture(from);
+            int end = latest == null ? departures.length : firstDeparture(latest.arrival() + 1);
+            ScanState state = SCRATCH.get();
+            long[] usable = markUsable(source, from, first, end, modeMask, state);
+            state.prepareProfile(cityNames.length, tripNames.length);
+            int[] tripArrivals = state.tripArrivals;
+            // Besides its arrival, each trip and each entry remembers where the rider gets off and
+            // the entry they continue with after changing, so journeys are read back without a rescan.
+            for (int c = end - 1; c >= first; c--) {
+                if ((usable[(c - first) >>> 6] & (1L << (c - first))) == 0) {
+                    continue;
+                }
+                int trip = trips[c];
+                int to = arrivalCities[c];
+                int best = UNREACHED;
+                int continuation = -1;
+                if (to == target) {
+                    best = arrivals[c];
+                } else {
+                    continuation = state.entryFrom(to, arrivals[c] + transferTimes[to]);
+                    if (continuation >= 0) {
+                        best = state.entryArrivals[continuation];
+                    }
+                }
+                int exit = c;
+                if (tripArrivals[trip] <= best) {
+                    if (tripArrivals[trip] == UNREACHED) {
+                        continue;
+                    }
+                    best = tripArrivals[trip];
+                    exit = state.tripExits[trip];
+                    continuation = state.tripContinuations[trip];
+                } else {
+                    tripArrivals[trip] = best;
+                    state.tripExits[trip] = exit;
+                    state.tripContinuations[trip] = continuation;
+                }
+                if (departureCities[c] != target) {
+                    state.addEntry(departureCities[c], departures[c], best, c, exit, continuation);
+                }
+            }
+
+            List<TimetableJourney> journeys = new ArrayList<>();
+            int[] legs = new int[16];
+            int previous = -1;
+            for (int e = state.firstEntry[source]; e >= 0 && state.entryDepartures[e] <= until; e = state.nextEntry[e]) {
+                if (state.entryDepartures[e] == previous) {
+                    continue;
+                }
+                previous = state.entryDepartures[e];
+                int count = 0;
+                for (int leg = e; leg >= 0; leg = state.entryContinuations[leg]) {
+                    if (count == legs.length) {
+                        legs = Arrays.copyOf(legs, count * 2);
+                    }
+                    legs[count++] = state.entryBoardings[leg];
+                    legs[count++] = state.entryExits[leg];
+                }
+                journeys.add(journey(source, legs, count / 2));
+            }
+            return journeys;
+        }
+
+        // A forward scan from source marks, relative to first, the connections a rider leaving at
+        // from could be on at all. On a large network most of a profile's time window is out of reach.
+        private long[] markUsable(int source, int from, int first, int end, int modeMask, ScanState state) {
+            state.prepareArrivals(cityNames.length, tripNames.length);
+            long[] usable = state.usableConnections(end - first);
+            long[] reachedCities = state.reachedCities;
+            long[] boardedTrips = state.boardedTrips;
+            int[] reached = state.reached;
+            reachedCities[source >>> 6] |= 1L << source;
+            reached[source] = from;
+            for (int c = first; c < end; c++) {
+                int trip = trips[c];
+                if ((boardedTrips[trip >>> 6] & (1L << trip)) == 0) {
+                    int city = departureCities[c];
+                    if ((reachedCities[city >>> 6] & (1L << city)) == 0
+                            || readyAt(city, source, reached[city]) > departures[c]
+                            || (modeMask & (1 << tripModes[trip])) == 0) {
+                        continue;
+                    }
+                    boardedTrips[trip >>> 6] |= 1L << trip;
+                }
+                usable[(c - first) >>> 6] |= 1L << (c - first);
+                int to = arrivalCities[c];
+                if ((reachedCities[to >>> 6] & (1L << to)) == 0 || arrivals[c] < reached[to]) {
+                    reachedCities[to >>> 6] |= 1L << to;
+                    reached[to] = arrivals[c];
+                }
+            }
+            return usable;
+        }
+
+        private int readyAt(int city, int source, int arrival) {
+            return city == source ? arrival : arrival + transferTimes[city];
+        }
+
+        private int firstDeparture(int time) {
+            int low = 0;
+            int high = departures.length;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (departures[mid] < time) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            return low;
+        }
+
+        // A city's arrival only improves through connections departing after everything boarded
+        // there, so following the last improving connection and the connection its trip was boarded
+        // at leads back to the source.
+        private TimetableJourney journey(int source, int target, ScanState state) {
+            Deque<Integer> path = new ArrayDeque<>();
+            for (int city = target; city != source; ) {
+                int exit = state.via[city];
+                int enter = state.boarded[trips[exit]];
+                path.addFirst(exit);
+                path.addFirst(enter);
+                city = departureCities[enter];
+            }
+            int[] legs = new int[path.size()];
+            for (int i = 0; i < legs.length; i++) {
+                legs[i] = path.pollFirst();
+            }
+            return journey(source, legs, legs.length / 2);
+        }
+
+        // legs holds the boarding and the exit connection of each leg in turn.
+        private TimetableJourney journey(int source, int[] legs, int count) {
+            List<String> cities = new ArrayList<>(count + 1);
+            List<String> modes = new ArrayList<>(count);
+            List<String> tripList = new ArrayList<>(count);
+            int[] legDepartures = new int[count];
+            int[] legArrivals = new int[count];
+            cities.add(cityNames[source]);
+            for (int i = 0; i < count; i++) {
+                int enter = legs[2 * i];
+                int exit = legs[2 * i + 1];
+                cities.add(cityNames[arrivalCities[exit]]);
+                modes.add(CompactGraph.MODES[tripModes[trips[exit]]]);
+                tripList.add(tripNames[trips[exit]]);
+                legDepartures[i] = departures[enter];
+                legArrivals[i] = arrivals[exit];
+            }
+            return new TimetableJourney(cities, modes, tripList, legDepartures, legArrivals);
+        }
+
+        private static final class ScanState {
+            // Earliest arrival per city, the connection that achieved it, and per trip the first
+            // connection boarded; each is only valid where its bit is set.
+            long[] reachedCities = new long[0];
+            long[] boardedTrips = new long[0];
+            int[] reached = new int[0];
+            int[] via = new int[0];
+            int[] boarded = new int[0];
+            long[] usable = new long[0];
+            // Profile entries form one list per city, ordered by departure, each arriving earlier
+            // than every later departure in the list. An entry boards at one connection, leaves the
+            // trip at another and then continues with another entry, or none at the target.
+            int[] firstEntry = new int[0];
+            int[] tripArrivals = new int[0];
+            int[] tripExits = new int[0];
+            int[] tripContinuations = new int[0];
+            int[] entryDepartures = new int[64];
+            int[] entryArrivals = new int[64];
+            int[] nextEntry = new int[64];
+            int[] entryBoardings = new int[64];
+            int[] entryExits = new int[64];
+            int[] entryContinuations = new int[64];
+            int entryCount;
+
+            void prepareArrivals(int cities, int trips) {
+                if (reached.length < cities) {
+                    reached = new int[cities];
+                    via = new int[cities];
+                    reachedCities = new long[(cities + 63) >>> 6];
+                }
+                if (boarded.length < trips) {
+                    boarded = new int[trips];
+                    boardedTrips = new long[(trips + 63) >>> 6];
+                }
+                Arrays.fill(reachedCities, 0);
+                Arrays.fill(boardedTrips, 0);
+            }
+
+            long[] usableConnections(int connections) {
+                int words = (connections + 63) >>> 6;
+                if (usable.length < words) {
+                    usable = new long[words];
+                }
+                Arrays.fill(usable, 0, words, 0);
+                return usable;
+            }
+
+            void prepareProfile(int cities, int trips) {
+                if (firstEntry.length < cities) {
+                    firstEntry = new int[cities];
+                }
+                if (tripArrivals.length < trips) {
+                    tripArrivals = new int[trips];
+                    tripExits = new int[trips];
+                    tripContinuations = new int[trips];
+                }
+                Arrays.fill(firstEntry, -1);
+                Arrays.fill(tripArrivals, UNREACHED);
+                entryCount = 0;
+            }
+
+            // The entry arriving first among those leaving city at or after time, or -1.
+            int entryFrom(int city, int time) {
+                for (int e = firstEntry[city]; e >= 0; e = nextEntry[e]) {
+                    if (entryDepartures[e] >= time) {
+                        return e;
+                    }
+                }
+                return -1;
+            }
+
+            // Departures arrive in decreasing order, so the new entry goes first when it beats the
+            // current first one. One with the same departure shadows the old entry, which may still
+            // be some trip's continuation.
+            void addEntry(int city, int departure, int arrival, int boarding, int exit, int continuation) {
+                int head = firstEntry[city];
+                if (head >= 0 && entryArrivals[head] <= arrival) {
+                    return;
+                }
+                if (entryCount == entryDepartures.length) {
+                    int length = entryCount * 2;
+                    entryDepartures = Arrays.copyOf(entryDepartures, length);
+                    entryArrivals = Arrays.copyOf(entryArrivals, length);
+                    nextEntry = Arrays.copyOf(nextEntry, length);
+                    entryBoardings = Arrays.copyOf(entryBoardings, length);
+                    entryExits = Arrays.copyOf(entryExits, length);
+                    entryContinuations = Arrays.copyOf(entryContinuations, length);
+                }
+                entryDepartures[entryCount] = departure;
+                entryArrivals[entryCount] = arrival;
+                nextEntry[entryCount] = head;
+                entryBoardings[entryCount] = boarding;
+                entryExits[entryCount] = exit;
+                entryContinuations[entryCount] = continuation;
+                firstEntry[city] = entryCount++;
+            }
+        }
+
+        static final class Builder {
+            private final Map<String, Integer> cityIds = new HashMap<>();
+            private final List<String> cityNames = new ArrayList<>();
+            private final Map<String, Integer> transferTimes = new HashMap<>();
+            // Trips are keyed by mode and name, so a train and a bus may share a number.
+            private final Map<String, Integer> tripIds = new HashMap<>();
+            private final List<String> tripNames = new ArrayList<>();
+            private byte[] tripModes = new byte[16];
+            private int[] departureCities = new int[64];
+            private int[] arrivalCities = new int[64];
+            private int[] departures = new int[64];
+            private int[] arrivals = new int[64];
+            private int[] trips = new int[64];
+            private int count;
+
+            // The connections of one trip must be added in the order it runs them.
+            void addConnection(int mode, String trip, String from, String to, int departure, int arrival) {
+                if (mode < 0 || (scheduledMask() & (1 << mode)) == 0) {
+                    throw new IllegalArgumentException("mode " + (mode < 0 ? mode : CompactGraph.MODES[mode]) + " has no timetable");
+                }
+                if (departure < 0 || arrival < departure) {
+                    throw new IllegalArgumentException("trip " + trip + " arrives at " + to + " before leaving " + from);
+                }
+                if (from.equals(to)) {
+                    throw new IllegalArgumentException("trip " + trip + " connects " + from + " to itself");
+                }
+                if (count == departures.length) {
+                    departureCities = Arrays.copyOf(departureCities, count * 2);
+                    arrivalCities = Arrays.copyOf(arrivalCities, count * 2);
+                    departures = Arrays.copyOf(departures, count * 2);
+                    arrivals = Arrays.copyOf(arrivals, count * 2);
+                    trips = Arrays.copyOf(trips, count * 2);
+                }
+                departureCities[count] = internCity(from);
+                arrivalCities[count] = internCity(to);
+                departures[count] = departure;
+                arrivals[count] = arrival;
+                trips[count] = internTrip(mode, trip);
+                count++;
+            }
+
+            void setTransferTime(String city, int minutes) {
+                if (minutes < 0) {
+                    throw new IllegalArgumentException("transfer time at " + city + " must not be negative");
+                }
+                internCity(city);
+                transferTimes.put(city, minutes);
+            }
+
+            private int internCity(String city) {
+                Integer id = cityIds.get(city);
+                if (id == null) {
+                    id = cityNames.size();
+                    cityIds.put(city, id);
+                    cityNames.add(city);
+                }
+                return id;
+            }
+
+            private int internTrip(int mode, String trip) {
+                String key = mode + ":" + trip;
+                Integer id = tripIds.get(key);
+                if (id == null) {
+                    id = tripNames.size();
+                    tripIds.put(key, id);
+                    tripNames.add(trip);
+                    if (id == tripModes.length) {
+                        tripModes = Arrays.copyOf(tripModes, id * 2);
+                    }
+                    tripModes[id] = (byte) mode;
+                }
+                return id;
+            }
+
+            // Sorts by departure, keeping the order in which connections with the same departure
+            // were added, so a trip's zero-minute legs stay in running order.
+            Timetable build() {
+                long[] order = new long[count];
+                for (int c = 0; c < count; c++) {
+                    order[c] = ((long) departures[c] << 32) | c;
+                }
+                Arrays.sort(order);
+                int[] sortedFrom = new int[count];
+                int[] sortedTo = new int[count];
+                int[] sortedDepartures = new int[count];
+                int[] sortedArrivals = new int[count];
+                int[] sortedTrips = new int[count];
+                for (int i = 0; i < count; i++) {
+                    int c = (int) order[i];
+                    sortedFrom[i] = departureCities[c];
+                    sortedTo[i] = arrivalCities[c];
+                    sortedDepartures[i] = departures[c];
+                    sortedArrivals[i] = arrivals[c];
+                    sortedTrips[i] = trips[c];
+                }
+                int[] transfers = new int[cityNames.size()];
+                Arrays.fill(transfers, DEFAULT_TRANSFER_MINUTES);
+                for (Map.Entry<String, Integer> entry : transferTimes.entrySet()) {
+                    transfers[cityIds.get(entry.getKey())] = entry.getValue();
+                }
+                return new Timetable(cityNames.toArray(new String[0]), new HashMap<>(cityIds), transfers,
+                        tripNames.toArray(new String[0]), Arrays.copyOf(tripModes, tripNames.size()),
+                        sortedFrom, sortedTo, sortedDepartures, sortedArrivals, sortedTrips);
+            }
+        }
+    }
+
+    // Binary min-heap of (int key, int value) pairs packed into longs, so priority queues
+    // over city ids do not box.
+    static class LongHeap {
+        private long[] heap = new long[16];
+        private int size;
+
+        static int key(long entry) {
+            return (int) (entry >>> 32);
+        }
+
+        static int value(long entry) {
+            return (int) entry;
+        }
+
+        public boolean isEmpty() {
+            return size == 0;
+        }
+
+        public int size() {
+            return size;
+        }
+
+        public void clear() {
+            size = 0;
+        }
+
+        public void push(int key, int value) {
+            if (size == heap.length) {
+                heap = Arrays.copyOf(heap, size * 2);
+            }
+            long entry = ((long) key << 32) | (value & 0xFFFFFFFFL);
+            int i = size++;
+            while (i > 0) {
+                int parent = (i - 1) >>> 1;
+                if (heap[parent] <= entry) {
+                    break;
+                }
+                heap[i] = heap[parent];
+                i = parent;
+            }
+            heap[i] = entry;
+        }
+
+        public long peek() {
+            return heap[0];
+        }
+
+        public long pop() {
+            long top = heap[0];
+            long last = heap[--size];
+            int i = 0;
+            while (true) {
+                int child = 2 * i + 1;
+                if (child >= size) {
+                    break;
+                }
+                if (child + 1 < size && heap[child + 1] < heap[child]) {
+                    child++;
+                }
+                if (heap[child] >= last) {
+                    break;
+                }
+                heap[i] = heap[child];
+                i = child;
+            }
+            heap[i] = last;
+            return top;
+        }
+    }
+
+    // Bounded LRU cache of formatted route answers, limited both by entry count and by total
+    // characters held. Entries remember the mode version they were computed against and are
+    // dropped on lookup once that mode has been changed by addEdge.
+    static class RouteCache {
+        private int maxEntries;
+        private long maxWeight;
+        private final LinkedHashMap<Key, CachedRoutes> entries = new LinkedHashMap<>(16, 0.75f, true);
+        private long weight;
+        private long hits;
+        private long misses;
+        private long evictions;
+        private long invalidations;
+
+        RouteCache(int maxEntries, long maxWeight) {
+            this.maxEntries = maxEntries;
+            this.maxWeight = maxWeight;
+        }
+
+        public synchronized List<String> get(Key key, long version) {
+            CachedRoutes cached = entries.get(key);
+            if (cached != null && cached.version != version) {
+                entries.remove(key);
+                weight -= cached.weight;
+                invalidations++;
+                cached = null;
+            }
+            if (cached == null) {
+                misses++;
+                return null;
+            }
+            hits++;
+            return cached.routes;
+        }
+
+        public synchronized void put(Key key, long version, List<String> routes) {
+            long routesWeight = 0;
+            for (String route : routes) {
+                routesWeight += route.length();
+            }
+            if (routesWeight > maxWeight) {
+                return;
+            }
+
+            CachedRoutes previous = entries.put(key, new CachedRoutes(List.copyOf(routes), version, routesWeight));
+            if (previous != null) {
+                weight -= previous.weight;
+            }
+            weight += routesWeight;
+
+            Iterator<CachedRoutes> eldest = entries.values().iterator();
+            while (entries.size() > maxEntries || weight > maxWeight) {
+                weight -= eldest.next().weight;
+                eldest.remove();
+                evictions++;
+            }
+        }
+
+        public synchronized void clear() {
+            entries.clear();
+            weight = 0;
+        }
+
+        // A limit of zero turns caching off.
+        public synchronized void setLimits(int maxEntries, long maxWeight) {
+            this.maxEntries = maxEntries;
+            this.maxWeight = maxWeight;
+            Iterator<CachedRoutes> eldest = entries.values().iterator();
+            while (entries.size() > maxEntries || weight > maxWeight) {
+                weight -= eldest.next().weight;
+                eldest.remove();
+                evictions++;
+            }
+        }
+
+        public synchronized long getHits() {
+            return hits;
+        }
+
+        public synchronized long getMisses() {
+            return misses;
+        }
+
+        public synchronized long getEvictions() {
+            return evictions;
+        }
+
+        public synchronized long getInvalidations() {
+            return invalidations;
+        }
+
+        public synchronized String getStats() {
+            return String.format("entries=%d weight=%d hits=%d misses=%d evictions=%d invalidations=%d",
+                    entries.size(), weight, hits, misses, evictions, invalidations);
+        }
+
+        static class Key {
+            final String start;
+            final String end;
+            final String mode;
+            final int maxRoutes;
+
+            Key(String start, String end, String mode, int maxRoutes) {
+                this.start = start;
+                this.end = end;
+                this.mode = mode;
+                this.maxRoutes = maxRoutes;
+            }
+
+            @Override
+            public boolean equals(Object other) {
+                if (!(other instanceof Key)) {
+                    return false;
+                }
+                Key key = (Key) other;
+                return maxRoutes == key.maxRoutes && start.equals(key.start) && end.equals(key.end)
+                        && mode.equals(key.mode);
+            }
+
+            @Override
+            public int hashCode() {
+                return Objects.hash(start, end, mode, maxRoutes);
+            }
+        }
+
+        private static class CachedRoutes {
+            final List<String> routes;
+            final long version;
+            final long weight;
+
+            CachedRoutes(List<String> routes, long version, long weight) {
+                this.routes = routes;
+                this.version = version;
+                this.weight = weight;
+            }
+        }
+    }
+
+    // Log-linear latency histogram in the style of HdrHistogram: values below 64 ns get exact
+    // buckets, larger ones 32 linear buckets per power of two, so percentiles are within ~3%.
+    static class LatencyHistogram {
+        private static final int SUB_BUCKET_BITS = 5;
+        private static final int LINEAR = 2 << SUB_BUCKET_BITS;
+        private static final int HALF = 1 << SUB_BUCKET_BITS;
+
+        private final AtomicLongArray counts = new AtomicLongArray(LINEAR + (62 - SUB_BUCKET_BITS) * HALF);
+        private final LongAdder total = new LongAdder();
+        private final LongAdder sum = new LongAdder();
+        private final AtomicLong max = new AtomicLong();
+
+        public void record(long nanos) {
+            long value = Math.max(0, nanos);
+            counts.incrementAndGet(index(value));
+            total.increment();
+            sum.add(value);
+            long currentMax = max.get();
+            while (value > currentMax && !max.compareAndSet(currentMax, value)) {
+                currentMax = max.get();
+            }
+        }
+
+        public long count() {
+            return total.sum();
+        }
+
+        public long max() {
+            return max.get();
+        }
+
+        public double mean() {
+            long count = total.sum();
+            return count == 0 ? 0 : (double) sum.sum() / count;
+        }
+
+        // Highest value equivalent to the bucket holding the given fraction of recorded values.
+        public long percentile(double fraction) {
+            long count = total.sum();
+            if (count == 0) {
+                return 0;
+            }
+            long rank = Math.max(1, (long) Math.ceil(fraction * count));
+            long seen = 0;
+            for (int i = 0; i < counts.length(); i++) {
+                seen += counts.get(i);
+                if (seen >= rank) {
+                    return Math.min(highestEquivalent(i), max.get());
+                }
+            }
+            return max.get();
+        }
+
+        public void reset() {
+            for (int i = 0; i < counts.length(); i++) {
+                counts.set(i, 0);
+            }
+            total.reset();
+            sum.reset();
+            max.set(0);
+        }
+
+        static int index(long value) {
+            if (value < LINEAR) {
+                return (int) value;
+            }
+            int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+            return LINEAR + (shift - 1) * HALF + (int) (value >>> shift) - HALF;
+        }
+
+        static long highestEquivalent(int index) {
+            if (index < LINEAR) {
+                return index;
+            }
+            int shift = (index - LINEAR) / HALF + 1;
+            long subBucket = (index - LINEAR) % HALF + HALF;
+            return ((subBucket + 1) << shift) - 1;
+        }
+    }
+
+    public interface LookupStatsMBean {
+        long getCount();
+
+        double getMeanMicros();
+
+        double getP50Micros();
+
+        double getP90Micros();
+
+        double getP99Micros();
+
+        double getP999Micros();
+
+        double getMaxMicros();
+
+        long getExpandedNodes();
+
+        long getPartialPaths();
+
+        long getEmittedResults();
+
+        long getSlowQueries();
+
+        double getFormatP50Micros();
+
+        double getFormatP99Micros();
+
+        void reset();
+    }
+
+    // Latency and work counters of one lookup path; for route searches there is one per mode.
+    static class LookupStats implements LookupStatsMBean {
+        final String name;
+        private final LatencyHistogram latency = new LatencyHistogram();
+        private final LatencyHistogram formatting = new LatencyHistogram();
+        private final LongAdder expandedNodes = new LongAdder();
+        private final LongAdder partialPaths = new LongAdder();
+        private final LongAdder emittedResults = new LongAdder();
+        private final LongAdder slowQueries = new LongAdder();
+
+        LookupStats(String name) {
+            this.name = name;
+        }
+
+        // stats holds expanded nodes, partial paths and formatting nanoseconds; it may be null.
+        void recordRoute(long startNanos, int routes, long[] stats, String start, String end) {
+            long elapsed = System.nanoTime() - startNanos;
+            latency.record(elapsed);
+            emittedResults.add(routes);
+            if (stats != null) {
+                expandedNodes.add(stats[0]);
+                partialPaths.add(stats[1]);
+                formatting.record(stats[2]);
+            }
+            if (elapsed >= Metrics.slowQueryNanos) {
+                slowQueries.increment();
+                Metrics.logSlowQuery(String.format("%s route %s -> %s: %.1f ms, %d nodes expanded, %d routes",
+                        name, start, end, elapsed / 1e6, stats == null ? 0 : stats[0], routes));
+            }
+        }
+
+        void recordLookup(long startNanos, int results, String query) {
+            long elapsed = System.nanoTime() - startNanos;
+            latency.record(elapsed);
+            emittedResults.add(results);
+            if (elapsed >= Metrics.slowQueryNanos) {
+                slowQueries.increment();
+                Metrics.logSlowQuery(String.format("%s lookup '%s': %.1f ms, %d results", name, query, elapsed / 1e6, results));
+            }
+        }
+
+        @Override
+        public long getCount() {
+            return latency.count();
+        }
+
+        @Override
+        public double getMeanMicros() {
+            return latency.mean() / 1e3;
+        }
+
+        @Override
+        public double getP50Micros() {
+            return latency.percentile(0.50) / 1e3;
+        }
+
+        @Override
+        public double getP90Micros() {
+            return latency.percentile(0.90) / 1e3;
+        }
+
+        @Override
+        public double getP99Micros() {
+            return latency.percentile(0.99) / 1e3;
+        }
+
+        @Override
+        public double getP999Micros() {
+            return latency.percentile(0.999) / 1e3;
+        }
+
+        @Override
+        public double getMaxMicros() {
+            return latency.max() / 1e3;
+        }
+
+        @Override
+        public long getExpandedNodes() {
+            return expandedNodes.sum();
+        }
+
+        @Override
+        public long getPartialPaths() {
+            return partialPaths.sum();
+        }
+
+        @Override
+        public long getEmittedResults() {
+            return emittedResults.sum();
+        }
+
+        @Override
+        public long getSlowQueries() {
+            return slowQueries.sum();
+        }
+
+        @Override
+        public double getFormatP50Micros() {
+            return formatting.percentile(0.50) / 1e3;
+        }
+
+        @Override
+        public double getFormatP99Micros() {
+            return formatting.percentile(0.99) / 1e3;
+        }
+
+        @Override
+        public void reset() {
+            latency.reset();
+            formatting.reset();
+            expandedNodes.reset();
+            partialPaths.reset();
+            emittedResults.reset();
+            slowQueries.reset();
+        }
+    }
+
+    public interface MetricsMBean {
+        boolean isEnabled();
+
+        void setEnabled(boolean enabled);
+
+        long getSlowQueryThresholdMillis();
+
+        void setSlowQueryThresholdMillis(long millis);
+
+        String[] getRecentSlowQueries();
+
+        void reset();
+    }
+
+    // Process-wide instrumentation of the route, food and hotel lookups, published over JMX under
+    // "travelingbuddy:*". Off unless -Dtravelingbuddy.metrics=true or the Enabled attribute is set;
+    // while off, a lookup pays one volatile read and nothing else.
+    static class Metrics implements MetricsMBean {
+        static volatile boolean enabled = Boolean.getBoolean("travelingbuddy.metrics");
+        static volatile long slowQueryNanos = Long.getLong("travelingbuddy.slowQueryMillis", 500) * 1_000_000L;
+
+        // Indexed like CompactGraph.MODES, with multimodal searches last.
+        static final LookupStats[] ROUTES = new LookupStats[CompactGraph.MODES.length + 1];
+        static final LookupStats FOOD = new LookupStats("Food");
+        static final LookupStats HOTEL = new LookupStats("Hotel");
+
+        private static final int RECENT_SLOW_QUERIES = 100;
+        private static final Deque<String> recentSlowQueries = new ArrayDeque<>();
+        private static final Logger slowQueryLog = Logger.getLogger("travelingbuddy.slowquery");
+        private static boolean registered;
+
+        static {
+            for (int mode = 0; mode < CompactGraph.MODES.length; mode++) {
+                ROUTES[mode] = new LookupStats(CompactGraph.MODES[mode]);
+            }
+            ROUTES[CompactGraph.MODES.length] = new LookupStats(Graph.MULTIMODAL);
+        }
+
+        static LookupStats route(String mode) {
+            int index = mode.equals(Graph.MULTIMODAL) ? CompactGraph.MODES.length : CompactGraph.modeIndex(mode);
+            return index < 0 ? null : ROUTES[index];
+        }
+
+        static void logSlowQuery(String message) {
+            synchronized (recentSlowQueries) {
+                if (recentSlowQueries.size() == RECENT_SLOW_QUERIES) {
+                    recentSlowQueries.removeFirst();
+                }
+                recentSlowQueries.addLast(message);
+            }
+            slowQueryLog.warning(message);
+        }
+
+        static synchronized void register() {
+            if (registered) {
+                return;
+            }
+            try {
+                MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+                server.registerMBean(new Metrics(), new ObjectName("travelingbuddy:type=Metrics"));
+                for (LookupStats stats : ROUTES) {
+                    server.registerMBean(stats, new ObjectName("travelingbuddy:type=RouteSearch,mode=" + stats.name));
+                }
+                server.registerMBean(FOOD, new ObjectName("travelingbuddy:type=Lookup,name=Food"));
+                server.registerMBean(HOTEL, new ObjectName("travelingbuddy:type=Lookup,name=Hotel"));
+                registered = true;
+            } catch (JMException e) {
+                slowQueryLog.warning("Could not register metrics MBeans: " + e);
+            }
+        }
+
+        @Override
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        @Override
+        public void setEnabled(boolean value) {
+            enabled = value;
+        }
+
+        @Override
+        public long getSlowQueryThresholdMillis() {
+            return slowQueryNanos / 1_000_000L;
+        }
+
+        @Override
+        public void setSlowQueryThresholdMillis(long millis) {
+            slowQueryNanos = millis * 1_000_000L;
+        }
+
+        @Override
+        public String[] getRecentSlowQueries() {
+            synchronized (recentSlowQueries) {
+                return recentSlowQueries.toArray(new String[0]);
+            }
+        }
+
+        @Override
+        public void reset() {
+            for (LookupStats stats : ROUTES) {
+                stats.reset();
+            }
+            FOOD.reset();
+            HOTEL.reset();
+            synchronized (recentSlowQueries) {
+                recentSlowQueries.clear();
+            }
+        }
+    }
+
+    // Append-only columnar store behind the food and hotel catalogs: groups (a restaurant's menu,
+    // a hotel's rooms) of named, priced entries. Entry names are dictionary-encoded, so a dish
+    // served in a thousand restaurants is one String, and a group is a run of the entry columns
+    // given by its span, start << 32 | size. Growing a group that is not the last one moves it to
+    // the end, and a replaced menu is released; reclaim() drops what either leaves behind. Writers
+    // synchronize. A reader that reads more than one value takes a view() and reads them all from
+    // it, so it never pairs a start with another move's size or a span with columns it does not
+    // index, and a reclaim that runs meanwhile does not change what it sees.
+    static class CatalogStore {
+        // Used by catalog objects created without a store, such as the built-in sample data.
+        static final CatalogStore DEFAULT = new CatalogStore();
+
+        private final Map<String, Integer> nameIds = new HashMap<>();
+        private volatile String[] groupNames = new String[64];
+        private volatile Columns columns = new Columns(new String[64], new int[1024], new int[1024], new AtomicLongArray(64));
+        private final BitSet released = new BitSet();
+        private int groupCount;
+        private int entryCount;
+        // Entries no live group covers: the old copies of moved groups and released groups.
+        private int unusedEntries;
+
+        // Writers fill entries and names before setting the span that covers them. Running out of
+        // room or reclaiming publishes new columns instead of changing the ones readers may hold,
+        // so a group that was live when a view was taken reads the same through it for good.
+        static final class Columns {
+            private final String[] names;
+            private final int[] entryNames;
+            private final int[] entryPrices;
+            private final AtomicLongArray spans;
+
+            private Columns(String[] names, int[] entryNames, int[] entryPrices, AtomicLongArray spans) {
+                this.names = names;
+                this.entryNames = entryNames;
+                this.entryPrices = entryPrices;
+                this.spans = spans;
+            }
+
+            public int groupSize(int group) {
+                return size(spans.get(group));
+            }
+
+            public String entryName(int group, int entry) {
+                return names[entryNames[start(spans.get(group)) + entry]];
+            }
+
+            public int entryPrice(int group, int entry) {
+                return entryPrices[start(spans.get(group)) + entry];
+            }
+        }
+
+        public synchronized int addGroup(String name) {
+            if (groupCount == groupNames.length) {
+                groupNames = Arrays.copyOf(groupNames, groupCount * 2);
+            }
+            groupNames[groupCount] = name;
+            ensureCapacity(nameIds.size(), entryCount, groupCount + 1);
+            columns.spans.set(groupCount, span(entryCount, 0));
+            return groupCount++;
+        }
+
+        public synchronized void addEntry(int group, String name, int price) {
+            int id = intern(name);
+            long span = columns.spans.get(group);
+            int start = start(span);
+            int size = size(span);
+            boolean last = start + size == entryCount;
+            ensureCapacity(nameIds.size(), entryCount + (last ? 1 : size + 1), groupCount);
+            Columns current = columns;
+            if (!last) {
+                System.arraycopy(current.entryNames, start, current.entryNames, entryCount, size);
+                System.arraycopy(current.entryPrices, start, current.entryPrices, entryCount, size);
+                start = entryCount;
+                entryCount += size;
+                unusedEntries += size;
+            }
+            current.entryNames[entryCount] = id;
+            current.entryPrices[entryCount] = price;
+            entryCount++;
+            current.spans.set(group, span(start, size + 1));
+        }
+
+        // Sets the price of the group's entry with this name, adding the entry if there is none.
+        public synchronized void putEntry(int group, String name, int price) {
+            Integer id = nameIds.get(name);
+            if (id != null) {
+                Columns current = columns;
+                long span = current.spans.get(group);
+                for (int i = start(span); i < start(span) + size(span); i++) {
+                    if (current.entryNames[i] == id) {
+                        current.entryPrices[i] = price;
+                        // Setting the span again publishes the price to readers that read it next.
+                        current.spans.set(group, span);
+                        return;
+                    }
+                }
+            }
+            addEntry(group, name, price);
+        }
+
+        // The group is no longer used, such as a replaced menu. Views taken while it was live keep
+        // its entries; views taken after the next reclaim see it empty.
+        public synchronized void release(int group) {
+            if (!released.get(group)) {
+                released.set(group);
+                unusedEntries += size(columns.spans.get(group));
+            }
+        }
+
+        // Copies the live groups and the names they use into fresh columns once at least half of
+        // the entries are unused, so edits keep the store within twice its live size. Returns
+        // whether it did. Views taken before keep reading the old columns.
+        public synchronized boolean reclaim() {
+            if (unusedEntries == 0 || unusedEntries * 2L < entryCount) {
+                return false;
+            }
+            Columns current = columns;
+            int live = entryCount - unusedEntries;
+            Map<String, Integer> liveIds = new HashMap<>();
+            String[] names = new String[Math.max(64, nameIds.size())];
+            int[] entryNames = new int[Math.max(1024, live)];
+            int[] entryPrices = new int[entryNames.length];
+            AtomicLongArray spans = new AtomicLongArray(current.spans.length());
+            int next = 0;
+            for (int group = 0; group < groupCount; group++) {
+                long span = current.spans.get(group);
+                if (released.get(group)) {
+                    spans.setPlain(group, span(next, 0));
+                    continue;
+                }
+                spans.setPlain(group, span(next, size(span)));
+                for (int i = start(span); i < start(span) + size(span); i++) {
+                    String name = current.names[current.entryNames[i]];
+                    Integer id = liveIds.get(name);
+                    if (id == null) {
+                        id = liveIds.size();
+                        names[id] = name;
+                        liveIds.put(name, id);
+                    }
+                    entryNames[next] = id;
+                    entryPrices[next] = current.entryPrices[i];
+                    next++;
+                }
+            }
+            nameIds.clear();
+            nameIds.putAll(liveIds);
+            entryCount = next;
+            unusedEntries = 0;
+            columns = new Columns(names, entryNames, entryPrices, spans);
+            return true;
+        }
+
+        public String groupName(int group) {
+            return groupNames[group];
+        }
+
+        // The current columns, for reading several values as of one moment.
+        public Columns view() {
+            return columns;
+        }
+
+        public int groupSize(int group) {
+            return columns.groupSize(group);
+        }
+
+        public String entryName(int group, int entry) {
+            return columns.entryName(group, entry);
+        }
+
+        public int entryPrice(int group, int entry) {
+            return columns.entryPrice(group, entry);
+        }
+
+        public synchronized int distinctNames() {
+            return nameIds.size();
+        }
+
+        private static long span(int start, int size) {
+            return (long) start << 32 | size;
+        }
+
+        private static int start(long span) {
+            return (int) (span >>> 32);
+        }
+
+        private static int size(long span) {
+            return (int) span;
+        }
+
+        private int intern(String name) {
+            Integer id = nameIds.get(name);
+            if (id == null) {
+                id = nameIds.size();
+                ensureCapacity(id + 1, entryCount, groupCount);
+                columns.names[id] = name;
+                nameIds.put(name, id);
+            }
+            return id;
+        }
+
+        private void ensureCapacity(int names, int entries, int groups) {
+            Columns current = columns;
+            if (names <= current.names.length && entries <= current.entryNames.length
+                    && groups <= current.spans.length()) {
+                return;
+            }
+            AtomicLongArray spans = new AtomicLongArray(grow(current.spans.length(), groups));
+            for (int group = 0; group < groupCount; group++) {
+                spans.setPlain(group, current.spans.get(group));
+            }
+            int entryCapacity = grow(current.entryNames.length, entries);
+            columns = new Columns(Arrays.copyOf(current.names, grow(current.names.length, names)),
+                    Arrays.copyOf(current.entryNames, entryCapacity), Arrays.copyOf(current.entryPrices, entryCapacity),
+                    spans);
+        }
+
+        private static int grow(int capacity, int needed) {
+            return needed <= capacity ? capacity : Math.max(needed, capacity * 2);
+        }
+    }
+
+    static class FoodItem {
+        String name;
+        int price;
+
+        FoodItem(String name, int price) {
+            this.name = name;
+            this.price = price;
+        }
+    }
+
+    // A view over the restaurants of one destination, each a group in a CatalogStore; menus are
+    // copied into the store, so the FoodItem lists passed in are not retained.
+    static class DestinationFood {
+        String destination;
+        FoodIndex index;
+        private final CatalogStore store;
+        // The group of each restaurant, copy-on-write: an edit publishes a new array, so readers
+        // that take the array once see every restaurant's menu as of one edit.
+        private volatile int[] restaurants = new int[0];
+        // Copies read their menus from the store's columns as of the copy, so a reclaim that runs
+        // while a copy is walked neither moves nor empties them. Null on the live object.
+        private final CatalogStore.Columns view;
+
+        DestinationFood(String destination) {
+            this(destination, CatalogStore.DEFAULT);
+        }
+
+        DestinationFood(String destination, CatalogStore store) {
+            this(destination, store, new int[0], null);
+        }
+
+        private DestinationFood(String destination, CatalogStore store, int[] restaurants, CatalogStore.Columns view) {
+            this.destination = destination;
+            this.store = store;
+            this.restaurants = restaurants;
+            this.view = view;
+        }
+
+        // A restaurant that is already listed has its menu replaced.
+        public synchronized void addRestaurant(String restaurantName, List<FoodItem> menu) {
+            int group = store.addGroup(restaurantName);
+            for (FoodItem item : menu) {
+                store.addEntry(group, item.name, item.price);
+            }
+            int[] current = restaurants;
+            int restaurant = 0;
+            while (restaurant < current.length && !store.groupName(current[restaurant]).equals(restaurantName)) {
+                restaurant++;
+            }
+            int[] next = Arrays.copyOf(current, Math.max(current.length, restaurant + 1));
+            next[restaurant] = group;
+            restaurants = next;
+            if (restaurant < current.length) {
+                store.release(current[restaurant]);
+            }
+            if (index != null) {
+                index.addRestaurant(this, restaurant);
+            }
+        }
+
+        public int restaurantCount() {
+            return restaurants.length;
+        }
+
+        // An unindexed copy of the current restaurants that later edits leave alone, so a reader
+        // can walk it by index. Menus are shared, since a restaurant's group in the store never
+        // changes once added; a replaced menu gets a new group.
+        DestinationFood copy() {
+            CatalogStore.Columns columns;
+            int[] current;
+            // Retried if the columns changed in between: columns from before a reclaim could lack
+            // a newer menu, and ones from after it could have emptied an older one.
+            do {
+                columns = store.view();
+                current = restaurants;
+            } while (store.view() != columns);
+            return new DestinationFood(destination, store, current, columns);
+        }
+
+        CatalogStore store() {
+            return store;
+        }
+
+        public String restaurantName(int restaurant) {
+            return store.groupName(restaurants[restaurant]);
+        }
+
+        public int menuSize(int restaurant) {
+            return columns().groupSize(restaurants[restaurant]);
+        }
+
+        public String dishName(int restaurant, int item) {
+            return columns().entryName(restaurants[restaurant], item);
+        }
+
+        public int price(int restaurant, int item) {
+            return columns().entryPrice(restaurants[restaurant], item);
+        }
+
+        private CatalogStore.Columns columns() {
+            return view != null ? view : store.view();
+        }
+
+        public String getFoodDetails() {
+            if (!Metrics.enabled) {
+                return formatFoodDetails();
+            }
+            long started = System.nanoTime();
+            String details = formatFoodDetails();
+            Metrics.FOOD.recordLookup(started, restaurantCount(), destination);
+            return details;
+        }
+
+        private String formatFoodDetails() {
+            StringBuilder details = new StringBuilder("Famous Food in " + destination + ":\n");
+            DestinationFood food = copy();
+            for (int restaurant = 0; restaurant < food.restaurantCount(); restaurant++) {
+                details.append(food.restaurantName(restaurant)).append(":\n");
+                for (int item = 0; item < food.menuSize(restaurant); item++) {
+                    details.append("   - ").append(food.dishName(restaurant, item))
+                            .append(" (Rs.").append(food.price(restaurant, item)).append(")\n");
+                }
+                details.append("\n");
+            }
+            return details.toString();
+        }
+    }
+
+    static class FoodHit {
+        String destination;
+        String restaurant;
+        String dish;
+        int price;
+
+        FoodHit(String destination, String restaurant, String dish, int price) {
+            this.destination = destination;
+            this.restaurant = restaurant;
+            this.dish = dish;
+            this.price = price;
+        }
+
+        public String format() {
+            return dish + " (Rs." + price + ") at " + restaurant + ", " + destination;
+        }
+    }
+
+    // Inverted index over every menu item of the attached DestinationFood objects. Each dish-name
+    // token keeps its items as PricePostings, so a price range is two binary searches. Replaced
+    // menus leave removed rows behind until the next merge of each posting.
+    static class FoodIndex {
+        private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+        private final Map<String, Integer> tokenIds = new HashMap<>();
+        private final List<PricePostings> postings = new ArrayList<>();
+        private PricePostings allItems = new PricePostings();
+        private final Map<String, Integer> dishIds = new HashMap<>();
+        private final List<String> dishNames = new ArrayList<>();
+        private final List<int[]> dishTokens = new ArrayList<>();
+        private final List<String> destinations = new ArrayList<>();
+        private final List<String> restaurants = new ArrayList<>();
+        private final Map<DestinationFood, Integer> destinationIds = new IdentityHashMap<>();
+        private final Map<String, int[]> restaurantRows = new HashMap<>();
+        private final BitSet removed = new BitSet();
+        private int[] rowDish = new int[1024];
+        private int[] rowDestination = new int[1024];
+        private int[] rowRestaurant = new int[1024];
+        private int rowCount;
+        private int removedRows;
+
+        // Indexes every current menu of the given destinations and keeps the index current on later
+        // addRestaurant calls.
+        public void attachAll(Collection<DestinationFood> foods) {
+            lock.writeLock().lock();
+            try {
+                for (DestinationFood food : foods) {
+                    food.index = this;
+                    indexDestination(food);
+                }
+                mergePostings();
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+
+        void addRestaurant(DestinationFood food, int restaurant) {
+            lock.writeLock().lock();
+            try {
+                indexRestaurant(food, restaurant, true);
+                if (removedRows * 2L >= rowCount && removedRows > 0) {
+                    rebuild();
+                }
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+
+        public int size() {
+            lock.readLock().lock();
+            try {
+                return rowCount - removedRows;
+            } finally {
+                lock.readLock().unlock();
+            }
+        }
+
+        // Cheapest matches first. Every token of the query must appear in the dish name; an empty
+        // query matches every dish in the price range.
+        public List<FoodHit> search(String query, int minPrice, int maxPrice, int limit) {
+            if (!Metrics.enabled) {
+                return find(query, minPrice, maxPrice, limit);
+            }
+            long started = System.nanoTime();
+            List<FoodHit> hits = find(query, minPrice, maxPrice, limit);
+            Metrics.FOOD.recordLookup(started, hits.size(), query);
+            return hits;
+        }
+
+        private List<FoodHit> find(String query, int minPrice, int maxPrice, int limit) {
+            List<String> tokens = tokenize(query);
+            lock.readLock().lock();
+            try {
+                PricePostings rarest = allItems;
+                int[] required = new int[tokens.size()];
+                for (int i = 0; i < required.length; i++) {
+                    Integer token = tokenIds.get(tokens.get(i));
+                    if (token == null) {
+                        return List.of();
+                    }
+                    required[i] = token;
+                    if (rarest == allItems || postings.get(token).size() < rarest.size()) {
+                        rarest = postings.get(token);
+                    }
+                }
+
+                List<FoodHit> hits = new ArrayList<>();
+                if (limit <= 0) {
+                    return hits;
+                }
+                if (required.length <= 1) {
+                    // The postings of a single token (or of every item) match as they are.
+                    for (long entry : rarest.range(Math.max(0, minPrice), maxPrice, limit, removed)) {
+                        hits.add(hit(entry));
+                    }
+                    return hits;
+                }
+                rarest.scan(Math.max(0, minPrice), maxPrice, entry -> {
+                    int row = (int) entry;
+                    if (!removed.get(row) && containsAll(dishTokens.get(rowDish[row]), required)) {
+                        hits.add(hit(entry));
+                    }
+                    return hits.size() < limit;
+                });
+                return hits;
+            } finally {
+                lock.readLock().unlock();
+            }
+        }
+
+        private FoodHit hit(long entry) {
+            int row = (int) entry;
+            return new FoodHit(destinations.get(rowDestination[row]), restaurants.get(rowRestaurant[row]),
+                    dishNames.get(rowDish[row]), (int) (entry >>> 32));
+        }
+
+        static List<String> tokenize(String text) {
+            List<String> tokens = new ArrayList<>();
+            for (String token : text.toLowerCase(Locale.ROOT).split("[^\\p{L}\\p{N}]+")) {
+                if (!token.isEmpty() && !tokens.contains(token)) {
+                    tokens.add(token);
+                }
+            }
+            return tokens;
+        }
+
+        private void indexRestaurant(DestinationFood food, int restaurantIndex, boolean mergeTails) {
+            Integer destination = destinationIds.get(food);
+            if (destination == null) {
+                destination = destinations.size();
+                destinationIds.put(food, destination);
+                destinations.add(food.destination);
+            }
+            String restaurant = food.restaurantName(restaurantIndex);
+            String key = destination + "\0" + restaurant;
+            int[] previousRows = restaurantRows.get(key);
+            if (previousRows != null) {
+                for (int row : previousRows) {
+                    removed.set(row);
+                }
+                removedRows += previousRows.length;
+            }
+
+            int restaurantId = restaurants.size();
+            restaurants.add(restaurant);
+            int[] rows = new int[food.menuSize(restaurantIndex)];
+            for (int i = 0; i < rows.length; i++) {
+                int price = food.price(restaurantIndex, i);
+                int row = addRow(dishId(food.dishName(restaurantIndex, i)), destination, restaurantId);
+                rows[i] = row;
+                allItems.add(price, row, mergeTails ? removed : null);
+                for (int token : dishTokens.get(rowDish[row])) {
+                    postings.get(token).add(price, row, mergeTails ? removed : null);
+                }
+            }
+            restaurantRows.put(key, rows);
+        }
+
+        private void indexDestination(DestinationFood food) {
+            for (int restaurant = 0; restaurant < food.restaurantCount(); restaurant++) {
+                indexRestaurant(food, restaurant, false);
+            }
+        }
+
+        // Bulk loads merge each posting once instead of once per tail overflow.
+        private void mergePostings() {
+            allItems.merge(removed);
+            for (PricePostings posting : postings) {
+                posting.merge(removed);
+            }
+        }
+
+        // Replaced menus leave their rows behind as removed ones, so once they make up half of the
+        // index it is built again from the attached destinations. Dishes and tokens no menu lists
+        // any more go with them. A menu replaced while this runs is indexed again by its own
+        // addRestaurant call, which replaces the rows read here.
+        private void rebuild() {
+            DestinationFood[] foods = new DestinationFood[destinations.size()];
+            for (Map.Entry<DestinationFood, Integer> destination : destinationIds.entrySet()) {
+                foods[destination.getValue()] = destination.getKey();
+            }
+            int capacity = Math.max(1024, rowCount - removedRows);
+            tokenIds.clear();
+            postings.clear();
+            allItems = new PricePostings();
+            dishIds.clear();
+            dishNames.clear();
+            dishTokens.clear();
+            destinations.clear();
+            restaurants.clear();
+            destinationIds.clear();
+            restaurantRows.clear();
+            removed.clear();
+            rowDish = new int[capacity];
+            rowDestination = new int[capacity];
+            rowRestaurant = new int[capacity];
+            rowCount = 0;
+            removedRows = 0;
+            for (DestinationFood food : foods) {
+                indexDestination(food);
+            }
+            mergePostings();
+        }
+
+        private int dishId(String name) {
+            Integer id = dishIds.get(name);
+            if (id == null) {
+                id = dishNames.size();
+                dishIds.put(name, id);
+                dishNames.add(name);
+                List<String> tokens = tokenize(name);
+                int[] ids = new int[tokens.size()];
+                for (int i = 0; i < ids.length; i++) {
+                    Integer token = tokenIds.get(tokens.get(i));
+                    if (token == null) {
+                        token = postings.size();
+                        tokenIds.put(tokens.get(i), token);
+                        postings.add(new PricePostings());
+                    }
+                    ids[i] = token;
+                }
+                dishTokens.add(ids);
+            }
+            return id;
+        }
+
+        private int addRow(int dish, int destination, int restaurant) {
+            if (rowCount == rowDish.length) {
+                rowDish = Arrays.copyOf(rowDish, rowCount * 2);
+                rowDestination = Arrays.copyOf(rowDestination, rowCount * 2);
+                rowRestaurant = Arrays.copyOf(rowRestaurant, rowCount * 2);
+            }
+            rowDish[rowCount] = dish;
+            rowDestination[rowCount] = destination;
+            rowRestaurant[rowCount] = restaurant;
+            return rowCount++;
+        }
+
+        private static boolean containsAll(int[] tokens, int[] required) {
+            for (int token : required) {
+                boolean found = false;
+                for (int candidate : tokens) {
+                    if (candidate == token) {
+                        found = true;
+                        break;
+                    }
+                }
+                if (!found) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+    }
+
+    // Price-sorted postings of packed (price << 32 | row) entries. New entries go to a small unsorted
+    // tail that is merged in once it outgrows the square root of the sorted part; rows in the removed
+    // set are dropped at merge time.
+    static class PricePostings {
+        private static final int MIN_PENDING = 64;
+
+        private long[] sorted = new long[0];
+        private long[] pending = new long[MIN_PENDING];
+        private int pendingCount;
+
+        int size() {
+            return sorted.length + pendingCount;
+        }
+
+        // A null removed set defers the merge to the caller.
+        void add(int price, int row, BitSet removed) {
+            if (pendingCount == pending.length) {
+                pending = Arrays.copyOf(pending, pendingCount * 2);
+            }
+            pending[pendingCount++] = ((long) price << 32) | row;
+            if (removed != null && pendingCount > Math.max(MIN_PENDING, (int) Math.sqrt(sorted.length))) {
+                merge(removed);
+            }
+        }
+
+        void merge(BitSet removed) {
+            if (pendingCount == 0) {
+                return;
+            }
+            long[] tail = Arrays.copyOf(pending, pendingCount);
+            Arrays.sort(tail);
+            long[] merged = new long[sorted.length + tail.length];
+            int count = 0;
+            int i = 0;
+            int j = 0;
+            while (i < sorted.length || j < tail.length) {
+                long next = j == tail.length || (i < sorted.length && sorted[i] <= tail[j]) ? sorted[i++] : tail[j++];
+                if (!removed.get((int) next)) {
+                    merged[count++] = next;
+                }
+            }
+            sorted = count == merged.length ? merged : Arrays.copyOf(merged, count);
+            pendingCount = 0;
+        }
+
+        // Hands the entries priced within [minPrice, maxPrice] to the visitor in price order until it
+        // returns false. Only the in-range part of the unsorted tail gets sorted.
+        void scan(int minPrice, int maxPrice, LongPredicate visitor) {
+            if (maxPrice < minPrice) {
+                return;
+            }
+            long low = (long) minPrice << 32;
+            long high = ((long) maxPrice << 32) | 0xFFFFFFFFL;
+            long[] tail = new long[pendingCount];
+            int tailCount = 0;
+            for (int i = 0; i < pendingCount; i++) {
+                if (pending[i] >= low && pending[i] <= high) {
+                    tail[tailCount++] = pending[i];
+                }
+            }
+            Arrays.sort(tail, 0, tailCount);
+            int i = lowerBound(sorted, low);
+            int j = 0;
+            while (true) {
+                boolean sortedLeft = i < sorted.length && sorted[i] <= high;
+                if (!sortedLeft && j == tailCount) {
+                    return;
+                }
+                long next = sortedLeft && (j == tailCount || sorted[i] <= tail[j]) ? sorted[i++] : tail[j++];
+                if (!visitor.test(next)) {
+                    return;
+                }
+            }
+        }
+
+        // The cheapest limit entries priced within [minPrice, maxPrice] whose rows are not in the
+        // removed set; a null set skips the check.
+        long[] range(int minPrice, int maxPrice, int limit, BitSet removed) {
+            if (maxPrice < minPrice) {
+                return new long[0];
+            }
+            long low = (long) minPrice << 32;
+            long high = ((long) maxPrice << 32) | 0xFFFFFFFFL;
+            int from = lowerBound(sorted, low);
+            int to = lowerBound(sorted, high + 1);
+            if (high == Long.MAX_VALUE) {
+                to = sorted.length;
+            }
+
+            long[] result;
+            int count;
+            if (removed == null || removed.isEmpty()) {
+                to = (int) Math.min(to, (long) from + limit);
+                result = Arrays.copyOfRange(sorted, from, to + pendingCount);
+                count = to - from;
+            } else {
+                result = new long[Math.min(to - from, limit) + pendingCount];
+                count = 0;
+                for (int i = from; i < to && count < limit; i++) {
+                    if (!removed.get((int) sorted[i])) {
+                        result[count++] = sorted[i];
+                    }
+                }
+            }
+            int fromSorted = count;
+            for (int i = 0; i < pendingCount; i++) {
+                if (pending[i] >= low && pending[i] <= high && (removed == null || !removed.get((int) pending[i]))) {
+                    result[count++] = pending[i];
+                }
+            }
+            if (count > fromSorted) {
+                Arrays.sort(result, 0, count);
+            }
+            count = Math.min(count, limit);
+            return count == result.length ? result : Arrays.copyOf(result, count);
+        }
+
+        private static int lowerBound(long[] values, long key) {
+            int low = 0;
+            int high = values.length;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (values[mid] < key) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            return low;
+        }
+    }
+
+    // A hotel's room categories are one group in a CatalogStore.
+    static class Hotel {
+        String name;
+        private final CatalogStore store;
+        private final int rooms;
+
+        Hotel(String name) {
+            this(name, CatalogStore.DEFAULT);
+        }
+
+        Hotel(String name, CatalogStore store) {
+            this.name = name;
+            this.store = store;
+            this.rooms = store.addGroup(name);
+        }
+
+        // Adding a category the hotel already has updates its price.
+        public void addRoomCategory(String category, int pricePerDay) {
+            store.putEntry(rooms, category, pricePerDay);
+        }
+
+        CatalogStore store() {
+            return store;
+        }
+
+        public int roomCount() {
+            return store.groupSize(rooms);
+        }
+
+        public String roomCategory(int room) {
+            return store.entryName(rooms, room);
+        }
+
+        public int roomPrice(int room) {
+            return store.entryPrice(rooms, room);
+        }
+
+        public String getHotelDetails() {
+            StringBuilder details = new StringBuilder("Hotel: " + name + "\n");
+            CatalogStore.Columns columns = store.view();
+            for (int room = 0; room < columns.groupSize(rooms); room++) {
+                details.append("   - ").append(columns.entryName(rooms, room))
+                        .append(" Room: Rs.").append(columns.entryPrice(rooms, room))
+                        .append(" per day\n");
+            }
+            details.append("\n");
+            return details.toString();
+        }
+    }
+
+    static class DestinationHotel {
+        String destination;
+        // Copy-on-write so that server threads can list the hotels while the change log adds one.
+        List<Hotel> hotels;
+        HotelIndex index;
+        // Where putRooms creates the hotels it adds.
+        private final CatalogStore store;
+
+        DestinationHotel(String destination) {
+            this(destination, CatalogStore.DEFAULT);
+        }
+
+        DestinationHotel(String destination, CatalogStore store) {
+            this.destination = destination;
+            this.store = store;
+            this.hotels = new CopyOnWriteArrayList<>();
+        }
+
+        public void addHotel(Hotel hotel) {
+            hotels.add(hotel);
+            if (index != null) {
+                index.addHotel(this, hotel);
+            }
+        }
+
+        // Sets the price of each given room category, adding the hotel first if the destination
+        // has none by that name.
+        public void putRooms(String hotelName, Map<String, Integer> rooms) {
+            Hotel hotel = null;
+            for (Hotel candidate : hotels) {
+                if (candidate.name.equals(hotelName)) {
+                    hotel = candidate;
+                    break;
+                }
+            }
+            boolean added = hotel == null;
+            if (added) {
+                hotel = new Hotel(hotelName, store);
+            }
+            for (Map.Entry<String, Integer> room : rooms.entrySet()) {
+                hotel.addRoomCategory(room.getKey(), room.getValue());
+            }
+            if (added) {
+                addHotel(hotel);
+            } else if (index != null) {
+                index.updateHotel(this, hotel);
+            }
+        }
+
+        // An unindexed copy with its rooms in the given store.
+        DestinationHotel copy(CatalogStore store) {
+            DestinationHotel copy = new DestinationHotel(destination, store);
+            List<Hotel> copies = new ArrayList<>(hotels.size());
+            for (Hotel hotel : hotels) {
+                Hotel hotelCopy = new Hotel(hotel.name, store);
+                for (int room = 0; room < hotel.roomCount(); room++) {
+                    hotelCopy.addRoomCategory(hotel.roomCategory(room), hotel.roomPrice(room));
+                }
+                copies.add(hotelCopy);
+            }
+            copy.hotels.addAll(copies);
+            return copy;
+        }
+
+        public String getHotelDetails() {
+            if (!Metrics.enabled) {
+                return formatHotelDetails();
+            }
+            long started = System.nanoTime();
+            String details = formatHotelDetails();
+            Metrics.HOTEL.recordLookup(started, hotels.size(), destination);
+            return details;
+        }
+
+        private String formatHotelDetails() {
+            StringBuilder details = new StringBuilder("Hotels in " + destination + ":\n");
+            for (Hotel hotel : hotels) {
+                details.append(hotel.getHotelDetails());
+            }
+            return details.toString();
+        }
+    }
+
+    static class RoomHit {
+        String destination;
+        String hotel;
+        String category;
+        int price;
+
+        RoomHit(String destination, String hotel, String category, int price) {
+            this.destination = destination;
+            this.hotel = hotel;
+            this.category = category;
+            this.price = price;
+        }
+
+        public String format() {
+            return category + " Room at " + hotel + ", " + destination + ": Rs." + price + " per day";
+        }
+    }
+
+    // Room price index over the attached DestinationHotel objects. Every room is posted by price
+    // under its category, its destination and the (destination, category) pair, so top-k and
+    // price-range queries are binary searches instead of scans over every hotel. A hotel's rooms
+    // are indexed when the hotel is added; rooms changed afterwards are only picked up through
+    // DestinationHotel.putRooms, which re-indexes the hotel and leaves its old rows removed.
+    static class HotelIndex {
+        private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+        private final Map<String, Integer> categoryIds = new HashMap<>();
+        private final List<String> categories = new ArrayList<>();
+        private final Map<String, Integer> destinationIds = new HashMap<>();
+        private final List<String> destinations = new ArrayList<>();
+        // The destination each destination id was first indexed from, for rebuild.
+        private final List<DestinationHotel> destinationHotels = new ArrayList<>();
+        private final List<PricePostings> byCategory = new ArrayList<>();
+        private final List<PricePostings> byDestination = new ArrayList<>();
+        private final Map<Long, PricePostings> byDestinationCategory = new HashMap<>();
+        private PricePostings allRooms = new PricePostings();
+        private final List<String> hotelNames = new ArrayList<>();
+        private final Map<Hotel, int[]> hotelRows = new IdentityHashMap<>();
+        private final BitSet removed = new BitSet();
+        private int[] rowHotel = new int[1024];
+        private int[] rowDestination = new int[1024];
+        private int[] rowCategory = new int[1024];
+        private int rowCount;
+        private int removedRows;
+
+        // Indexes every current hotel of the given destinations and keeps the index current on
+        // later addHotel calls.
+        public void attachAll(Collection<DestinationHotel> destinationHotels) {
+            lock.writeLock().lock();
+            try {
+                for (DestinationHotel destinationHotel : destinationHotels) {
+                    destinationHotel.index = this;
+                    indexDestination(destinationHotel);
+                }
+                mergePostings();
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+
+        void addHotel(DestinationHotel destinationHotel, Hotel hotel) {
+            lock.writeLock().lock();
+            try {
+                indexHotel(destinationHotel, hotel, removed);
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+
+        void updateHotel(DestinationHotel destinationHotel, Hotel hotel) {
+            lock.writeLock().lock();
+            try {
+                int[] previousRows = hotelRows.get(hotel);
+                if (previousRows != null) {
+                    for (int row : previousRows) {
+                        removed.set(row);
+                    }
+                    removedRows += previousRows.length;
+                }
+                indexHotel(destinationHotel, hotel, removed);
+                if (removedRows * 2L >= rowCount && removedRows > 0) {
+                    rebuild();
+                }
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+
+        public int size() {
+            lock.readLock().lock();
+            try {
+                return rowCount - removedRows;
+            } finally {
+                lock.readLock().unlock();
+            }
+        }
+
+        // The k cheapest rooms anywhere; a null category matches every category.
+        public List<RoomHit> cheapest(String category, int k) {
+            return inRange(category, 0, Integer.MAX_VALUE, k);
+        }
+
+        // The cheapest rooms priced within [minPrice, maxPrice] per day, at most limit of them.
+        public List<RoomHit> inRange(String category, int minPrice, int maxPrice, int limit) {
+            if (!Metrics.enabled) {
+                return rangeQuery(category, minPrice, maxPrice, limit);
+            }
+            long started = System.nanoTime();
+            List<RoomHit> hits = rangeQuery(category, minPrice, maxPrice, limit);
+            Metrics.HOTEL.recordLookup(started, hits.size(), category == null ? "*" : category);
+            return hits;
+        }
+
+        private List<RoomHit> rangeQuery(String category, int minPrice, int maxPrice, int limit) {
+            lock.readLock().lock();
+            try {
+                PricePostings postings = allRooms;
+                if (category != null) {
+                    Integer id = categoryIds.get(category.toLowerCase(Locale.ROOT));
+                    if (id == null) {
+                        return List.of();
+                    }
+                    postings = byCategory.get(id);
+                }
+                return hits(postings.range(Math.max(0, minPrice), maxPrice, limit, removed));
+            } finally {
+                lock.readLock().unlock();
+            }
+        }
+
+        // The k cheapest rooms in one destination.
+        public List<RoomHit> cheapestIn(String destination, String category, int k) {
+            if (!Metrics.enabled) {
+                return destinationQuery(destination, category, k);
+            }
+            long started = System.nanoTime();
+            List<RoomHit> hits = destinationQuery(destination, category, k);
+            Metrics.HOTEL.recordLookup(started, hits.size(), destination);
+            return hits;
+        }
+
+        private List<RoomHit> destinationQuery(String destination, String category, int k) {
+            lock.readLock().lock();
+            try {
+                PricePostings postings = postings(destination, category);
+                return postings == null ? List.of() : hits(postings.range(0, Integer.MAX_VALUE, k, removed));
+            } finally {
+                lock.readLock().unlock();
+            }
+        }
+
+        // The k cheapest rooms across all of the given cities, e.g. every stop of a route.
+        public List<RoomHit> cheapestAlong(List<String> cities, String category, int k) {
+            if (!Metrics.enabled) {
+                return alongQuery(cities, category, k);
+            }
+            long started = System.nanoTime();
+            List<RoomHit> hits = alongQuery(cities, category, k);
+            Metrics.HOTEL.recordLookup(started, hits.size(), String.join(",", cities));
+            return hits;
+        }
+
+        private List<RoomHit> alongQuery(List<String> cities, String category, int k) {
+            lock.readLock().lock();
+            try {
+                long[] candidates = new long[0];
+                int count = 0;
+                for (String city : new HashSet<>(cities)) {
+                    PricePostings postings = postings(city, category);
+                    if (postings != null) {
+                        long[] cityBest = postings.range(0, Integer.MAX_VALUE, k, removed);
+                        if (count + cityBest.length > candidates.length) {
+                            candidates = Arrays.copyOf(candidates, Math.max(2 * candidates.length, count + cityBest.length));
+                        }
+                        System.arraycopy(cityBest, 0, candidates, count, cityBest.length);
+                        count += cityBest.length;
+                    }
+                }
+                Arrays.sort(candidates, 0, count);
+                return hits(Arrays.copyOf(candidates, Math.min(count, k)));
+            } finally {
+                lock.readLock().unlock();
+            }
+        }
+
+        // The cheapest room of each given city, in route order; cities without a match are skipped.
+        public List<RoomHit> cheapestPerCity(List<String> cities, String category) {
+            if (!Metrics.enabled) {
+                return perCityQuery(cities, category);
+            }
+            long started = System.nanoTime();
+            List<RoomHit> hits = perCityQuery(cities, category);
+            Metrics.HOTEL.recordLookup(started, hits.size(), String.join(",", cities));
+            return hits;
+        }
+
+        private List<RoomHit> perCityQuery(List<String> cities, String category) {
+            lock.readLock().lock();
+            try {
+                List<RoomHit> hits = new ArrayList<>();
+                for (String city : cities) {
+                    PricePostings postings = postings(city, category);
+                    if (postings != null) {
+                        hits.addAll(hits(postings.range(0, Integer.MAX_VALUE, 1, removed)));
+                    }
+                }
+                return hits;
+            } finally {
+                lock.readLock().unlock();
+            }
+        }
+
+        private PricePostings postings(String destination, String category) {
+            Integer destinationId = destinationIds.get(destination.toLowerCase(Locale.ROOT));
+            if (destinationId == null) {
+                return null;
+            }
+            if (category == null) {
+                return byDestination.get(destinationId);
+            }
+            Integer categoryId = categoryIds.get(category.toLowerCase(Locale.ROOT));
+            return categoryId == null ? null : byDestinationCategory.get(((long) destinationId << 32) | categoryId);
+        }
+
+        private List<RoomHit> hits(long[] entries) {
+            List<RoomHit> hits = new ArrayList<>(entries.length);
+            for (long entry : entries) {
+                int row = (int) entry;
+                hits.add(new RoomHit(destinations.get(rowDestination[row]), hotelNames.get(rowHotel[row]),
+                        categories.get(rowCategory[row]), (int) (entry >>> 32)));
+            }
+            return hits;
+        }
+
+        private void indexHotel(DestinationHotel destinationHotel, Hotel hotel, BitSet removed) {
+            String key = destinationHotel.destination.toLowerCase(Locale.ROOT);
+            Integer destination = destinationIds.get(key);
+            if (destination == null) {
+                destination = destinations.size();
+                destinationIds.put(key, destination);
+                destinations.add(destinationHotel.destination);
+                destinationHotels.add(destinationHotel);
+                byDestination.add(new PricePostings());
+            }
+            int hotelId = hotelNames.size();
+            hotelNames.add(hotel.name);
+
+            int[] rows = new int[hotel.roomCount()];
+            for (int room = 0; room < rows.length; room++) {
+                String name = hotel.roomCategory(room);
+                int price = hotel.roomPrice(room);
+                String categoryKey = name.toLowerCase(Locale.ROOT);
+                Integer category = categoryIds.get(categoryKey);
+                if (category == null) {
+                    category = categories.size();
+                    categoryIds.put(categoryKey, category);
+                    categories.add(name);
+                    byCategory.add(new PricePostings());
+                }
+                int row = addRow(hotelId, destination, category);
+                rows[room] = row;
+                allRooms.add(price, row, removed);
+                byCategory.get(category).add(price, row, removed);
+                byDestination.get(destination).add(price, row, removed);
+                byDestinationCategory.computeIfAbsent(((long) destination << 32) | category, pair -> new PricePostings())
+                        .add(price, row, removed);
+            }
+            hotelRows.put(hotel, rows);
+        }
+
+        private void indexDestination(DestinationHotel destinationHotel) {
+            for (Hotel hotel : destinationHotel.hotels) {
+                indexHotel(destinationHotel, hotel, null);
+            }
+        }
+
+        // Bulk loads merge each posting once instead of once per tail overflow.
+        private void mergePostings() {
+            allRooms.merge(removed);
+            for (PricePostings posting : byCategory) {
+                posting.merge(removed);
+            }
+            for (PricePostings posting : byDestination) {
+                posting.merge(removed);
+            }
+            for (PricePostings posting : byDestinationCategory.values()) {
+                posting.merge(removed);
+            }
+        }
+
+        // Every room edit re-indexes the whole hotel and leaves its old rows behind as removed
+        // ones, so once they make up half of the index it is built again from the destinations
+        // it has seen. Room categories no hotel offers any more go with them.
+        private void rebuild() {
+            DestinationHotel[] seen = destinationHotels.toArray(new DestinationHotel[0]);
+            int capacity = Math.max(1024, rowCount - removedRows);
+            categoryIds.clear();
+            categories.clear();
+            destinationIds.clear();
+            destinations.clear();
+            destinationHotels.clear();
+            byCategory.clear();
+            byDestination.clear();
+            byDestinationCategory.clear();
+            allRooms = new PricePostings();
+            hotelNames.clear();
+            hotelRows.clear();
+            removed.clear();
+            rowHotel = new int[capacity];
+            rowDestination = new int[capacity];
+            rowCategory = new int[capacity];
+            rowCount = 0;
+            removedRows = 0;
+            for (DestinationHotel destinationHotel : seen) {
+                indexDestination(destinationHotel);
+            }
+            mergePostings();
+        }
+
+        private int addRow(int hotel, int destination, int category) {
+            if (rowCount == rowHotel.length) {
+                rowHotel = Arrays.copyOf(rowHotel, rowCount * 2);
+                rowDestination = Arrays.copyOf(rowDestination, rowCount * 2);
+                rowCategory = Arrays.copyOf(rowCategory, rowCount * 2);
+            }
+            rowHotel[rowCount] = hotel;
+            rowDestination[rowCount] = destination;
+            rowCategory[rowCount] = category;
+            return rowCount++;
+        }
+    }
+
+    static class ItineraryOptions {
+        String mode = "Road";
+        int maxStops = 3;
+        // Only the nearest reachable destinations with hotels are considered as stops.
+        int candidateLimit = 40;
+        int maxPlans = 5;
+        int mealsPerDay = 3;
+        // Used for destinations without food data.
+        int defaultMealPrice = 200;
+        int[] costPerUnit = new MultimodalOptions().costPerUnit;
+    }
+
+    static class ItineraryPlan {
+        final List<String> stops;
+        final int[] days;
+        final List<RoomHit> rooms;
+        final long travelCost;
+        final long hotelCost;
+        final long foodCost;
+
+        ItineraryPlan(List<String> stops, int[] days, List<RoomHit> rooms, long travelCost, long hotelCost, long foodCost) {
+            this.stops = stops;
+            this.days = days;
+            this.rooms = rooms;
+            this.travelCost = travelCost;
+            this.hotelCost = hotelCost;
+            this.foodCost = foodCost;
+        }
+
+        public long totalCost() {
+            return travelCost + hotelCost + foodCost;
+        }
+
+        public String format() {
+            StringBuilder plan = new StringBuilder();
+            for (int i = 0; i < stops.size(); i++) {
+                plan.append("  ").append(stops.get(i)).append(" (").append(days[i]).append(days[i] == 1 ? " day" : " days")
+                        .append("): ").append(rooms.get(i).category).append(" Room at ").append(rooms.get(i).hotel)
+                        .append(", Rs.").append(rooms.get(i).price).append(" per day\n");
+            }
+            plan.append(String.format("  Travel: Rs. %d, Hotels: Rs. %d, Food: Rs. %d, Total: Rs. %d%n",
+                    travelCost, hotelCost, foodCost, totalCost()));
+            return plan.toString();
+        }
+    }
+
+    // Searches round trips from a start city through up to maxStops destinations, choosing a room
+    // category per stop, and keeps the best plans that fit the budget. Plans with more stops rank
+    // first, then plans spending more on rooms, then cheaper plans. Every (stop count, first stop)
+    // pair is a fork/join task; tasks prune on a lower bound of the remaining cost and an upper
+    // bound of the remaining room spend against the worst plan kept so far.
+    static class ItineraryPlanner {
+        private final Graph graph;
+        private final HotelIndex hotelIndex;
+        private final Map<String, DestinationFood> foodData;
+        private final ForkJoinPool pool;
+
+        ItineraryPlanner(Graph graph, HotelIndex hotelIndex, Map<String, DestinationFood> foodData) {
+            this(graph, hotelIndex, foodData, ForkJoinPool.commonPool());
+        }
+
+        ItineraryPlanner(Graph graph, HotelIndex hotelIndex, Map<String, DestinationFood> foodData, ForkJoinPool pool) {
+            this.graph = graph;
+            this.hotelIndex = hotelIndex;
+            this.foodData = foodData;
+            this.pool = pool;
+        }
+
+        public List<ItineraryPlan> plan(String start, int days, long budget, ItineraryOptions options) {
+            CompactGraph compact = graph.compact();
+            int mode = CompactGraph.modeIndex(options.mode);
+            int source = compact.cityId(start);
+            if (mode < 0 || source < 0 || days <= 0) {
+                return List.of();
+            }
+
+            Search search = new Search(compact, mode, source, days, budget, options);
+            if (search.candidates.isEmpty()) {
+                return List.of();
+            }
+            pool.invoke(new RecursiveAction() {
+                @Override
+                protected void compute() {
+                    search.computeDistances();
+                    List<SearchTask> tasks = new ArrayList<>();
+                    for (int stops = Math.min(Math.min(options.maxStops, days), search.candidates.size()); stops >= 1; stops--) {
+                        for (int first = 0; first < search.candidates.size(); first++) {
+                            tasks.add(new SearchTask(search, stops, first));
+                        }
+                    }
+                    invokeAll(tasks);
+                }
+            });
+            return search.results();
+        }
+
+        // The nearest destinations with hotels whose round trip from start fits the budget, with their
+        // one-way distance in the planner's mode. These are the stops plan() would choose from.
+        public List<ReachableCity> suggestDestinations(String start, long budget, ItineraryOptions options) {
+            CompactGraph compact = graph.compact();
+            int mode = CompactGraph.modeIndex(options.mode);
+            int source = compact.cityId(start);
+            if (mode < 0 || source < 0) {
+                return List.of();
+            }
+            long[] entries = Reachability.search(compact, mode, source, maxTravelDistance(budget, options, mode),
+                    options.candidateLimit, city -> !hotelIndex.cheapestIn(compact.cityName(city), null, 1).isEmpty());
+            List<ReachableCity> suggestions = new ArrayList<>(entries.length);
+            for (long entry : entries) {
+                suggestions.add(new ReachableCity(compact.cityName(LongHeap.value(entry)), LongHeap.key(entry)));
+            }
+            return suggestions;
+        }
+
+        private static int maxTravelDistance(long budget, ItineraryOptions options, int mode) {
+            return (int) Math.min(Integer.MAX_VALUE - 1L, budget / Math.max(1, 2L * options.costPerUnit[mode]));
+        }
+
+        private static final class Candidate {
+            final int city;
+            final String name;
+            // Cheapest room of each category, most expensive category first.
+            final RoomHit[] rooms;
+            final int mealCostPerDay;
+
+            Candidate(int city, String name, RoomHit[] rooms, int mealCostPerDay) {
+                this.city = city;
+                this.name = name;
+                this.rooms = rooms;
+                this.mealCostPerDay = mealCostPerDay;
+            }
+        }
+
+        private final class Search {
+            final CompactGraph graph;
+            final int mode;
+            final int source;
+            final int days;
+            final long budget;
+            final ItineraryOptions options;
+            final List<Candidate> candidates = new ArrayList<>();
+            // distances[i][j] between candidates; index candidates.size() is the start city.
+            int[][] distances;
+            long minStayPerDay = Long.MAX_VALUE;
+            long maxRoomPrice;
+
+            private final List<ItineraryPlan> best = new ArrayList<>();
+            private volatile ItineraryPlan worstKept;
+
+            Search(CompactGraph graph, int mode, int source, int days, long budget, ItineraryOptions options) {
+                this.graph = graph;
+                this.mode = mode;
+                this.source = source;
+                this.days = days;
+                this.budget = budget;
+                this.options = options;
+                collectCandidates();
+            }
+
+            // Keeps the nearest cities that have hotels. A stop whose round trip alone costs more than
+            // the budget can never be part of a plan, so the search does not go beyond half of it.
+            private void collectCandidates() {
+                Reachability.search(graph, mode, source, maxTravelDistance(budget, options, mode),
+                        options.candidateLimit, this::addCandidate);
+            }
+
+            private boolean addCandidate(int city) {
+                String name = graph.cityName(city);
+                List<RoomHit> rooms = hotelIndex.cheapestIn(name, null, Integer.MAX_VALUE);
+                if (rooms.isEmpty()) {
+                    return false;
+                }
+                Map<String, RoomHit> cheapestPerCategory = new LinkedHashMap<>();
+                for (RoomHit room : rooms) {
+                    cheapestPerCategory.putIfAbsent(room.category, room);
+                }
+                RoomHit[] options = cheapestPerCategory.values().toArray(new RoomHit[0]);
+                Collections.reverse(Arrays.asList(options));
+
+                int mealCost = mealCostPerDay(name);
+                candidates.add(new Candidate(city, name, options, mealCost));
+                minStayPerDay = Math.min(minStayPerDay, options[options.length - 1].price + (long) mealCost);
+                maxRoomPrice = Math.max(maxRoomPrice, options[0].price);
+                return true;
+            }
+
+            // Average of the three cheapest dishes, per meal.
+            private int mealCostPerDay(String city) {
+                DestinationFood food = foodData.get(city.toLowerCase());
+                PriorityQueue<Integer> cheapest = new PriorityQueue<>(Comparator.reverseOrder());
+                if (food != null) {
+                    food = food.copy();
+                    for (int restaurant = 0; restaurant < food.restaurantCount(); restaurant++) {
+                        for (int item = 0; item < food.menuSize(restaurant); item++) {
+                            cheapest.add(food.price(restaurant, item));
+                            if (cheapest.size() > 3) {
+                                cheapest.poll();
+                            }
+                        }
+                    }
+                }
+                if (cheapest.isEmpty()) {
+                    return options.mealsPerDay * options.defaultMealPrice;
+                }
+                int total = 0;
+                for (int price : cheapest) {
+                    total += price;
+                }
+                return options.mealsPerDay * total / cheapest.size();
+            }
+
+            void computeDistances() {
+                int count = candidates.size();
+                distances = new int[count + 1][];
+                int[] targets = new int[count + 1];
+                for (int i = 0; i < count; i++) {
+                    targets[i] = candidates.get(i).city;
+                }
+                targets[count] = source;
+                new DistanceTask(this, targets, 0, count + 1).invoke();
+            }
+
+            void offer(ItineraryPlan plan) {
+                synchronized (best) {
+                    int position = 0;
+                    while (position < best.size() && compare(best.get(position), plan) <= 0) {
+                        position++;
+                    }
+                    if (position >= options.maxPlans) {
+                        return;
+                    }
+                    best.add(position, plan);
+                    if (best.size() > options.maxPlans) {
+                        best.remove(best.size() - 1);
+                    }
+                    if (best.size() == options.maxPlans) {
+                        worstKept = best.get(best.size() - 1);
+                    }
+                }
+            }
+
+            // Whether a partial plan with these bounds could still enter the kept plans.
+            boolean promising(int stops, long maxHotelCost, long minTotalCost) {
+                if (minTotalCost > budget) {
+                    return false;
+                }
+                ItineraryPlan worst = worstKept;
+                if (worst == null || stops != worst.stops.size()) {
+                    return worst == null || stops > worst.stops.size();
+                }
+                return maxHotelCost > worst.hotelCost || (maxHotelCost == worst.hotelCost && minTotalCost < worst.totalCost());
+            }
+
+            List<ItineraryPlan> results() {
+                synchronized (best) {
+                    return new ArrayList<>(best);
+                }
+            }
+
+            private int compare(ItineraryPlan a, ItineraryPlan b) {
+                if (a.stops.size() != b.stops.size()) {
+                    return Integer.compare(b.stops.size(), a.stops.size());
+                }
+                if (a.hotelCost != b.hotelCost) {
+                    return Long.compare(b.hotelCost, a.hotelCost);
+                }
+                return Long.compare(a.totalCost(), b.totalCost());
+            }
+        }
+
+        private static void relax(CompactGraph graph, int mode, int city, int distance, int[] distances, LongHeap heap) {
+            int[] offset = graph.offsets[mode];
+            int[] target = graph.targets[mode];
+            int[] weight = graph.weights[mode];
+            for (int i = offset[city]; i < offset[city + 1]; i++) {
+                int next = distance + weight[i];
+                if (next < distances[target[i]]) {
+                    distances[target[i]] = next;
+                    heap.push(next, target[i]);
+                }
+            }
+        }
+
+        // One Dijkstra per candidate, stopped as soon as every other candidate and the start are settled.
+        private static final class DistanceTask extends RecursiveAction {
+            private static final long serialVersionUID = 1L;
+
+            private final Search search;
+            private final int[] targets;
+            private final int from;
+            private final int to;
+
+            DistanceTask(Search search, int[] targets, int from, int to) {
+                this.search = search;
+                this.targets = targets;
+                this.from = from;
+                this.to = to;
+            }
+
+            @Override
+            protected void compute() {
+                if (to - from > 1) {
+                    int mid = (from + to) >>> 1;
+                    invokeAll(new DistanceTask(search, targets, from, mid), new DistanceTask(search, targets, mid, to));
+                    return;
+                }
+                CompactGraph graph = search.graph;
+                Map<Integer, Integer> targetIndex = new HashMap<>();
+                for (int i = 0; i < targets.length; i++) {
+                    targetIndex.put(targets[i], i);
+                }
+                int[] row = new int[targets.length];
+                Arrays.fill(row, Integer.MAX_VALUE);
+                int[] distance = new int[graph.cityCount()];
+                Arrays.fill(distance, Integer.MAX_VALUE);
+                distance[targets[from]] = 0;
+                LongHeap heap = new LongHeap();
+                heap.push(0, targets[from]);
+                int remaining = targets.length;
+                while (!heap.isEmpty() && remaining > 0) {
+                    long top = heap.pop();
+                    int city = LongHeap.value(top);
+                    if (LongHeap.key(top) > distance[city]) {
+                        continue;
+                    }
+                    Integer index = targetIndex.get(city);
+                    if (index != null) {
+                        row[index] = LongHeap.key(top);
+                        remaining--;
+                    }
+                    relax(graph, search.mode, city, LongHeap.key(top), distance, heap);
+                }
+                search.distances[from] = row;
+            }
+        }
+
+        private static final class SearchTask extends RecursiveAction {
+            private static final long serialVersionUID = 1L;
+
+            private final Search search;
+            private final int stops;
+            private final int first;
+            private final int[] stayDays;
+            private final int[] path;
+            private final int[] roomChoice;
+            private final boolean[] visited;
+
+            SearchTask(Search search, int stops, int first) {
+                this.search = search;
+                this.stops = stops;
+                this.first = first;
+                this.stayDays = new int[stops];
+                for (int i = 0; i < stops; i++) {
+                    stayDays[i] = search.days / stops + (i < search.days % stops ? 1 : 0);
+                }
+                this.path = new int[stops];
+                this.roomChoice = new int[stops];
+                this.visited = new boolean[search.candidates.size()];
+            }
+
+            @Override
+            protected void compute() {
+                int home = search.candidates.size();
+                int distance = search.distances[home][first];
+                if (distance != Integer.MAX_VALUE) {
+                    visit(0, first, (long) search.options.costPerUnit[search.mode] * distance, 0, 0, 0);
+                }
+            }
+
+            private void visit(int depth, int candidate, long travel, long hotels, long food, int daysUsed) {
+                Candidate stop = search.candidates.get(candidate);
+                int home = search.candidates.size();
+                int daysHere = stayDays[depth];
+                int daysLeft = search.days - daysUsed - daysHere;
+                long unit = search.options.costPerUnit[search.mode];
+                int homeDistance = search.distances[candidate][home];
+                if (homeDistance == Integer.MAX_VALUE) {
+                    return;
+                }
+
+                path[depth] = candidate;
+                visited[candidate] = true;
+                long stopFood = (long) daysHere * stop.mealCostPerDay;
+                for (int room = 0; room < stop.rooms.length; room++) {
+                    long stopHotels = hotels + (long) daysHere * stop.rooms[room].price;
+                    long spent = travel + stopHotels + food + stopFood;
+                    long minTotal = spent + unit * homeDistance + daysLeft * search.minStayPerDay;
+                    if (!search.promising(stops, stopHotels + daysLeft * search.maxRoomPrice, minTotal)) {
+                        continue;
+                    }
+                    roomChoice[depth] = room;
+                    if (depth + 1 == stops) {
+                        search.offer(toPlan(travel + unit * homeDistance, stopHotels, food + stopFood));
+                        continue;
+                    }
+                    for (int next = 0; next < home; next++) {
+                        int legDistance = search.distances[candidate][next];
+                        if (!visited[next] && legDistance != Integer.MAX_VALUE) {
+                            visit(depth + 1, next, travel + unit * legDistance, stopHotels, food + stopFood, daysUsed + daysHere);
+                        }
+                    }
+                }
+                visited[candidate] = false;
+            }
+
+            private ItineraryPlan toPlan(long travel, long hotels, long food) {
+                List<String> names = new ArrayList<>(stops);
+                List<RoomHit> rooms = new ArrayList<>(stops);
+                for (int i = 0; i < stops; i++) {
+                    Candidate stop = search.candidates.get(path[i]);
+                    names.add(stop.name);
+                    rooms.add(stop.rooms[roomChoice[i]]);
+                }
+                return new ItineraryPlan(names, stayDays.clone(), rooms, travel, hotels, food);
+            }
+        }
+    }
+
+    // Headless JSON front end over one shared dataset, on the JDK's built-in HTTP server. Every
+    // endpoint is a GET with query parameters; bad parameters get a 400 with an error object.
+    static class TravelServer {
+        private static final Logger log = Logger.getLogger("travelingbuddy.server");
+        private final Graph graph;
+        private final Map<String, DestinationFood> foodData;
+        private final Map<String, DestinationHotel> hotelData;
+        private final FoodIndex foodIndex;
+        private final HotelIndex hotelIndex;
+        private final ItineraryPlanner planner;
+        private final CityDictionary cities;
+        private final ChangeLog changeLog;
+        private HttpServer server;
+        private ExecutorService executor;
+
+        TravelServer(Graph graph, Map<String, DestinationFood> foodData, Map<String, DestinationHotel> hotelData,
+                     FoodIndex foodIndex, HotelIndex hotelIndex, CityDictionary cities) {
+            this(graph, foodData, hotelData, foodIndex, hotelIndex, cities, null);
+        }
+
+        // With a change log, the /edits endpoints accept POSTed edits and answer once they are durable.
+        // Their parameters come from a form-encoded body or, as before, the query string.
+        TravelServer(Graph graph, Map<String, DestinationFood> foodData, Map<String, DestinationHotel> hotelData,
+                     FoodIndex foodIndex, HotelIndex hotelIndex, CityDictionary cities, ChangeLog changeLog) {
+            this.graph = graph;
+            this.changeLog = changeLog;
+            this.cities = cities;
+            this.foodData = foodData;
+            this.hotelData = hotelData;
+            this.foodIndex = foodIndex;
+            this.hotelIndex = hotelIndex;
+            this.planner = new ItineraryPlanner(graph, hotelIndex, foodData);
+        }
+
+        // Requests are handled on a fixed pool; handlers are mostly CPU-bound searches, so a few
+        // threads per core keep slow clients from starving the rest without oversubscribing.
+        public void start(int port, int threads) throws IOException {
+            // Headers and body go out as separate writes; with Nagle on, every keep-alive response
+            // then waits out the client's delayed ACK (~40 ms). Read once when the server classes load.
+            System.setProperty("sun.net.httpserver.nodelay", "true");
+            server = HttpServer.create(new InetSocketAddress(port), 1024);
+            executor = Executors.newFixedThreadPool(threads);
+            server.setExecutor(executor);
+            server.createContext("/routes", exchange -> respond(exchange, this::routes));
+            server.createContext("/food", exchange -> respond(exchange, this::food));
+            server.createContext("/hotels", exchange -> respond(exchange, this::hotels));
+            server.createContext("/dishes", exchange -> respond(exchange, this::dishes));
+            server.createContext("/rooms", exchange -> respond(exchange, this::rooms));
+            server.createContext("/plan", exchange -> respond(exchange, this::plan));
+            server.createContext("/suggest", exchange -> respond(exchange, this::suggest));
+            server.createContext("/reachable", exchange -> respond(exchange, this::reachable));
+            server.createContext("/departures", exchange -> respond(exchange, this::departures));
+            if (changeLog != null) {
+                server.createContext("/edits/edge", exchange -> respond(exchange, "POST", this::editEdge));
+                server.createContext("/edits/location", exchange -> respond(exchange, "POST", this::editLocation));
+                server.createContext("/edits/restaurant", exchange -> respond(exchange, "POST", this::editRestaurant));
+                server.createContext("/edits/rooms", exchange -> respond(exchange, "POST", this::editRooms));
+            }
+            server.start();
+        }
+
+        public int port() {
+            return server.getAddress().getPort();
+        }
+
+        public void stop() {
+            server.stop(0);
+            executor.shutdownNow();
+        }
+
+        private String routes(Map<String, String> query) {
+            String start = cities.resolve(required(query, "from"));
+            String end = cities.resolve(required(query, "to"));
+            String mode = query.getOrDefault("mode", "Road");
+            if (CompactGraph.modeIndex(mode) < 0 && !mode.equals(Graph.MULTIMODAL)) {
+                throw new IllegalArgumentException("unknown mode " + mode);
+            }
+            List<String> routes = new ArrayList<>();
+            if (Boolean.parseBoolean(query.get("all")) && !mode.equals(Graph.MULTIMODAL)) {
+                for (RouteResult route : graph.findAllRoutes(start, end, mode, intParameter(query, "depth", Graph.DEFAULT_ALL_ROUTES_DEPTH),
+                        intParameter(query, "max", Graph.DEFAULT_ALL_ROUTES_RESULTS), Graph.DEFAULT_TIMEOUT_MILLIS)) {
+                    routes.add(route.format(mode.equals("Road")));
+                }
+            } else {
+                int maxRoutes = intParameter(query, "max", Graph.DEFAULT_MAX_ROUTES);
+                graph.streamRoutes(start, end, mode, maxRoutes, Graph.DEFAULT_TIMEOUT_MILLIS, routes::add);
+            }
+
+            StringBuilder json = new StringBuilder("{\"from\":");
+            appendString(json, start).append(",\"to\":");
+            appendString(json, end).append(",\"mode\":");
+            appendString(json, mode).append(",\"routes\":[");
+            for (int i = 0; i < routes.size(); i++) {
+                appendString(i > 0 ? json.append(',') : json, routes.get(i));
+            }
+            return json.append("]}").toString();
+        }
+
+        private String food(Map<String, String> query) {
+            DestinationFood food = foodData.get(cities.resolve(required(query, "destination")).toLowerCase());
+            if (food == null) {
+                return "{\"destination\":null,\"restaurants\":[]}";
+            }
+            // Walked by index, so taken as of one edit.
+            food = food.copy();
+            StringBuilder json = new StringBuilder("{\"destination\":");
+            appendString(json, food.destination).append(",\"restaurants\":[");
+            for (int restaurant = 0; restaurant < food.restaurantCount(); restaurant++) {
+                json.append(restaurant > 0 ? ",{\"name\":" : "{\"name\":");
+                appendString(json, food.restaurantName(restaurant)).append(",\"menu\":[");
+                for (int i = 0; i < food.menuSize(restaurant); i++) {
+                    json.append(i > 0 ? ",{\"dish\":" : "{\"dish\":");
+                    appendString(json, food.dishName(restaurant, i)).append(",\"price\":")
+                            .append(food.price(restaurant, i)).append('}');
+                }
+                json.append("]}");
+            }
+            return json.append("]}").toString();
+        }
+
+        private String hotels(Map<String, String> query) {
+            DestinationHotel destination = hotelData.get(cities.resolve(required(query, "destination")).toLowerCase());
+            if (destination == null) {
+                return "{\"destination\":null,\"hotels\":[]}";
+            }
+            StringBuilder json = new StringBuilder("{\"destination\":");
+            appendString(json, destination.destination).append(",\"hotels\":[");
+            for (int i = 0; i < destination.hotels.size(); i++) {
+                Hotel hotel = destination.hotels.get(i);
+                json.append(i > 0 ? ",{\"name\":" : "{\"name\":");
+                appendString(json, hotel.name).append(",\"rooms\":[");
+                for (int room = 0; room < hotel.roomCount(); room++) {
+                    json.append(room > 0 ? ",{\"category\":" : "{\"category\":");
+                    appendString(json, hotel.roomCategory(room)).append(",\"pricePerDay\":")
+                            .append(hotel.roomPrice(room)).append('}');
+                }
+                json.append("]}");
+            }
+            return json.append("]}").toString();
+        }
+
+        private String dishes(Map<String, String> query) {
+            List<FoodHit> hits = foodIndex.search(query.getOrDefault("q", ""), intParameter(query, "min", 0),
+                    intParameter(query, "max", Integer.MAX_VALUE), intParameter(query, "limit", 100));
+            StringBuilder json = new StringBuilder("{\"dishes\":[");
+            for (int i = 0; i < hits.size(); i++) {
+                FoodHit hit = hits.get(i);
+                json.append(i > 0 ? ",{\"dish\":" : "{\"dish\":");
+                appendString(json, hit.dish).append(",\"restaurant\":");
+                appendString(json, hit.restaurant).append(",\"destination\":");
+                appendString(json, hit.destination).append(",\"price\":").append(hit.price).append('}');
+            }
+            return json.append("]}").toString();
+        }
+
+        private String rooms(Map<String, String> query) {
+            String destination = query.containsKey("destination") ? cities.resolve(query.get("destination")) : null;
+            String category = query.get("category");
+            int limit = intParameter(query, "limit", 100);
+            List<RoomHit> hits = destination == null
+                    ? hotelIndex.inRange(category, intParameter(query, "min", 0), intParameter(query, "max", Integer.MAX_VALUE), limit)
+                    : hotelIndex.cheapestIn(destination, category, limit);
+            StringBuilder json = new StringBuilder("{\"rooms\":");
+            return appendRooms(json, hits).append('}').toString();
+        }
+
+        private String plan(Map<String, String> query) {
+            String start = cities.resolve(required(query, "start"));
+            int days = intParameter(query, "days", 3);
+            long budget = longParameter(query, "budget");
+            ItineraryOptions options = new ItineraryOptions();
+            options.mode = query.getOrDefault("mode", options.mode);
+            options.maxStops = intParameter(query, "stops", options.maxStops);
+            if (CompactGraph.modeIndex(options.mode) < 0) {
+                throw new IllegalArgumentException("unknown mode " + options.mode);
+            }
+
+            StringBuilder json = new StringBuilder("{\"start\":");
+            appendString(json, start).append(",\"plans\":[");
+            List<ItineraryPlan> plans = planner.plan(start, days, budget, options);
+            for (int i = 0; i < plans.size(); i++) {
+                ItineraryPlan plan = plans.get(i);
+                json.append(i > 0 ? ",{\"stops\":[" : "{\"stops\":[");
+                for (int stop = 0; stop < plan.stops.size(); stop++) {
+                    appendString(stop > 0 ? json.append(',') : json, plan.stops.get(stop));
+                }
+                json.append("],\"days\":").append(Arrays.toString(plan.days).replace(" ", "")).append(",\"rooms\":");
+                appendRooms(json, plan.rooms).append(",\"travelCost\":").append(plan.travelCost)
+                        .append(",\"hotelCost\":").append(plan.hotelCost)
+                        .append(",\"foodCost\":").append(plan.foodCost)
+                        .append(",\"totalCost\":").append(plan.totalCost()).append('}');
+            }
+            return json.append("]}").toString();
+        }
+
+        // from may list several origins separated by commas; each gets its own search.
+        private String reachable(Map<String, String> query) {
+            List<String> starts = new ArrayList<>();
+            for (String start : required(query, "from").split(",")) {
+                starts.add(cities.resolve(start.trim()));
+            }
+            String mode = query.getOrDefault("mode", "Road");
+            int maxCost = intParameter(query, "max", -1);
+            if (CompactGraph.modeIndex(mode) < 0) {
+                throw new IllegalArgumentException("unknown mode " + mode);
+            }
+            if (maxCost < 0) {
+                throw new IllegalArgumentException("parameter max must be a non-negative integer");
+            }
+
+            StringBuilder json = new StringBuilder("{\"mode\":");
+            appendString(json, mode).append(",\"max\":").append(maxCost).append(",\"origins\":[");
+            int origin = 0;
+            for (Map.Entry<String, List<ReachableCity>> entry : graph.reachableFrom(starts, mode, maxCost).entrySet()) {
+                json.append(origin++ > 0 ? ",{\"from\":" : "{\"from\":");
+                appendString(json, entry.getKey()).append(",\"cities\":[");
+                List<ReachableCity> reached = entry.getValue();
+                for (int i = 0; i < reached.size(); i++) {
+                    json.append(i > 0 ? ",{\"city\":" : "{\"city\":");
+                    appendString(json, reached.get(i).city).append(",\"cost\":").append(reached.get(i).cost).append('}');
+                }
+                json.append("]}");
+            }
+            return json.append("]}").toString();
+        }
+
+        // Without until only the earliest arrival is returned; with it, every journey worth taking
+        // when leaving between after and until.
+        private String departures(Map<String, String> query) {
+            String start = cities.resolve(required(query, "from"));
+            String end = cities.resolve(required(query, "to"));
+            String mode = query.getOrDefault("mode", Graph.MULTIMODAL);
+            if (Timetable.modeMask(mode) == 0) {
+                throw new IllegalArgumentException("mode " + mode + " has no timetable");
+            }
+            int after = Timetable.parseTime(query.getOrDefault("after", "00:00"));
+            List<TimetableJourney> journeys;
+            if (query.containsKey("until")) {
+                journeys = graph.departureProfile(start, end, mode, after, Timetable.parseTime(query.get("until")));
+            } else {
+                TimetableJourney journey = graph.earliestArrival(start, end, mode, after);
+                journeys = journey == null ? List.of() : List.of(journey);
+            }
+
+            StringBuilder json = new StringBuilder("{\"from\":");
+            appendString(json, start).append(",\"to\":");
+            appendString(json, end).append(",\"mode\":");
+            appendString(json, mode).append(",\"journeys\":[");
+            for (int i = 0; i < journeys.size(); i++) {
+                TimetableJourney journey = journeys.get(i);
+                json.append(i > 0 ? ",{\"departure\":" : "{\"departure\":");
+                appendString(json, Timetable.formatTime(journey.departure())).append(",\"arrival\":");
+                appendString(json, Timetable.formatTime(journey.arrival())).append(",\"legs\":[");
+                for (int leg = 0; leg < journey.trips.size(); leg++) {
+                    json.append(leg > 0 ? ",{\"from\":" : "{\"from\":");
+                    appendString(json, journey.cities.get(leg)).append(",\"to\":");
+                    appendString(json, journey.cities.get(leg + 1)).append(",\"mode\":");
+                    appendString(json, journey.modes.get(leg)).append(",\"trip\":");
+                    appendString(json, journey.trips.get(leg)).append(",\"departure\":");
+                    appendString(json, Timetable.formatTime(journey.departures[leg])).append(",\"arrival\":");
+                    appendString(json, Timetable.formatTime(journey.arrivals[leg])).append('}');
+                }
+                json.append("]}");
+            }
+            return json.append("]}").toString();
+        }
+
+        private String editEdge(Map<String, String> query) {
+            int distance = intParameter(query, "distance", 1);
+            if (distance < 1) {
+                throw new IllegalArgumentException("parameter distance must be positive");
+            }
+            // Resolved like the read endpoints, so an alias edits the city it names.
+            return logged(changeLog.addEdge(query.getOrDefault("mode", "Road"), cities.resolve(required(query, "from")),
+                    cities.resolve(required(query, "to")), distance));
+        }
+
+        private String editLocation(Map<String, String> query) {
+            return logged(changeLog.setLocation(cities.resolve(required(query, "city")),
+                    doubleParameter(query, "lat", -90, 90), doubleParameter(query, "lon", -180, 180)));
+        }
+
+        private String editRestaurant(Map<String, String> query) {
+            List<FoodItem> menu = new ArrayList<>();
+            for (Map.Entry<String, Integer> item : priceList(query, "menu").entrySet()) {
+                menu.add(new FoodItem(item.getKey(), item.getValue()));
+            }
+            return logged(changeLog.addRestaurant(cities.resolve(required(query, "destination")), required(query, "name"),
+                    menu));
+        }
+
+        private String editRooms(Map<String, String> query) {
+            return logged(changeLog.putRooms(cities.resolve(required(query, "destination")), required(query, "hotel"),
+                    priceList(query, "rooms")));
+        }
+
+        private static String logged(CompletableFuture<Void> durable) {
+            durable.join();
+            return "{\"logged\":true}";
+        }
+
+        // "name:price;name:price", split at the last colon of each entry.
+        private static Map<String, Integer> priceList(Map<String, String> query, String name) {
+            Map<String, Integer> prices = new LinkedHashMap<>();
+            for (String entry : required(query, name).split(";")) {
+                int colon = entry.lastIndexOf(':');
+                try {
+                    if (colon <= 0) {
+                        throw new NumberFormatException();
+                    }
+                    prices.put(entry.substring(0, colon).trim(), Integer.parseInt(entry.substring(colon + 1).trim()));
+                } catch (NumberFormatException e) {
+                    throw new IllegalArgumentException("parameter " + name + " must be a list of name:price");
+                }
+            }
+            return prices;
+        }
+
+        private String suggest(Map<String, String> query) {
+            List<String> names = cities.complete(required(query, "prefix"), intParameter(query, "limit", 10));
+            StringBuilder json = new StringBuilder("{\"suggestions\":[");
+            for (int i = 0; i < names.size(); i++) {
+                appendString(i > 0 ? json.append(',') : json, names.get(i));
+            }
+            return json.append("]}").toString();
+        }
+
+        private static StringBuilder appendRooms(StringBuilder json, List<RoomHit> rooms) {
+            json.append('[');
+            for (int i = 0; i < rooms.size(); i++) {
+                RoomHit room = rooms.get(i);
+                json.append(i > 0 ? ",{\"category\":" : "{\"category\":");
+                appendString(json, room.category).append(",\"hotel\":");
+                appendString(json, room.hotel).append(",\"destination\":");
+                appendString(json, room.destination).append(",\"pricePerDay\":").append(room.price).append('}');
+            }
+            return json.append(']');
+        }
+
+        private static void respond(HttpExchange exchange, Function<Map<String, String>, String> handler) throws IOException {
+            respond(exchange, "GET", handler);
+        }
+
+        private static void respond(HttpExchange exchange, String method, Function<Map<String, String>, String> handler)
+                throws IOException {
+            int status = 200;
+            String body;
+            try {
+                if (!exchange.getRequestMethod().equals(method)) {
+                    status = 405;
+                    body = error("only " + method + " is supported");
+                } else {
+                    Map<String, String> parameters = parseQuery(exchange.getRequestURI().getRawQuery());
+                    if (method.equals("POST")) {
+                        parameters.putAll(parseForm(exchange));
+                    }
+                    body = handler.apply(parameters);
+                }
+            } catch (RuntimeException e) {
+                // Edits wait on the change log with join(), which wraps whatever failed the write.
+                Throwable cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+                if (cause instanceof IllegalArgumentException) {
+                    status = 400;
+                    body = error(cause.getMessage());
+                } else {
+                    log.log(Level.SEVERE, method + " " + exchange.getRequestURI() + " failed", cause);
+                    status = 500;
+                    body = error("internal error");
+                }
+            }
+
+            byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+            exchange.sendResponseHeaders(status, bytes.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(bytes);
+            }
+        }
+
+        private static String error(String message) {
+            return appendString(new StringBuilder("{\"error\":"), message).append('}').toString();
+        }
+
+        static Map<String, String> parseQuery(String rawQuery) {
+            Map<String, String> query = new HashMap<>();
+            if (rawQuery == null) {
+                return query;
+            }
+            for (String pair : rawQuery.split("&")) {
+                int equals = pair.indexOf('=');
+                if (equals > 0) {
+                    query.put(URLDecoder.decode(pair.substring(0, equals), StandardCharsets.UTF_8),
+                            URLDecoder.decode(pair.substring(equals + 1), StandardCharsets.UTF_8));
+                }
+            }
+            return query;
+        }
+
+        // Body parameters override query-string parameters of the same name.
+        private static Map<String, String> parseForm(HttpExchange exchange) {
+            String type = exchange.getRequestHeaders().getFirst("Content-Type");
+            byte[] bytes;
+            try (InputStream in = exchange.getRequestBody()) {
+                bytes = in.readAllBytes();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            if (bytes.length == 0) {
+                return Map.of();
+            }
+            if (type != null && !type.toLowerCase(Locale.ROOT).startsWith("application/x-www-form-urlencoded")) {
+                throw new IllegalArgumentException("unsupported content type " + type);
+            }
+            return parseQuery(new String(bytes, StandardCharsets.UTF_8));
+        }
+
+        private static String required(Map<String, String> query, String name) {
+            String value = query.get(name);
+            if (value == null || value.isBlank()) {
+                throw new IllegalArgumentException("missing parameter " + name);
+            }
+            return value.trim();
+        }
+
+        private static int intParameter(Map<String, String> query, String name, int defaultValue) {
+            String value = query.get(name);
+            try {
+                return value == null ? defaultValue : Integer.parseInt(value.trim());
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("parameter " + name + " must be an integer");
+            }
+        }
+
+        private static double doubleParameter(Map<String, String> query, String name) {
+            try {
+                return Double.parseDouble(required(query, name));
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("parameter " + name + " must be a number");
+            }
+        }
+
+        private static double doubleParameter(Map<String, String> query, String name, double min, double max) {
+            double value = doubleParameter(query, name);
+            if (!(value >= min && value <= max)) {
+                throw new IllegalArgumentException("parameter " + name + " must be between " + min + " and " + max);
+            }
+            return value;
+        }
+
+        private static long longParameter(Map<String, String> query, String name) {
+            try {
+                return Long.parseLong(required(query, name));
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("parameter " + name + " must be an integer");
+            }
+        }
+
+        static StringBuilder appendString(StringBuilder json, String value) {
+            json.append('"');
+            for (int i = 0; i < value.length(); i++) {
+                char c = value.charAt(i);
+                switch (c) {
+                    case '"' -> json.append("\\\"");
+                    case '\\' -> json.append("\\\\");
+                    case '\n' -> json.append("\\n");
+                    case '\r' -> json.append("\\r");
+                    case '\t' -> json.append("\\t");
+                    default -> {
+                        if (c < 0x20) {
+                            json.append(String.format("\\u%04x", (int) c));
+                        } else {
+                            json.append(c);
+                        }
+                    }
+                }
+            }
+            return json.append('"');
+        }
+    }
+
+    // Answers a file of route queries in parallel. Input rows are "source,destination,mode" with an
+    // optional fourth column for the number of routes; output rows repeat the query followed by the
+    // route count and one quoted field per route, in input order. The reader hands chunks of
+    // queries to the worker pool and queues their futures in a bounded queue that the writer drains
+    // in order, so only about two chunks per worker are ever held in memory.
+    static class BatchQueryRunner {
+        private static final int CHUNK_SIZE = 256;
+        private static final int WRITE_BUFFER_BYTES = 1 << 20;
+
+        private final Graph graph;
+        private final int threads;
+
+        BatchQueryRunner(Graph graph, int threads) {
+            this.graph = graph;
+            this.threads = threads;
+        }
+
+        // Returns the number of queries answered.
+        public long run(Path input, Path output) throws IOException {
+            ExecutorService workers = Executors.newFixedThreadPool(threads);
+            BlockingQueue<Future<byte[]>> pending = new ArrayBlockingQueue<>(2 * threads);
+            long[] written = {0};
+            Thread writer = new Thread(() -> drain(pending, output, written), "batch-writer");
+            Future<byte[]> endOfInput = CompletableFuture.completedFuture(null);
+            writer.start();
+
+            long queries = 0;
+            try (BufferedReader reader = Files.newBufferedReader(input, StandardCharsets.UTF_8)) {
+                List<String> chunk = new ArrayList<>(CHUNK_SIZE);
+                String line;
+                boolean first = true;
+                while ((line = reader.readLine()) != null) {
+                    if (line.isBlank() || (first && line.toLowerCase().startsWith("source,"))) {
+                        first = false;
+                        continue;
+                    }
+                    first = false;
+                    chunk.add(line);
+                    queries++;
+                    if (chunk.size() == CHUNK_SIZE) {
+                        submit(workers, pending, chunk, writer);
+                        chunk = new ArrayList<>(CHUNK_SIZE);
+                    }
+                }
+                if (!chunk.isEmpty()) {
+                    submit(workers, pending, chunk, writer);
+                }
+                put(pending, endOfInput, writer);
+                writer.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                writer.interrupt();
+                throw new IOException("Batch run interrupted", e);
+            } finally {
+                workers.shutdownNow();
+            }
+            if (written[0] < 0) {
+                throw new IOException("Writing " + output + " failed");
+            }
+            return queries;
+        }
+
+        private void submit(ExecutorService workers, BlockingQueue<Future<byte[]>> pending, List<String> chunk,
+                            Thread writer) throws InterruptedException, IOException {
+            put(pending, workers.submit(() -> answer(chunk)), writer);
+        }
+
+        // Blocks while the queue is full; gives up if the writer died.
+        private static void put(BlockingQueue<Future<byte[]>> pending, Future<byte[]> chunk, Thread writer)
+                throws InterruptedException, IOException {
+            while (!pending.offer(chunk, 100, TimeUnit.MILLISECONDS)) {
+                if (!writer.isAlive()) {
+                    throw new IOException("Batch writer stopped");
+                }
+            }
+        }
+
+        private byte[] answer(List<String> lines) {
+            StringBuilder out = new StringBuilder(lines.size() * 128);
+            for (String line : lines) {
+                String[] query = TravelSnapshot.splitCsvLine(line);
+                for (int i = 0; i < Math.min(3, query.length); i++) {
+                    appendCsv(out, query[i]).append(',');
+                }
+                for (int i = query.length; i < 3; i++) {
+                    out.append(',');
+                }
+                if (query.length < 3 || (CompactGraph.modeIndex(query[2]) < 0 && !query[2].equals(Graph.MULTIMODAL))) {
+                    appendCsv(out.append("-1,"), query.length < 3 ? "expected source,destination,mode" : "unknown mode")
+                            .append('\n');
+                    continue;
+                }
+                int maxRoutes = Graph.DEFAULT_MAX_ROUTES;
+                if (query.length > 3 && !query[3].isEmpty()) {
+                    try {
+                        maxRoutes = Integer.parseInt(query[3]);
+                    } catch (NumberFormatException e) {
+                        appendCsv(out.append("-1,"), "bad route count").append('\n');
+                        continue;
+                    }
+                }
+                List<String> routes = new ArrayList<>();
+                graph.streamRoutes(query[0], query[1], query[2], maxRoutes, Graph.DEFAULT_TIMEOUT_MILLIS, routes::add);
+                out.append(routes.size());
+                for (String route : routes) {
+                    appendCsv(out.append(','), route);
+                }
+                out.append('\n');
+            }
+            return out.toString().getBytes(StandardCharsets.UTF_8);
+        }
+
+        private static StringBuilder appendCsv(StringBuilder out, String field) {
+            if (field.indexOf(',') < 0 && field.indexOf('"') < 0) {
+                return out.append(field);
+            }
+            return out.append('"').append(field.replace("\"", "\"\"")).append('"');
+        }
+
+        // Writes finished chunks in submission order through one reused direct buffer. written[0]
+        // ends up as the byte count, or -1 if the output could not be written.
+        private static void drain(BlockingQueue<Future<byte[]>> pending, Path output, long[] written) {
+            ByteBuffer buffer = ByteBuffer.allocateDirect(WRITE_BUFFER_BYTES);
+            try (FileChannel channel = FileChannel.open(output, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING)) {
+                while (true) {
+                    byte[] chunk = pending.take().get();
+                    if (chunk == null) {
+                        break;
+                    }
+                    for (int offset = 0; offset < chunk.length; ) {
+                        int length = Math.min(buffer.remaining(), chunk.length - offset);
+                        buffer.put(chunk, offset, length);
+                        offset += length;
+                        if (!buffer.hasRemaining()) {
+                            written[0] += flush(channel, buffer);
+                        }
+                    }
+                }
+                written[0] += flush(channel, buffer);
+            } catch (IOException | ExecutionException e) {
+                written[0] = -1;
+            } catch (InterruptedException e) {
+                written[0] = -1;
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        private static int flush(FileChannel channel, ByteBuffer buffer) throws IOException {
+            buffer.flip();
+            int bytes = buffer.remaining();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            buffer.clear();
+            return bytes;
+        }
+    }
+
+    // Shared dictionary of place names. Names and aliases are normalized (case, accents,
+    // punctuation and spacing folded) and mapped to interned ids whose canonical spelling is the
+    // first one seen, graph cities first. Prefix completion walks a compact trie over the sorted
+    // normalized keys; every trie node covers a contiguous range of those keys, so a completion
+    // costs the prefix length plus the number of suggestions. Immutable once built.
+    static class CityDictionary {
+        // Well-known short forms and former names; a pair is added when either side is a known place.
+        static final String[][] DEFAULT_ALIASES = {
+                {"UP", "Uttar Pradesh"}, {"MP", "Madhya Pradesh"}, {"HP", "Himachal Pradesh"},
+                {"AP", "Andhra Pradesh"}, {"WB", "West Bengal"}, {"TN", "Tamil Nadu"},
+                {"J&K", "Jammu and Kashmir"}, {"NCR", "Delhi"}, {"New Delhi", "Delhi"},
+                {"Bombay", "Mumbai"}, {"Madras", "Chennai"}, {"Calcutta", "Kolkata"},
+                {"Bangalore", "Bengaluru"}, {"Orissa", "Odisha"}, {"Pondicherry", "Puducherry"},
+        };
+
+        private final String[] canonicalNames;
+        private final String[] keys;
+        private final int[] keyIds;
+        // Trie nodes in breadth-first order; the children of a node are contiguous and sorted by label.
+        private final char[] labels;
+        private final int[] firstChild;
+        private final int[] childCount;
+        private final int[] rangeStart;
+        private final int[] rangeEnd;
+
+        private CityDictionary(List<String> canonicalNames, Map<String, Integer> keyToId) {
+            this.canonicalNames = canonicalNames.toArray(new String[0]);
+            this.keys = keyToId.keySet().toArray(new String[0]);
+            Arrays.sort(keys);
+            this.keyIds = new int[keys.length];
+            for (int i = 0; i < keys.length; i++) {
+                keyIds[i] = keyToId.get(keys[i]);
+            }
+
+            int capacity = Math.max(16, keys.length * 2);
+            char[] label = new char[capacity];
+            int[] first = new int[capacity];
+            int[] count = new int[capacity];
+            int[] start = new int[capacity];
+            int[] end = new int[capacity];
+            int[] depth = new int[capacity];
+            end[0] = keys.length;
+            int nodes = 1;
+            for (int node = 0; node < nodes; node++) {
+                int d = depth[node];
+                int i = start[node];
+                while (i < end[node] && keys[i].length() == d) {
+                    i++;
+                }
+                first[node] = nodes;
+                while (i < end[node]) {
+                    char c = keys[i].charAt(d);
+                    int groupStart = i;
+                    while (i < end[node] && keys[i].charAt(d) == c) {
+                        i++;
+                    }
+                    if (nodes == label.length) {
+                        int grown = nodes * 2;
+                        label = Arrays.copyOf(label, grown);
+                        first = Arrays.copyOf(first, grown);
+                        count = Arrays.copyOf(count, grown);
+                        start = Arrays.copyOf(start, grown);
+                        end = Arrays.copyOf(end, grown);
+                        depth = Arrays.copyOf(depth, grown);
+                    }
+                    label[nodes] = c;
+                    start[nodes] = groupStart;
+                    end[nodes] = i;
+                    depth[nodes] = d + 1;
+                    nodes++;
+                }
+                count[node] = nodes - first[node];
+            }
+            this.labels = Arrays.copyOf(label, nodes);
+            this.firstChild = Arrays.copyOf(first, nodes);
+            this.childCount = Arrays.copyOf(count, nodes);
+            this.rangeStart = Arrays.copyOf(start, nodes);
+            this.rangeEnd = Arrays.copyOf(end, nodes);
+        }
+
+        // Graph cities, then any extra names (e.g. food and hotel destinations), then the aliases.
+        static CityDictionary build(CompactGraph graph, Collection<String> extraNames, String[][] aliases) {
+            List<String> canonicalNames = new ArrayList<>();
+            Map<String, Integer> keyToId = new HashMap<>();
+            for (int city = 0; city < graph.cityCount(); city++) {
+                intern(graph.cityName(city), canonicalNames, keyToId);
+            }
+            for (String name : extraNames) {
+                intern(name, canonicalNames, keyToId);
+            }
+            for (String[] pair : aliases) {
+                Integer left = keyToId.get(normalize(pair[0]));
+                Integer right = keyToId.get(normalize(pair[1]));
+                if (left != null && right == null) {
+                    keyToId.put(normalize(pair[1]), left);
+                } else if (right != null && left == null) {
+                    keyToId.put(normalize(pair[0]), right);
+                }
+            }
+            return new CityDictionary(canonicalNames, keyToId);
+        }
+
+        private static void intern(String name, List<String> canonicalNames, Map<String, Integer> keyToId) {
+            String key = normalize(name);
+            if (!key.isEmpty() && !keyToId.containsKey(key)) {
+                keyToId.put(key, canonicalNames.size());
+                canonicalNames.add(name);
+            }
+        }
+
+        // Lowercase, accents stripped, "&" spelled out, other punctuation dropped, whitespace collapsed.
+        static String normalize(String name) {
+            String folded = Normalizer.normalize(name, Normalizer.Form.NFD);
+            StringBuilder key = new StringBuilder(folded.length());
+            boolean space = false;
+            for (int i = 0; i < folded.length(); i++) {
+                char c = folded.charAt(i);
+                if (Character.isLetterOrDigit(c)) {
+                    if (space && key.length() > 0) {
+                        key.append(' ');
+                    }
+                    key.append(Character.toLowerCase(c));
+                    space = false;
+                } else if (c == '&') {
+                    key.append(key.length() > 0 ? " and" : "and");
+                    space = true;
+                } else if (Character.getType(c) != Character.NON_SPACING_MARK) {
+                    space = true;
+                }
+            }
+            return key.toString();
+        }
+
+        public int size() {
+            return canonicalNames.length;
+        }
+
+        // Interned id of a name or alias, or -1.
+        public int id(String name) {
+            String key = normalize(name);
+            int node = find(key);
+            return node >= 0 && rangeStart[node] < rangeEnd[node] && keys[rangeStart[node]].length() == key.length()
+                    ? keyIds[rangeStart[node]] : -1;
+        }
+
+        public String canonicalName(int id) {
+            return canonicalNames[id];
+        }
+
+        // The canonical spelling of a known name or alias; unknown input comes back trimmed.
+        public String resolve(String name) {
+            int id = id(name);
+            return id >= 0 ? canonicalNames[id] : name.trim();
+        }
+
+        // Canonical names whose name or alias starts with the prefix, in key order, without duplicates.
+        public List<String> complete(String prefix, int limit) {
+            int node = find(normalize(prefix));
+            if (node < 0) {
+                return List.of();
+            }
+            List<String> suggestions = new ArrayList<>(Math.min(limit, rangeEnd[node] - rangeStart[node]));
+            int[] added = new int[limit];
+            for (int i = rangeStart[node]; i < rangeEnd[node] && suggestions.size() < limit; i++) {
+                int id = keyIds[i];
+                boolean duplicate = false;
+                for (int j = 0; j < suggestions.size(); j++) {
+                    duplicate |= added[j] == id;
+                }
+                if (!duplicate) {
+                    added[suggestions.size()] = id;
+                    suggestions.add(canonicalNames[id]);
+                }
+            }
+            return suggestions;
+        }
+
+        private int find(String key) {
+            int node = 0;
+            for (int i = 0; i < key.length() && node >= 0; i++) {
+                node = child(node, key.charAt(i));
+            }
+            return node;
+        }
+
+        private int child(int node, char c) {
+            int low = firstChild[node];
+            int high = low + childCount[node] - 1;
+            while (low <= high) {
+                int mid = (low + high) >>> 1;
+                if (labels[mid] < c) {
+                    low = mid + 1;
+                } else if (labels[mid] > c) {
+                    high = mid - 1;
+                } else {
+                    return mid;
+                }
+            }
+            return -1;
+        }
+    }
+
+    // Drop-down of dictionary completions under a text field, refreshed on every edit.
+    static class CityAutocomplete {
+        private static final int MAX_SUGGESTIONS = 8;
+
+        static void attach(JTextField field, CityDictionary dictionary) {
+            JPopupMenu popup = new JPopupMenu();
+            popup.setFocusable(false);
+            List<String> shown = new ArrayList<>();
+            boolean[] choosing = {false};
+
+            Runnable update = () -> {
+                String text = field.getText();
+                List<String> suggestions = choosing[0] || text.isBlank() || !field.isFocusOwner()
+                        ? List.of() : dictionary.complete(text, MAX_SUGGESTIONS);
+                if (suggestions.isEmpty() || (suggestions.size() == 1 && suggestions.get(0).equals(text.trim()))) {
+                    popup.setVisible(false);
+                    shown.clear();
+                    return;
+                }
+                if (suggestions.equals(shown) && popup.isVisible()) {
+                    return;
+                }
+                shown.clear();
+                shown.addAll(suggestions);
+                popup.removeAll();
+                for (String suggestion : suggestions) {
+                    JMenuItem item = new JMenuItem(suggestion);
+                    item.addActionListener(e -> {
+                        choosing[0] = true;
+                        field.setText(suggestion);
+                        choosing[0] = false;
+                        popup.setVisible(false);
+                    });
+                    popup.add(item);
+                }
+                popup.pack();
+                popup.show(field, 0, field.getHeight());
+                field.requestFocusInWindow();
+            };
+
+            field.getDocument().addDocumentListener(new DocumentListener() {
+                @Override
+                public void insertUpdate(DocumentEvent e) {
+                    SwingUtilities.invokeLater(update);
+                }
+
+                @Override
+                public void removeUpdate(DocumentEvent e) {
+                    SwingUtilities.invokeLater(update);
+                }
+
+                @Override
+                public void changedUpdate(DocumentEvent e) {
+                }
+            });
+            field.addKeyListener(new KeyAdapter() {
+                @Override
+                public void keyPressed(KeyEvent e) {
+                    if (e.getKeyCode() == KeyEvent.VK_ESCAPE) {
+                        popup.setVisible(false);
+                    } else if (e.getKeyCode() == KeyEvent.VK_ENTER && popup.isVisible() && !shown.isEmpty()) {
+                        choosing[0] = true;
+                        field.setText(shown.get(0));
+                        choosing[0] = false;
+                        popup.setVisible(false);
+                        e.consume();
+                    }
+                }
+            });
+            field.addFocusListener(new FocusAdapter() {
+                @Override
+                public void focusLost(FocusEvent e) {
+                    popup.setVisible(false);
+                }
+            });
+        }
+    }
+
+    // Binary snapshot of the graph and the food/hotel catalogs. The file is memory-mapped on load
+    // and the CSR arrays are bulk-read straight out of the mapping, so no per-edge parsing happens.
+    //
+    // Layout (little-endian): magic, version, city count, city name offsets + UTF-8 blob, the city
+    // hash table, then per mode arc count, offsets, targets and weights, then the food section and
+    // the hotel section.
+    static class TravelSnapshot {
+        private static final int MAGIC = 0x54425331;
+        // Version 2 added city locations and version 3 the change log generation; older snapshots
+        // still load, without them.
+        private static final int VERSION = 3;
+
+        final CompactGraph graph;
+        final Map<String, DestinationFood> foodData;
+        final Map<String, DestinationHotel> hotelData;
+        // Change log segments up to this generation are already folded into the snapshot.
+        final long logGeneration;
+
+        TravelSnapshot(CompactGraph graph, Map<String, DestinationFood> foodData, Map<String, DestinationHotel> hotelData,
+                       long logGeneration) {
+            this.graph = graph;
+            this.foodData = foodData;
+            this.hotelData = hotelData;
+            this.logGeneration = logGeneration;
+        }
+
+        static TravelSnapshot load(Path path) throws IOException {
+            MappedByteBuffer buffer;
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+                buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            }
+            buffer.order(ByteOrder.LITTLE_ENDIAN);
+            int magic = buffer.getInt();
+            int version = buffer.getInt();
+            if (magic != MAGIC || version < 1 || version > VERSION) {
+                throw new IOException("Not a travel snapshot: " + path);
+            }
+            long logGeneration = version >= 3 ? buffer.getLong() : 0;
+
+            int cityCount = buffer.getInt();
+            int[] nameOffsets = readInts(buffer, cityCount + 1);
+            byte[] names = new byte[buffer.getInt()];
+            buffer.get(names);
+            int[] cityTable = readInts(buffer, buffer.getInt());
+
+            int modes = CompactGraph.MODES.length;
+            int[][] offsets = new int[modes][];
+            int[][] targets = new int[modes][];
+            int[][] weights = new int[modes][];
+            for (int mode = 0; mode < modes; mode++) {
+                int arcCount = buffer.getInt();
+                offsets[mode] = readInts(buffer, cityCount + 1);
+                targets[mode] = readInts(buffer, arcCount);
+                weights[mode] = readInts(buffer, arcCount);
+            }
+            float[] latitudes = null;
+            float[] longitudes = null;
+            if (version >= 2 && buffer.getInt() != 0) {
+                latitudes = readFloats(buffer, cityCount);
+                longitudes = readFloats(buffer, cityCount);
+            }
+            CompactGraph graph = new CompactGraph(new String[cityCount], names, nameOffsets, cityTable,
+                    offsets, targets, weights, latitudes, longitudes);
+
+            CatalogStore store = new CatalogStore();
+            Map<String, DestinationFood> foodData = new HashMap<>();
+            for (int destinations = buffer.getInt(); destinations > 0; destinations--) {
+                String key = readString(buffer);
+                DestinationFood food = new DestinationFood(readString(buffer), store);
+                for (int restaurants = buffer.getInt(); restaurants > 0; restaurants--) {
+                    String restaurant = readString(buffer);
+                    int itemCount = buffer.getInt();
+                    List<FoodItem> menu = new ArrayList<>(itemCount);
+                    for (int i = 0; i < itemCount; i++) {
+                        String name = readString(buffer);
+                        menu.add(new FoodItem(name, buffer.getInt()));
+                    }
+                    food.addRestaurant(restaurant, menu);
+                }
+                foodData.put(key, food);
+            }
+
+            Map<String, DestinationHotel> hotelData = new HashMap<>();
+            for (int destinations = buffer.getInt(); destinations > 0; destinations--) {
+                String key = readString(buffer);
+                DestinationHotel destinationHotel = new DestinationHotel(readString(buffer), store);
+                for (int hotels = buffer.getInt(); hotels > 0; hotels--) {
+                    Hotel hotel = new Hotel(readString(buffer), store);
+                    for (int categories = buffer.getInt(); categories > 0; categories--) {
+                        String category = readString(buffer);
+                        hotel.addRoomCategory(category, buffer.getInt());
+                    }
+                    destinationHotel.addHotel(hotel);
+                }
+                hotelData.put(key, destinationHotel);
+            }
+            return new TravelSnapshot(graph, foodData, hotelData, logGeneration);
+        }
+
+        static void write(Path path, CompactGraph graph, Map<String, DestinationFood> foodData,
+                          Map<String, DestinationHotel> hotelData) throws IOException {
+            write(path, graph, foodData, hotelData, 0);
+        }
+
+        static void write(Path path, CompactGraph graph, Map<String, DestinationFood> foodData,
+                          Map<String, DestinationHotel> hotelData, long logGeneration) throws IOException {
+            try (SnapshotWriter out = new SnapshotWriter(path)) {
+                out.putInt(MAGIC);
+                out.putInt(VERSION);
+                out.putLong(logGeneration);
+
+                int cityCount = graph.cityCount();
+                byte[][] names = new byte[cityCount][];
+                int[] nameOffsets = new int[cityCount + 1];
+                for (int city = 0; city < cityCount; city++) {
+                    names[city] = graph.cityName(city).getBytes(StandardCharsets.UTF_8);
+                    nameOffsets[city + 1] = nameOffsets[city] + names[city].length;
+                }
+                out.putInt(cityCount);
+                out.putInts(nameOffsets);
+                out.putInt(nameOffsets[cityCount]);
+                for (byte[] name : names) {
+                    out.putBytes(name);
+                }
+                out.putInt(graph.cityTable.length);
+                out.putInts(graph.cityTable);
+
+                for (int mode = 0; mode < CompactGraph.MODES.length; mode++) {
+                    out.putInt(graph.arcCount(mode));
+                    out.putInts(graph.offsets[mode]);
+                    out.putInts(graph.targets[mode]);
+                    out.putInts(graph.weights[mode]);
+                }
+                out.putInt(graph.latitudes != null ? 1 : 0);
+                if (graph.latitudes != null) {
+                    out.putFloats(graph.latitudes);
+                    out.putFloats(graph.longitudes);
+                }
+
+                out.putInt(foodData.size());
+                for (Map.Entry<String, DestinationFood> entry : foodData.entrySet()) {
+                    out.putString(entry.getKey());
+                    out.putString(entry.getValue().destination);
+                    DestinationFood food = entry.getValue();
+                    out.putInt(food.restaurantCount());
+                    for (int restaurant = 0; restaurant < food.restaurantCount(); restaurant++) {
+                        out.putString(food.restaurantName(restaurant));
+                        out.putInt(food.menuSize(restaurant));
+                        for (int item = 0; item < food.menuSize(restaurant); item++) {
+                            out.putString(food.dishName(restaurant, item));
+                            out.putInt(food.price(restaurant, item));
+                        }
+                    }
+                }
+
+                out.putInt(hotelData.size());
+                for (Map.Entry<String, DestinationHotel> entry : hotelData.entrySet()) {
+                    out.putString(entry.getKey());
+                    out.putString(entry.getValue().destination);
+                    out.putInt(entry.getValue().hotels.size());
+                    for (Hotel hotel : entry.getValue().hotels) {
+                        out.putString(hotel.name);
+                        out.putInt(hotel.roomCount());
+                        for (int room = 0; room < hotel.roomCount(); room++) {
+                            out.putString(hotel.roomCategory(room));
+                            out.putInt(hotel.roomPrice(room));
+                        }
+                    }
+                }
+            }
+        }
+
+        // Expects edges as "mode,from,to[,distance]", food as "destination,restaurant,item,price",
+        // hotels as "destination,hotel,category,pricePerDay" and the optional cities file as
+        // "city,latitude,longitude". A header row is skipped if present.
+        static void importCsv(Path edgesCsv, Path foodCsv, Path hotelsCsv, Path citiesCsv, Path snapshot)
+                throws IOException {
+            CompactGraph.Builder builder = new CompactGraph.Builder();
+            for (String[] row : readCsv(edgesCsv, "mode")) {
+                int mode = CompactGraph.modeIndex(row[0]);
+                if (mode < 0) {
+                    throw new IOException("Unknown transport mode '" + row[0] + "' in " + edgesCsv);
+                }
+                builder.addEdge(mode, row[1], row[2], row.length > 3 ? Integer.parseInt(row[3]) : 1);
+            }
+            if (citiesCsv != null) {
+                for (String[] row : readCsv(citiesCsv, "city")) {
+                    builder.setLocation(builder.internCity(row[0]), Double.parseDouble(row[1]), Double.parseDouble(row[2]));
+                }
+            }
+
+            CatalogStore store = new CatalogStore();
+            Map<String, DestinationFood> foodData = new HashMap<>();
+            Map<String, List<FoodItem>> menus = new LinkedHashMap<>();
+            for (String[] row : readCsv(foodCsv, "destination")) {
+                String key = row[0].toLowerCase();
+                foodData.computeIfAbsent(key, k -> new DestinationFood(row[0], store));
+                menus.computeIfAbsent(key + '\0' + row[1], k -> new ArrayList<>())
+                        .add(new FoodItem(row[2], Integer.parseInt(row[3])));
+            }
+            for (Map.Entry<String, List<FoodItem>> menu : menus.entrySet()) {
+                int split = menu.getKey().indexOf('\0');
+                foodData.get(menu.getKey().substring(0, split)).addRestaurant(menu.getKey().substring(split + 1), menu.getValue());
+            }
+
+            Map<String, DestinationHotel> hotelData = new HashMap<>();
+            Map<String, Hotel> hotelsByName = new HashMap<>();
+            for (String[] row : readCsv(hotelsCsv, "destination")) {
+                DestinationHotel destination = hotelData.computeIfAbsent(row[0].toLowerCase(),
+                        k -> new DestinationHotel(row[0], store));
+                Hotel hotel = hotelsByName.computeIfAbsent(row[0].toLowerCase() + '\0' + row[1], k -> {
+                    Hotel created = new Hotel(row[1], store);
+                    destination.addHotel(created);
+                    return created;
+                });
+                hotel.addRoomCategory(row[2], Integer.parseInt(row[3]));
+            }
+
+            write(snapshot, builder.build(), foodData, hotelData);
+        }
+
+        private static List<String[]> readCsv(Path path, String headerField) throws IOException {
+            List<String[]> rows = new ArrayList<>();
+            try (BufferedReader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    if (line.isBlank()) {
+                        continue;
+                    }
+                    String[] row = splitCsvLine(line);
+                    if (rows.isEmpty() && row[0].equalsIgnoreCase(headerField)) {
+                        continue;
+                    }
+                    rows.add(row);
+                }
+            }
+            return rows;
+        }
+
+        static String[] splitCsvLine(String line) {
+            List<String> fields = new ArrayList<>();
+            StringBuilder field = new StringBuilder();
+            boolean quoted = false;
+            for (int i = 0; i < line.length(); i++) {
+                char c = line.charAt(i);
+                if (quoted) {
+                    if (c == '"' && i + 1 < line.length() && line.charAt(i + 1) == '"') {
+                        field.append('"');
+                        i++;
+                    } else if (c == '"') {
+                        quoted = false;
+                    } else {
+                        field.append(c);
+                    }
+                } else if (c == '"') {
+                    quoted = true;
+                } else if (c == ',') {
+                    fields.add(field.toString().trim());
+                    field.setLength(0);
+                } else {
+                    field.append(c);
+                }
+            }
+            fields.add(field.toString().trim());
+            return fields.toArray(new String[0]);
+        }
+
+        private static int[] readInts(ByteBuffer buffer, int count) {
+            int[] values = new int[count];
+            buffer.slice(buffer.position(), count * 4).order(ByteOrder.LITTLE_ENDIAN).asIntBuffer().get(values);
+            buffer.position(buffer.position() + count * 4);
+            return values;
+        }
+
+        private static float[] readFloats(ByteBuffer buffer, int count) {
+            float[] values = new float[count];
+            buffer.slice(buffer.position(), count * 4).order(ByteOrder.LITTLE_ENDIAN).asFloatBuffer().get(values);
+            buffer.position(buffer.position() + count * 4);
+            return values;
+        }
+
+        private static String readString(ByteBuffer buffer) {
+            byte[] bytes = new byte[buffer.getInt()];
+            buffer.get(bytes);
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+
+        private static class SnapshotWriter implements Closeable {
+            private final FileChannel channel;
+            private final ByteBuffer buffer = ByteBuffer.allocateDirect(1 << 20).order(ByteOrder.LITTLE_ENDIAN);
+
+            SnapshotWriter(Path path) throws IOException {
+                channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                        StandardOpenOption.TRUNCATE_EXISTING);
+            }
+
+            void putInt(int value) throws IOException {
+                ensure(4);
+                buffer.putInt(value);
+            }
+
+            void putLong(long value) throws IOException {
+                ensure(8);
+                buffer.putLong(value);
+            }
+
+            void putInts(int[] values) throws IOException {
+                int written = 0;
+                while (written < values.length) {
+                    ensure(4);
+                    int count = Math.min(values.length - written, buffer.remaining() / 4);
+                    buffer.asIntBuffer().put(values, written, count);
+                    buffer.position(buffer.position() + count * 4);
+                    written += count;
+                }
+            }
+
+            void putFloats(float[] values) throws IOException {
+                int written = 0;
+                while (written < values.length) {
+                    ensure(4);
+                    int count = Math.min(values.length - written, buffer.remaining() / 4);
+                    buffer.asFloatBuffer().put(values, written, count);
+                    buffer.position(buffer.position() + count * 4);
+                    written += count;
+                }
+            }
+
+            void putBytes(byte[] bytes) throws IOException {
+                int written = 0;
+                while (written < bytes.length) {
+                    ensure(1);
+                    int count = Math.min(bytes.length - written, buffer.remaining());
+                    buffer.put(bytes, written, count);
+                    written += count;
+                }
+            }
+
+            void putString(String value) throws IOException {
+                byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+                putInt(bytes.length);
+                putBytes(bytes);
+            }
+
+            private void ensure(int bytes) throws IOException {
+                if (buffer.remaining() < bytes) {
+                    flush();
+                }
+            }
+
+            private void flush() throws IOException {
+                buffer.flip();
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+                buffer.clear();
+            }
+
+            // Forced to disk before closing: compaction renames the file over the old snapshot and
+            // then deletes the log segments it replaces.
+            @Override
+            public void close() throws IOException {
+                try {
+                    flush();
+                    channel.force(true);
+                } finally {
+                    channel.close();
+                }
+            }
+        }
+    }
+
+    // Durable append-only log of the edits made on top of a snapshot: edges, city locations,
+    // restaurant menus and hotel rooms. Segments sit next to the snapshot as
+    // <snapshot>.<generation>.log and hold records framed by their length and CRC32. An edit is
+    // applied in memory at once and its future completes when its record is on disk. A single
+    // writer thread drains every queued record with one gathering write and one force, so
+    // concurrent editors share each fsync. Once the active segment grows past compactBytes, a
+    // background compaction rotates to a new segment, writes the state as of the rotation into a
+    // fresh snapshot and deletes the segments it folded in, so startup only replays what came
+    // after. Timetables are not logged, since snapshots do not store them.
+    static class ChangeLog implements Closeable {
+        static final long DEFAULT_COMPACT_BYTES = 64L << 20;
+        private static final int MAGIC = 0x54424C31;
+        private static final int VERSION = 1;
+        private static final int HEADER_BYTES = 16;
+        private static final int MAX_BATCH = 1024;
+        private static final byte EDGE = 1;
+        private static final byte LOCATION = 2;
+        private static final byte RESTAURANT = 3;
+        private static final byte ROOMS = 4;
+        private static final Logger log = Logger.getLogger("travelingbuddy.changelog");
+
+        private final Path snapshot;
+        private final Path directory;
+        private final Graph graph;
+        private final Map<String, DestinationFood> foodData;
+        private final Map<String, DestinationHotel> hotelData;
+        private final FoodIndex foodIndex;
+        private final HotelIndex hotelIndex;
+        private final long compactBytes;
+        // Holds the catalogs of destinations that edits add; known destinations keep their own.
+        private final CatalogStore store = new CatalogStore();
+        // Edits are applied and queued under editLock, so records reach the log in the order they
+        // were applied. The writer thread never takes it.
+        private final ReentrantLock editLock = new ReentrantLock();
+        private final BlockingQueue<Append> queue = new ArrayBlockingQueue<>(4 * MAX_BATCH);
+        private final AtomicBoolean compactionQueued = new AtomicBoolean();
+        private final ExecutorService compactor = Executors.newSingleThreadExecutor(task -> {
+            Thread thread = new Thread(task, "change-log-compactor");
+            thread.setDaemon(true);
+            return thread;
+        });
+        private long generation;
+        private boolean closed;
+        private long replayedRecords;
+        // Owned by the writer thread once it has started.
+        private FileChannel channel;
+        private long segmentBytes;
+        // Sticky: a failed write may leave a torn record behind, so nothing is appended after it.
+        private volatile IOException failure;
+
+        private ChangeLog(Path snapshot, Graph graph, Map<String, DestinationFood> foodData,
+                          Map<String, DestinationHotel> hotelData, FoodIndex foodIndex, HotelIndex hotelIndex,
+                          long compactBytes) {
+            this.snapshot = snapshot;
+            this.directory = snapshot.toAbsolutePath().getParent();
+            this.graph = graph;
+            this.foodData = foodData;
+            this.hotelData = hotelData;
+            this.foodIndex = foodIndex;
+            this.hotelIndex = hotelIndex;
+            this.compactBytes = compactBytes;
+        }
+
+        // Replays the segments the snapshot does not include, cuts a torn record off the end of the
+        // last one and appends to it from then on. Edits add destinations to the maps while server
+        // threads read them, hence concurrent maps; new destinations join the given indexes.
+        static ChangeLog open(Path snapshot, long snapshotGeneration, Graph graph,
+                              ConcurrentMap<String, DestinationFood> foodData,
+                              ConcurrentMap<String, DestinationHotel> hotelData, FoodIndex foodIndex,
+                              HotelIndex hotelIndex, long compactBytes) throws IOException {
+            ChangeLog changeLog = new ChangeLog(snapshot, graph, foodData, hotelData, foodIndex, hotelIndex, compactBytes);
+            changeLog.generation = Math.max(changeLog.replay(snapshotGeneration, true), snapshotGeneration + 1);
+            changeLog.openSegment(changeLog.generation);
+            Thread writer = new Thread(changeLog::writeLoop, "change-log-writer");
+            writer.setDaemon(true);
+            writer.start();
+            return changeLog;
+        }
+
+        // Applies the log without repairing or appending to it, for processes that only read it,
+        // such as the UI or a batch run next to a serving process. Returns the records applied.
+        static long replay(Path snapshot, long snapshotGeneration, Graph graph, Map<String, DestinationFood> foodData,
+                           Map<String, DestinationHotel> hotelData) throws IOException {
+            ChangeLog changeLog = new ChangeLog(snapshot, graph, foodData, hotelData, null, null, Long.MAX_VALUE);
+            changeLog.replay(snapshotGeneration, false);
+            return changeLog.replayedRecords;
+        }
+
+        public long replayedRecords() {
+            return replayedRecords;
+        }
+
+        public CompletableFuture<Void> addEdge(String mode, String from, String to, int distance) {
+            if (CompactGraph.modeIndex(mode) < 0) {
+                throw new IllegalArgumentException("unknown mode " + mode);
+            }
+            return append(new Record(EDGE).putString(mode).putString(from).putString(to).putInt(distance));
+        }
+
+        public CompletableFuture<Void> setLocation(String city, double latitude, double longitude) {
+            return append(new Record(LOCATION).putString(city).putDouble(latitude).putDouble(longitude));
+        }
+
+        // Replaces the restaurant's menu if the destination already lists it.
+        public CompletableFuture<Void> addRestaurant(String destination, String restaurant, List<FoodItem> menu) {
+            Record record = new Record(RESTAURANT).putString(destination).putString(restaurant).putInt(menu.size());
+            for (FoodItem item : menu) {
+                record.putString(item.name).putInt(item.price);
+            }
+            return append(record);
+        }
+
+        // Sets the price per day of each room category, adding the hotel if it is new.
+        public CompletableFuture<Void> putRooms(String destination, String hotel, Map<String, Integer> rooms) {
+            Record record = new Record(ROOMS).putString(destination).putString(hotel).putInt(rooms.size());
+            for (Map.Entry<String, Integer> room : rooms.entrySet()) {
+                record.putString(room.getKey()).putInt(room.getValue());
+            }
+            return append(record);
+        }
+
+        // Folds everything logged so far into a fresh snapshot in the background while edits carry
+        // on into a new segment.
+        public Future<?> compact() {
+            return compactor.submit(() -> {
+                compactSnapshot();
+                return null;
+            });
+        }
+
+        // Waits for a running compaction, then syncs and closes the active segment.
+        @Override
+        public void close() throws IOException {
+            compactor.shutdown();
+            try {
+                compactor.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            Append marker = new Append(null, -1);
+            editLock.lock();
+            try {
+                if (closed) {
+                    return;
+                }
+                closed = true;
+                enqueue(marker);
+            } finally {
+                editLock.unlock();
+            }
+            marker.done.join();
+            if (failure != null) {
+                throw failure;
+            }
+        }
+
+        private CompletableFuture<Void> append(Record record) {
+            ByteBuffer frame = record.frame();
+            Append append = new Append(frame, 0);
+            editLock.lock();
+            try {
+                if (closed) {
+                    throw new IllegalStateException("change log is closed");
+                }
+                if (failure != null) {
+                    throw new UncheckedIOException("change log is not writable", failure);
+                }
+                // Live edits go through the same decoding as replay.
+                apply(frame.slice(Record.FRAME_BYTES, frame.remaining() - Record.FRAME_BYTES).order(ByteOrder.LITTLE_ENDIAN));
+                enqueue(append);
+            } finally {
+                editLock.unlock();
+            }
+            return append.done;
+        }
+
+        // Edits are already applied when they are queued, so the put is retried until it succeeds.
+        private void enqueue(Append append) {
+            boolean interrupted = false;
+            while (true) {
+                try {
+                    queue.put(append);
+                    break;
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        private void apply(ByteBuffer payload) {
+            byte type = payload.get();
+            switch (type) {
+                case EDGE -> {
+                    String mode = readString(payload);
+                    String from = readString(payload);
+                    String to = readString(payload);
+                    int modeIndex = CompactGraph.modeIndex(mode);
+                    if (modeIndex < 0) {
+                        throw new IllegalArgumentException("unknown mode " + mode);
+                    }
+                    graph.addEdge(modeIndex, from, to, payload.getInt());
+                }
+                case LOCATION -> {
+                    String city = readString(payload);
+                    double latitude = payload.getDouble();
+                    graph.setLocation(city, latitude, payload.getDouble());
+                }
+                case RESTAURANT -> {
+                    String destination = readString(payload);
+                    String restaurant = readString(payload);
+                    int items = payload.getInt();
+                    List<FoodItem> menu = new ArrayList<>(items);
+                    for (int i = 0; i < items; i++) {
+                        String name = readString(payload);
+                        menu.add(new FoodItem(name, payload.getInt()));
+                    }
+                    foodData.computeIfAbsent(destination.toLowerCase(), key -> {
+                        DestinationFood food = new DestinationFood(destination, store);
+                        food.index = foodIndex;
+                        return food;
+                    }).addRestaurant(restaurant, menu);
+                }
+                case ROOMS -> {
+                    String destination = readString(payload);
+                    String hotel = readString(payload);
+                    int count = payload.getInt();
+                    Map<String, Integer> rooms = new LinkedHashMap<>();
+                    for (int i = 0; i < count; i++) {
+                        String category = readString(payload);
+                        rooms.put(category, payload.getInt());
+                    }
+                    hotelData.computeIfAbsent(destination.toLowerCase(), key -> {
+                        DestinationHotel destinationHotel = new DestinationHotel(destination, store);
+                        destinationHotel.index = hotelIndex;
+                        return destinationHotel;
+                    }).putRooms(hotel, rooms);
+                }
+                default -> throw new IllegalArgumentException("unknown record type " + type);
+            }
+        }
+
+        private static String readString(ByteBuffer buffer) {
+            byte[] bytes = new byte[buffer.getInt()];
+            buffer.get(bytes);
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+
+        // Returns the generation of the last segment replayed, or 0 if there was none.
+        private long replay(long snapshotGeneration, boolean repair) throws IOException {
+            TreeMap<Long, Path> segments = segments();
+            long last = 0;
+            for (Map.Entry<Long, Path> segment : segments.entrySet()) {
+                Path path = segment.getValue();
+                if (segment.getKey() <= snapshotGeneration) {
+                    // Left behind by a compaction that stopped between the rename and the deletes.
+                    if (repair) {
+                        Files.deleteIfExists(path);
+                    }
+                    continue;
+                }
+                long valid = replaySegment(path, segment.getKey());
+                long size = Files.size(path);
+                if (valid < size) {
+                    if (!segment.getKey().equals(segments.lastKey())) {
+                        throw new IOException("Corrupt change log segment " + path + " at byte " + valid);
+                    }
+                    if (repair) {
+                        // A crash mid-write leaves a torn record that was never acknowledged.
+                        log.warning("Dropping " + (size - valid) + " torn bytes at the end of " + path);
+                        try (FileChannel torn = FileChannel.open(path, StandardOpenOption.WRITE)) {
+                            torn.truncate(valid);
+                            torn.force(true);
+                        }
+                    }
+                }
+                last = segment.getKey();
+            }
+            // Other threads see the replayed edges without waiting for the background publisher.
+            graph.latest();
+            return last;
+        }
+
+        // Applies the segment's records up to the first torn or corrupt one and returns its offset.
+        private long replaySegment(Path path, long segmentGeneration) throws IOException {
+            ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(path)).order(ByteOrder.LITTLE_ENDIAN);
+            if (buffer.remaining() < HEADER_BYTES) {
+                return 0;
+            }
+            if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION || buffer.getLong() != segmentGeneration) {
+                throw new IOException("Not a change log segment: " + path);
+            }
+            CRC32 crc = new CRC32();
+            while (buffer.remaining() >= Record.FRAME_BYTES) {
+                int start = buffer.position();
+                int length = buffer.getInt();
+                int checksum = buffer.getInt();
+                if (length <= 0 || length > buffer.remaining()) {
+                    return start;
+                }
+                ByteBuffer payload = buffer.slice(buffer.position(), length).order(ByteOrder.LITTLE_ENDIAN);
+                crc.reset();
+                crc.update(payload.duplicate());
+                if ((int) crc.getValue() != checksum) {
+                    return start;
+                }
+                try {
+                    apply(payload);
+                } catch (IllegalArgumentException | BufferUnderflowException e) {
+                    throw new IOException("Unreadable change log record in " + path + " at byte " + start, e);
+                }
+                buffer.position(buffer.position() + length);
+                replayedRecords++;
+            }
+            return buffer.position();
+        }
 
-public class IntegratedProject {
+        private TreeMap<Long, Path> segments() throws IOException {
+            String prefix = snapshot.getFileName() + ".";
+            TreeMap<Long, Path> segments = new TreeMap<>();
+            try (Stream<Path> files = Files.list(directory)) {
+                for (Path file : (Iterable<Path>) files::iterator) {
+                    String name = file.getFileName().toString();
+                    if (name.startsWith(prefix) && name.endsWith(".log")) {
+                        try {
+                            segments.put(Long.parseLong(name.substring(prefix.length(), name.length() - 4)), file);
+                        } catch (NumberFormatException e) {
+                            // Not one of ours.
+                        }
+                    }
+                }
+            }
+            return segments;
+        }
 
-    static class Edge {
-        String destination;
-        int distance;
+        private Path segmentPath(long segmentGeneration) {
+            return directory.resolve(snapshot.getFileName() + "." + segmentGeneration + ".log");
+        }
 
-        Edge(String destination, int distance) {
-            this.destination = destination;
-            this.distance = distance;
+        private void openSegment(long segmentGeneration) throws IOException {
+            channel = FileChannel.open(segmentPath(segmentGeneration), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+            segmentBytes = channel.size();
+            if (segmentBytes < HEADER_BYTES) {
+                ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN)
+                        .putInt(MAGIC).putInt(VERSION).putLong(segmentGeneration).flip();
+                channel.truncate(0);
+                while (header.hasRemaining()) {
+                    channel.write(header);
+                }
+                channel.force(true);
+                forceDirectory();
+                segmentBytes = HEADER_BYTES;
+            }
+            channel.position(segmentBytes);
         }
-    }
 
-    static class Graph {
-        private final Map<String, List<Edge>> roadMap = new HashMap<>();
-        private final Map<String, List<Edge>> trainMap = new HashMap<>();
-        private final Map<String, List<Edge>> planeMap = new HashMap<>();
-        private final Map<String, List<Edge>> busMap = new HashMap<>();
+        // Makes a new segment or a renamed snapshot durable. Not every platform can open a
+        // directory, so this is best effort.
+        private void forceDirectory() {
+            try (FileChannel dir = FileChannel.open(directory, StandardOpenOption.READ)) {
+                dir.force(true);
+            } catch (IOException e) {
+                // The file data itself is already forced.
+            }
+        }
 
-        public void addEdge(Map<String, List<Edge>> map, String from, String to, int distance) {
-            map.putIfAbsent(from, new ArrayList<>());
-            map.putIfAbsent(to, new ArrayList<>());
-            map.get(from).add(new Edge(to, distance));
-            map.get(to).add(new Edge(from, distance));
+        private void writeLoop() {
+            List<Append> batch = new ArrayList<>(MAX_BATCH);
+            List<Append> records = new ArrayList<>(MAX_BATCH);
+            while (true) {
+                batch.clear();
+                try {
+                    batch.add(queue.take());
+                } catch (InterruptedException e) {
+                    return;
+                }
+                queue.drainTo(batch, MAX_BATCH - 1);
+                for (Append append : batch) {
+                    if (append.record != null) {
+                        records.add(append);
+                        continue;
+                    }
+                    sync(records);
+                    if (append.nextGeneration < 0) {
+                        closeSegment(append);
+                        return;
+                    }
+                    rotate(append);
+                }
+                sync(records);
+                if (segmentBytes >= compactBytes && compactionQueued.compareAndSet(false, true)) {
+                    try {
+                        compactor.execute(this::compactQuietly);
+                    } catch (RejectedExecutionException e) {
+                        compactionQueued.set(false);
+                    }
+                }
+            }
         }
 
-        public void addRoadEdge(String from, String to, int distance) {
-            addEdge(roadMap, from, to, distance);
+        private void sync(List<Append> records) {
+            if (records.isEmpty()) {
+                return;
+            }
+            try {
+                if (failure != null) {
+                    throw failure;
+                }
+                ByteBuffer[] buffers = new ByteBuffer[records.size()];
+                long bytes = 0;
+                for (int i = 0; i < buffers.length; i++) {
+                    buffers[i] = records.get(i).record;
+                    bytes += buffers[i].remaining();
+                }
+                for (long written = 0; written < bytes; ) {
+                    written += channel.write(buffers);
+                }
+                channel.force(false);
+                segmentBytes += bytes;
+                for (Append append : records) {
+                    append.done.complete(null);
+                }
+            } catch (IOException e) {
+                failure = e;
+                for (Append append : records) {
+                    append.done.completeExceptionally(e);
+                }
+            }
+            records.clear();
         }
 
-        public void addTrainEdge(String from, String to) {
-            addEdge(trainMap, from, to, 1);
+        private void rotate(Append marker) {
+            try {
+                if (failure != null) {
+                    throw failure;
+                }
+                channel.close();
+                openSegment(marker.nextGeneration);
+                marker.done.complete(null);
+            } catch (IOException e) {
+                failure = e;
+                marker.done.completeExceptionally(e);
+            }
         }
 
-        public void addPlaneEdge(String from, String to) {
-            addEdge(planeMap, from, to, 1);
+        private void closeSegment(Append marker) {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                if (failure == null) {
+                    failure = e;
+                }
+            }
+            marker.done.complete(null);
         }
 
-        public void addBusEdge(String from, String to) {
-            addEdge(busMap, from, to, 1);
+        private void compactQuietly() {
+            try {
+                compactSnapshot();
+            } catch (IOException | RuntimeException e) {
+                log.warning("Change log compaction failed: " + e);
+            } finally {
+                compactionQueued.set(false);
+            }
         }
 
-        public List<String> findRoutes(String start, String end, String mode) {
-            Map<String, List<Edge>> selectedMap = switch (mode) {
-                case "Road" -> roadMap;
-                case "Train" -> trainMap;
-                case "Plane" -> planeMap;
-                case "Bus" -> busMap;
-                default -> null;
-            };
+        // The state is captured and the log rotated under editLock, so the new snapshot holds
+        // exactly the segments before the rotation. The copy keeps the write clear of edits that
+        // land while it runs.
+        private void compactSnapshot() throws IOException {
+            CompactGraph graphState;
+            Map<String, DestinationFood> foodState = new HashMap<>();
+            Map<String, DestinationHotel> hotelState = new HashMap<>();
+            long folded;
+            Append rotation;
+            editLock.lock();
+            try {
+                if (closed) {
+                    return;
+                }
+                graphState = graph.latest();
+                for (Map.Entry<String, DestinationFood> entry : foodData.entrySet()) {
+                    foodState.put(entry.getKey(), entry.getValue().copy());
+                }
+                CatalogStore store = new CatalogStore();
+                for (Map.Entry<String, DestinationHotel> entry : hotelData.entrySet()) {
+                    hotelState.put(entry.getKey(), entry.getValue().copy(store));
+                }
+                folded = generation;
+                generation++;
+                rotation = new Append(null, generation);
+                enqueue(rotation);
+            } finally {
+                editLock.unlock();
+            }
+            try {
+                rotation.done.join();
+            } catch (CompletionException e) {
+                throw new IOException("Could not rotate the change log", e.getCause());
+            }
 
-            if (selectedMap == null) {
-                return List.of("Invalid transport mode selected.");
+            Path temp = directory.resolve(snapshot.getFileName() + ".tmp");
+            TravelSnapshot.write(temp, graphState, foodState, hotelState, folded);
+            Files.move(temp, snapshot, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            forceDirectory();
+            for (Path segment : segments().headMap(folded, true).values()) {
+                Files.deleteIfExists(segment);
             }
+            reclaimStores();
+        }
 
-            List<String> routes = new ArrayList<>();
-            boolean showDistance = mode.equals("Road");
+        // Drops the replaced menus and moved rooms that edits left in the catalog stores, now that
+        // the snapshot copies sharing them are written.
+        private void reclaimStores() {
+            Set<CatalogStore> stores = Collections.newSetFromMap(new IdentityHashMap<>());
+            stores.add(store);
+            for (DestinationFood food : foodData.values()) {
+                stores.add(food.store());
+            }
+            for (DestinationHotel destinationHotel : hotelData.values()) {
+                for (Hotel hotel : destinationHotel.hotels) {
+                    stores.add(hotel.store());
+                }
+            }
+            for (CatalogStore catalogStore : stores) {
+                catalogStore.reclaim();
+            }
+        }
 
-            findRoutesRecursive(selectedMap, start, end, new ArrayList<>(), new HashSet<>(), routes, 0, showDistance);
+        // A framed record on its way to the writer, or a marker that rotates to nextGeneration or,
+        // when negative, closes the log.
+        private static class Append {
+            final ByteBuffer record;
+            final long nextGeneration;
+            final CompletableFuture<Void> done = new CompletableFuture<>();
 
-            if (routes.isEmpty()) {
-                routes.add("No routes found between " + start + " and " + end);
+            Append(ByteBuffer record, long nextGeneration) {
+                this.record = record;
+                this.nextGeneration = nextGeneration;
             }
-            return routes;
         }
 
-        private void findRoutesRecursive(Map<String, List<Edge>> map, String current, String end,
-                                         List<String> path, Set<String> visited, List<String> routes,
-                                         int distance, boolean showDistance) {
-            visited.add(current);
-            path.add(current);
+        // Encodes one record as [length][CRC32 of payload][type, fields...], little-endian, with
+        // strings as a length and UTF-8 bytes as in snapshots.
+        private static class Record {
+            static final int FRAME_BYTES = 8;
 
-            if (current.equals(end)) {
-                if (showDistance) {
-                    routes.add(String.format("Route: %s || Distance: %d", path, distance));
-                } else {
-                    routes.add(String.format("Route: %s", path));
-                }
-            } 
-			else {
-                for (Edge edge : map.getOrDefault(current, new ArrayList<>())) {
-                    if (!visited.contains(edge.destination)) {
-                        findRoutesRecursive(map, edge.destination, end, path, visited, routes,
-                                distance + edge.distance, showDistance);
-                    }
-                }
+            private ByteBuffer buffer = ByteBuffer.allocate(128).order(ByteOrder.LITTLE_ENDIAN);
+
+            Record(byte type) {
+                buffer.position(FRAME_BYTES);
+                buffer.put(type);
+            }
+
+            Record putInt(int value) {
+                ensure(4);
+                buffer.putInt(value);
+                return this;
+            }
+
+            Record putDouble(double value) {
+                ensure(8);
+                buffer.putDouble(value);
+                return this;
+            }
+
+            Record putString(String value) {
+                byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+                ensure(4 + bytes.length);
+                buffer.putInt(bytes.length);
+                buffer.put(bytes);
+                return this;
+            }
+
+            ByteBuffer frame() {
+                int length = buffer.position() - FRAME_BYTES;
+                CRC32 crc = new CRC32();
+                crc.update(buffer.array(), FRAME_BYTES, length);
+                buffer.putInt(0, length);
+                buffer.putInt(4, (int) crc.getValue());
+                return buffer.flip();
             }
 
-            path.remove(path.size() - 1);
-            visited.remove(current);
+            private void ensure(int bytes) {
+                if (buffer.remaining() < bytes) {
+                    ByteBuffer grown = ByteBuffer.allocate(Math.max(2 * buffer.capacity(), buffer.position() + bytes))
+                            .order(ByteOrder.LITTLE_ENDIAN);
+                    buffer = grown.put(buffer.flip());
+                }
+            }
         }
     }
 
-    static class FoodItem {
-        String name;
-        int price;
+    // Seeded synthetic travel network for benchmarks and load tests. Cities sit on a square
+    // lattice: roads join lattice neighbours plus density-scaled local shortcuts, trains skip every
+    // other cell, buses run short random hops and one city in a hundred is an airport. Every city
+    // gets a location, and a road is its great-circle length times a random detour factor.
+    static class TravelDataGenerator {
+        private static final String[] DISHES = {"Pav Bhaji", "Idli", "Dosa", "Samosa", "Chole Bhature",
+                "Biryani", "Vada Pav", "Dhokla", "Rajma Chawal", "Paneer Tikka", "Lassi", "Kachori",
+                "Pulao", "Seekh Kebab", "Medu Vada", "Aloo Tikki", "Thali", "Momos", "Poha", "Kulfi"};
+        private static final String[] ROOM_CATEGORIES = {"Standard", "Deluxe", "Luxury", "Suite"};
 
-        FoodItem(String name, int price) {
-            this.name = name;
-            this.price = price;
+        private final Random random;
+
+        TravelDataGenerator(long seed) {
+            this.random = new Random(seed);
         }
-    }
 
-    static class DestinationFood {
-        String destination;
-        Map<String, List<FoodItem>> restaurantMenu;
+        static String cityName(int city) {
+            return "City" + city;
+        }
 
-        DestinationFood(String destination) {
-            this.destination = destination;
-            this.restaurantMenu = new HashMap<>();
+        public CompactGraph generateGraph(int cities, double density) {
+            int side = (int) Math.ceil(Math.sqrt(cities));
+            int road = CompactGraph.modeIndex("Road");
+            int train = CompactGraph.modeIndex("Train");
+            int plane = CompactGraph.modeIndex("Plane");
+            int bus = CompactGraph.modeIndex("Bus");
+
+            // Cells are a quarter degree apart, packed closer when needed to keep the lattice within 60 degrees.
+            double step = Math.min(0.25, 60.0 / side);
+            CompactGraph.Builder builder = new CompactGraph.Builder();
+            for (int city = 0; city < cities; city++) {
+                builder.internCity(cityName(city));
+                builder.setLocation(city, latitude(city, side, step), longitude(city, side, step));
+            }
+            for (int city = 0; city < cities; city++) {
+                int x = city % side;
+                if (x + 1 < side && city + 1 < cities) {
+                    addEdge(builder, road, city, city + 1, roadLength(city, city + 1, side, step, 1.1, 0.9));
+                }
+                if (city + side < cities) {
+                    addEdge(builder, road, city, city + side, roadLength(city, city + side, side, step, 1.1, 0.9));
+                }
+                if (random.nextDouble() < density) {
+                    int other = nearby(city, cities, side, 3);
+                    addEdge(builder, road, city, other, roadLength(city, other, side, step, 1.2, 1.3));
+                }
+                if (city % 2 == 0 && x + 2 < side && city + 2 < cities) {
+                    addEdge(builder, train, city, city + 2, 1);
+                }
+                if (city + 2 * side < cities && random.nextBoolean()) {
+                    addEdge(builder, train, city, city + 2 * side, 1);
+                }
+                for (int i = 0; i < 2; i++) {
+                    addEdge(builder, bus, city, nearby(city, cities, side, 5), 1);
+                }
+            }
+
+            int airports = Math.max(2, cities / 100);
+            int flights = (int) Math.max(1, Math.round(5 * density));
+            for (int airport = 0; airport < airports; airport++) {
+                for (int i = 0; i < flights; i++) {
+                    int other = airportCity(random.nextInt(airports), cities, airports);
+                    addEdge(builder, plane, airportCity(airport, cities, airports), other, 1);
+                }
+            }
+            return builder.build();
         }
 
-        public void addRestaurant(String restaurantName, List<FoodItem> menu) {
-            restaurantMenu.put(restaurantName, menu);
+        public Map<String, DestinationFood> generateFood(int destinations, int restaurantsPerDestination,
+                                                         int itemsPerRestaurant) {
+            CatalogStore store = new CatalogStore();
+            Map<String, DestinationFood> foodData = new HashMap<>();
+            for (int destination = 0; destination < destinations; destination++) {
+                DestinationFood food = new DestinationFood(cityName(destination), store);
+                for (int restaurant = 0; restaurant < restaurantsPerDestination; restaurant++) {
+                    List<FoodItem> menu = new ArrayList<>(itemsPerRestaurant);
+                    for (int item = 0; item < itemsPerRestaurant; item++) {
+                        menu.add(new FoodItem(DISHES[random.nextInt(DISHES.length)], 20 + random.nextInt(300)));
+                    }
+                    food.addRestaurant("Restaurant " + destination + "-" + restaurant, menu);
+                }
+                foodData.put(cityName(destination).toLowerCase(), food);
+            }
+            return foodData;
         }
 
-        public String getFoodDetails() {
-            StringBuilder details = new StringBuilder("Famous Food in " + destination + ":\n");
-            for (String restaurant : restaurantMenu.keySet()) {
-                details.append(restaurant).append(":\n");
-                for (FoodItem item : restaurantMenu.get(restaurant)) {
-                    details.append("   - ").append(item.name).append(" (Rs.").append(item.price).append(")\n");
+        public Map<String, DestinationHotel> generateHotels(int destinations, int hotelsPerDestination) {
+            CatalogStore store = new CatalogStore();
+            Map<String, DestinationHotel> hotelData = new HashMap<>();
+            for (int destination = 0; destination < destinations; destination++) {
+                DestinationHotel destinationHotel = new DestinationHotel(cityName(destination), store);
+                for (int h = 0; h < hotelsPerDestination; h++) {
+                    Hotel hotel = new Hotel("Hotel " + destination + "-" + h, store);
+                    int base = 800 + random.nextInt(4000);
+                    for (int category = 0; category < ROOM_CATEGORIES.length; category++) {
+                        if (category == 0 || random.nextBoolean()) {
+                            hotel.addRoomCategory(ROOM_CATEGORIES[category], base * (category + 1));
+                        }
+                    }
+                    destinationHotel.addHotel(hotel);
                 }
-                details.append("\n");
+                hotelData.put(cityName(destination).toLowerCase(), destinationHotel);
             }
-            return details.toString();
+            return hotelData;
         }
-    }
 
-    static class RoomCategory {
-        String category;
-        int pricePerDay;
+        // Daily schedule over the generateGraph lattice: train lines of up to 20 stops along every
+        // other row and column, calling at every other cell and overlapping at their ends, bus lines
+        // of six nearby stops, and flights between airports. Every line runs departuresPerLine trips
+        // each way between 05:00 and 23:00. Lines are drawn independently of generateGraph's links.
+        public Timetable generateTimetable(int cities, int departuresPerLine) {
+            int side = (int) Math.ceil(Math.sqrt(cities));
+            int rows = (cities + side - 1) / side;
+            Timetable.Builder builder = new Timetable.Builder();
+            int line = 0;
+            for (int y = 0; y < rows; y += 2) {
+                for (int start = 0; start + 2 < side; start += 38) {
+                    List<Integer> stops = new ArrayList<>();
+                    for (int x = start; x < Math.min(side, start + 40) && y * side + x < cities; x += 2) {
+                        stops.add(y * side + x);
+                    }
+                    addLine(builder, CompactGraph.modeIndex("Train"), "T" + line++, stops, departuresPerLine, 20, 40);
+                }
+            }
+            for (int x = 0; x < side; x += 2) {
+                for (int start = 0; start + 2 < rows; start += 38) {
+                    List<Integer> stops = new ArrayList<>();
+                    for (int y = start; y < Math.min(rows, start + 40) && y * side + x < cities; y += 2) {
+                        stops.add(y * side + x);
+                    }
+                    addLine(builder, CompactGraph.modeIndex("Train"), "T" + line++, stops, departuresPerLine, 20, 40);
+                }
+            }
+            for (int city = 0; city < cities; city += 10) {
+                List<Integer> stops = new ArrayList<>(List.of(city));
+                while (stops.size() < 6) {
+                    int next = nearby(stops.get(stops.size() - 1), cities, side, 5);
+                    if (next != stops.get(stops.size() - 1)) {
+                        stops.add(next);
+                    }
+                }
+                addLine(builder, CompactGraph.modeIndex("Bus"), "B" + line++, stops, departuresPerLine, 15, 30);
+            }
+            int airports = Math.max(2, cities / 100);
+            for (int airport = 0; airport < airports; airport++) {
+                for (int i = 0; i < 5; i++) {
+                    int other = random.nextInt(airports);
+                    if (other != airport) {
+                        addLine(builder, CompactGraph.modeIndex("Plane"), "F" + line++,
+                                List.of(airportCity(airport, cities, airports), airportCity(other, cities, airports)),
+                                Math.max(1, departuresPerLine / 4), 60, 180);
+                    }
+                }
+            }
+            return builder.build();
+        }
 
-        RoomCategory(String category, int pricePerDay) {
-            this.category = category;
-            this.pricePerDay = pricePerDay;
+        // Leg times are fixed per line; vehicles wait two minutes at every intermediate stop.
+        private void addLine(Timetable.Builder builder, int mode, String name, List<Integer> stops, int departures,
+                             int minLeg, int maxLeg) {
+            if (stops.size() < 2) {
+                return;
+            }
+            int[] legs = new int[stops.size() - 1];
+            for (int i = 0; i < legs.length; i++) {
+                legs[i] = minLeg + random.nextInt(maxLeg - minLeg + 1);
+            }
+            int headway = Math.max(1, 18 * 60 / departures);
+            int offset = random.nextInt(headway);
+            for (int run = 0; run < departures; run++) {
+                for (int direction = 0; direction < 2; direction++) {
+                    String trip = name + (direction == 0 ? "-" : "-R") + run;
+                    int time = 5 * 60 + offset + run * headway;
+                    for (int i = 0; i < legs.length; i++) {
+                        int leg = direction == 0 ? i : legs.length - 1 - i;
+                        int from = stops.get(direction == 0 ? leg : leg + 1);
+                        int to = stops.get(direction == 0 ? leg + 1 : leg);
+                        builder.addConnection(mode, trip, cityName(from), cityName(to), time, time + legs[leg]);
+                        time += legs[leg] + 2;
+                    }
+                }
+            }
         }
-    }
 
-    static class Hotel {
-        String name;
-        Map<String, RoomCategory> roomCategories;
+        private static double latitude(int city, int side, double step) {
+            return -30 + (city / side) * step;
+        }
 
-        Hotel(String name) {
-            this.name = name;
-            this.roomCategories = new HashMap<>();
+        private static double longitude(int city, int side, double step) {
+            return (city % side) * step;
         }
 
-        public void addRoomCategory(String category, int pricePerDay) {
-            roomCategories.put(category, new RoomCategory(category, pricePerDay));
+        private int roadLength(int from, int to, int side, double step, double minDetour, double detourRange) {
+            double kilometres = GeoSearch.greatCircleKm(latitude(from, side, step), longitude(from, side, step),
+                    latitude(to, side, step), longitude(to, side, step));
+            return Math.max(1, (int) Math.round(kilometres * (minDetour + detourRange * random.nextDouble())));
         }
 
-        public String getHotelDetails() {
-            StringBuilder details = new StringBuilder("Hotel: " + name + "\n");
-            for (Map.Entry<String, RoomCategory> entry : roomCategories.entrySet()) {
-                RoomCategory category = entry.getValue();
-                details.append("   - ").append(category.category)
-                        .append(" Room: Rs.").append(category.pricePerDay)
-                        .append(" per day\n");
+        private void addEdge(CompactGraph.Builder builder, int mode, int from, int to, int distance) {
+            if (from != to) {
+                builder.addArc(mode, from, to, distance);
+                builder.addArc(mode, to, from, distance);
             }
-            details.append("\n");
-            return details.toString();
         }
-    }
 
-    static class DestinationHotel {
-        String destination;
-        List<Hotel> hotels;
+        private int nearby(int city, int cities, int side, int radius) {
+            int x = Math.floorMod(city % side + random.nextInt(2 * radius + 1) - radius, side);
+            int y = Math.max(0, city / side + random.nextInt(2 * radius + 1) - radius);
+            return Math.min(cities - 1, y * side + x);
+        }
 
-        DestinationHotel(String destination) {
-            this.destination = destination;
-            this.hotels = new ArrayList<>();
+        private static int airportCity(int airport, int cities, int airports) {
+            return (int) ((long) airport * cities / airports);
         }
+    }
 
-        public void addHotel(Hotel hotel) {
-            hotels.add(hotel);
+    public static void main(String[] args) throws IOException {
+        // --import-csv <edges.csv> <food.csv> <hotels.csv> <snapshot> [cities.csv]
+        if ((args.length == 5 || args.length == 6) && args[0].equals("--import-csv")) {
+            TravelSnapshot.importCsv(Path.of(args[1]), Path.of(args[2]), Path.of(args[3]),
+                    args.length == 6 ? Path.of(args[5]) : null, Path.of(args[4]));
+            return;
+        }
+        if (args.length == 4 && args[0].equals("--generate")) {
+            int cities = Integer.parseInt(args[1]);
+            TravelDataGenerator generator = new TravelDataGenerator(Long.parseLong(args[2]));
+            TravelSnapshot.write(Path.of(args[3]), generator.generateGraph(cities, 1.0),
+                    generator.generateFood(cities / 10, 5, 6), generator.generateHotels(cities / 10, 4));
+            return;
         }
 
-        public String getHotelDetails() {
-            StringBuilder details = new StringBuilder("Hotels in " + destination + ":\n");
-            for (Hotel hotel : hotels) {
-                details.append(hotel.getHotelDetails());
+        // --serve <port> [snapshot] runs the headless JSON server instead of the Swing UI.
+        boolean serve = (args.length == 2 || args.length == 3) && args[0].equals("--serve");
+        // --batch <queries.csv> <output.csv> [snapshot] answers a file of route queries on all cores.
+        boolean batch = (args.length == 3 || args.length == 4) && args[0].equals("--batch");
+        // --compact <snapshot> folds the snapshot's change log into it.
+        boolean compact = args.length == 2 && args[0].equals("--compact");
+        String snapshotPath = args.length == 2 && (args[0].equals("--snapshot") || compact) ? args[1]
+                : serve && args.length == 3 ? args[2]
+                : batch && args.length == 4 ? args[3] : null;
+
+        Graph graph;
+        ConcurrentMap<String, DestinationFood> foodData;
+        ConcurrentMap<String, DestinationHotel> hotelData;
+        TravelSnapshot snapshot = null;
+        if (snapshotPath != null) {
+            snapshot = TravelSnapshot.load(Path.of(snapshotPath));
+            graph = new Graph(snapshot.graph);
+            // The server's change log adds destinations while requests read the maps.
+            foodData = new ConcurrentHashMap<>(snapshot.foodData);
+            hotelData = new ConcurrentHashMap<>(snapshot.hotelData);
+            if (!serve && !compact) {
+                long replayed = ChangeLog.replay(Path.of(snapshotPath), snapshot.logGeneration, graph, foodData, hotelData);
+                if (replayed > 0) {
+                    System.out.println("Replayed " + replayed + " logged edits");
+                }
             }
-            return details.toString();
+        } else {
+            graph = new Graph();
+            setupSampleData(graph);
+
+            foodData = new ConcurrentHashMap<>();
+            hotelData = new ConcurrentHashMap<>();
+            setupFoodAndHotelData(foodData, hotelData);
         }
-    }
 
-    public static void main(String[] args) {
-        Graph graph = new Graph();
-        setupSampleData(graph);
+        if (compact) {
+            long started = System.nanoTime();
+            try (ChangeLog changeLog = ChangeLog.open(Path.of(snapshotPath), snapshot.logGeneration, graph, foodData,
+                    hotelData, null, null, ChangeLog.DEFAULT_COMPACT_BYTES)) {
+                changeLog.compact().get();
+                System.out.printf("Folded %d logged edits into %s in %.2f s%n", changeLog.replayedRecords(), snapshotPath,
+                        (System.nanoTime() - started) / 1e9);
+            } catch (InterruptedException | ExecutionException e) {
+                throw new IOException("Compaction failed", e);
+            }
+            return;
+        }
+
+        if (args.length == 2 && args[0].equals("--export-snapshot")) {
+            TravelSnapshot.write(Path.of(args[1]), graph.compact(), foodData, hotelData);
+            return;
+        }
+
+        if (batch) {
+            long start = System.nanoTime();
+            long queries = new BatchQueryRunner(graph, Runtime.getRuntime().availableProcessors())
+                    .run(Path.of(args[1]), Path.of(args[2]));
+            double seconds = (System.nanoTime() - start) / 1e9;
+            System.out.printf("Answered %d queries in %.2f s (%.0f queries/s)%n", queries, seconds, queries / seconds);
+            return;
+        }
+
+        Metrics.register();
+        FoodIndex foodIndex = new FoodIndex();
+        foodIndex.attachAll(foodData.values());
+        HotelIndex hotelIndex = new HotelIndex();
+        hotelIndex.attachAll(hotelData.values());
+        ChangeLog changeLog = null;
+        if (serve && snapshot != null) {
+            // Replayed after the indexes are attached, so logged catalog edits are indexed as they apply.
+            long started = System.nanoTime();
+            changeLog = ChangeLog.open(Path.of(snapshotPath), snapshot.logGeneration, graph, foodData, hotelData,
+                    foodIndex, hotelIndex, ChangeLog.DEFAULT_COMPACT_BYTES);
+            System.out.printf("Replayed %d logged edits in %.2f s%n", changeLog.replayedRecords(),
+                    (System.nanoTime() - started) / 1e9);
+            ChangeLog closing = changeLog;
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                try {
+                    closing.close();
+                } catch (IOException e) {
+                    System.err.println("Could not close the change log: " + e);
+                }
+            }));
+        }
+        List<String> places = new ArrayList<>();
+        for (DestinationFood food : foodData.values()) {
+            places.add(food.destination);
+        }
+        for (DestinationHotel destination : hotelData.values()) {
+            places.add(destination.destination);
+        }
+        CityDictionary cities = CityDictionary.build(graph.compact(), places, CityDictionary.DEFAULT_ALIASES);
 
-        Map<String, DestinationFood> foodData = new HashMap<>();
-        Map<String, DestinationHotel> hotelData = new HashMap<>();
-        setupFoodAndHotelData(foodData, hotelData);
+        if (serve) {
+            TravelServer server = new TravelServer(graph, foodData, hotelData, foodIndex, hotelIndex, cities, changeLog);
+            server.start(Integer.parseInt(args[1]), 4 * Runtime.getRuntime().availableProcessors());
+            System.out.println("Serving on port " + server.port());
+            return;
+        }
 
         JFrame frame = new JFrame("Smart Trip Planner");
         frame.setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
@@ -203,13 +7185,13 @@ public class IntegratedProject {
 
         JTabbedPane tabbedPane = new JTabbedPane();
 
-        JPanel routeFinderPanel = createRouteFinderPanel(graph);
+        JPanel routeFinderPanel = createRouteFinderPanel(graph, cities);
         tabbedPane.addTab("Route Finder", routeFinderPanel);
 
-        JPanel budgetPlannerPanel = createBudgetPlannerPanel();
+        JPanel budgetPlannerPanel = createBudgetPlannerPanel(new ItineraryPlanner(graph, hotelIndex, foodData), cities);
         tabbedPane.addTab("Budget Planner", budgetPlannerPanel);
 
-        JPanel foodAndHotelExplorerPanel = createFoodAndHotelExplorerPanel(foodData, hotelData);
+        JPanel foodAndHotelExplorerPanel = createFoodAndHotelExplorerPanel(foodData, hotelData, foodIndex, hotelIndex, cities);
         tabbedPane.addTab("Food & Hotels", foodAndHotelExplorerPanel);
 
         frame.add(tabbedPane);
@@ -217,6 +7199,17 @@ public class IntegratedProject {
     }
 
     private static void setupSampleData(Graph graph) {
+        // State capitals, for the road search estimates.
+        graph.setLocation("Delhi", 28.61, 77.21);
+        graph.setLocation("UP", 26.85, 80.95);
+        graph.setLocation("Haryana", 30.73, 76.78);
+        graph.setLocation("Bihar", 25.59, 85.14);
+        graph.setLocation("Rajasthan", 26.91, 75.79);
+        graph.setLocation("Jharkhand", 23.34, 85.31);
+        graph.setLocation("MP", 23.26, 77.41);
+        graph.setLocation("Maharashtra", 19.08, 72.88);
+        graph.setLocation("Gujarat", 23.22, 72.64);
+        graph.setLocation("West Bengal", 22.57, 88.36);
         graph.addRoadEdge("Delhi", "UP", 50);
 		graph.addRoadEdge("Delhi", "Haryana", 100);
         graph.addRoadEdge("UP", "Bihar", 50);
@@ -265,7 +7258,40 @@ public class IntegratedProject {
 		graph.addPlaneEdge("MP", "Rajasthan");
         graph.addPlaneEdge("Bihar", "West Bengal");
         graph.addPlaneEdge("Bihar", "Jharkhand");
- 
+
+        // One day of departures on some of those links, for the timetable queries.
+        addSampleTrip(graph, "Train", "12310 Rajdhani", new String[]{"Delhi", "UP", "Bihar", "West Bengal"},
+                "06:15", "11:05", "11:15", "17:40", "17:50", "23:55");
+        addSampleTrip(graph, "Train", "12309 Rajdhani", new String[]{"West Bengal", "Bihar", "UP", "Delhi"},
+                "05:30", "11:20", "11:30", "17:55", "18:05", "22:50");
+        addSampleTrip(graph, "Train", "12955 Express", new String[]{"Rajasthan", "MP", "Maharashtra"},
+                "07:00", "14:25", "14:35", "23:50");
+        addSampleTrip(graph, "Train", "12956 Express", new String[]{"Maharashtra", "MP", "Rajasthan"},
+                "06:20", "15:30", "15:40", "23:05");
+        addSampleTrip(graph, "Train", "14311 Link", new String[]{"UP", "Rajasthan"}, "12:10", "20:45");
+        addSampleTrip(graph, "Train", "18626 Intercity", new String[]{"Bihar", "Jharkhand"}, "18:05", "22:40");
+        addSampleTrip(graph, "Plane", "AI 805", new String[]{"Delhi", "Maharashtra"}, "08:00", "10:10");
+        addSampleTrip(graph, "Plane", "AI 806", new String[]{"Maharashtra", "Delhi"}, "11:30", "13:40");
+        addSampleTrip(graph, "Plane", "6E 2134", new String[]{"Delhi", "West Bengal"}, "06:10", "08:25");
+        addSampleTrip(graph, "Plane", "6E 2135", new String[]{"West Bengal", "Delhi"}, "19:20", "21:45");
+        addSampleTrip(graph, "Plane", "AI 440", new String[]{"Delhi", "MP"}, "19:00", "20:30");
+        addSampleTrip(graph, "Plane", "6E 711", new String[]{"UP", "Bihar"}, "09:45", "10:55");
+        for (int hour = 6; hour <= 20; hour += 2) {
+            String departure = String.format("%02d:00", hour);
+            String arrival = String.format("%02d:30", hour + 3);
+            addSampleTrip(graph, "Bus", "HR " + hour, new String[]{"Delhi", "Haryana"}, departure, arrival);
+            addSampleTrip(graph, "Bus", "DL " + hour, new String[]{"Haryana", "Delhi"}, departure, arrival);
+        }
+        graph.setTransferTime("Delhi", 45);
+        graph.setTransferTime("West Bengal", 30);
+    }
+
+    // Stops in running order; times holds the departure from each stop followed by the arrival at the next.
+    private static void addSampleTrip(Graph graph, String mode, String trip, String[] cities, String... times) {
+        for (int i = 0; i + 1 < cities.length; i++) {
+            graph.addConnection(mode, trip, cities[i], cities[i + 1],
+                    Timetable.parseTime(times[2 * i]), Timetable.parseTime(times[2 * i + 1]));
+        }
     }
 
     private static void setupFoodAndHotelData(Map<String, DestinationFood> foodData, Map<String, DestinationHotel> hotelData) {
@@ -414,31 +7440,115 @@ gujaratFood.addRestaurant("Khaman", Arrays.asList(
 	
 	
 
-    private static JPanel createRouteFinderPanel(Graph graph) {
+    private static JPanel createRouteFinderPanel(Graph graph, CityDictionary cities) {
         JPanel panel = new JPanel(new BorderLayout());
-        JPanel inputPanel = new JPanel(new GridLayout(4, 2, 10, 10));
+        JPanel inputPanel = new JPanel(new GridLayout(6, 2, 10, 10));
 		
 		
 		
         JTextField sourceField = new JTextField();
         JTextField destinationField = new JTextField();
-        JComboBox<String> transportModeBox = new JComboBox<>(new String[]{"Road", "Train", "Plane", "Bus"});
+        CityAutocomplete.attach(sourceField, cities);
+        CityAutocomplete.attach(destinationField, cities);
+        JComboBox<String> transportModeBox = new JComboBox<>(new String[]{"Road", "Train", "Plane", "Bus", Graph.MULTIMODAL});
+        JTextField departureField = new JTextField();
+        JCheckBox allRoutesBox = new JCheckBox("All routes (up to " + Graph.DEFAULT_ALL_ROUTES_DEPTH + " hops)");
         JButton findRoutesButton = new JButton("Find Routes");
+        JButton cancelButton = new JButton("Cancel");
+        cancelButton.setEnabled(false);
         JTextArea resultArea = new JTextArea();
         resultArea.setEditable(false);
+        List<SwingWorker<Integer, String>> runningSearch = new ArrayList<>();
 
         findRoutesButton.addActionListener(e -> {
-            String source = sourceField.getText().trim();
-            String destination = destinationField.getText().trim();
+            String source = cities.resolve(sourceField.getText());
+            String destination = cities.resolve(destinationField.getText());
             String mode = (String) transportModeBox.getSelectedItem();
+            boolean allRoutes = allRoutesBox.isSelected() && !mode.equals(Graph.MULTIMODAL);
 
             if (source.isEmpty() || destination.isEmpty()) {
                 resultArea.setText("Source and destination must not be empty.");
                 return;
             }
+            // With a departure time the scheduled modes are answered from the timetable instead.
+            int departure;
+            try {
+                departure = departureField.getText().isBlank() ? -1 : Timetable.parseTime(departureField.getText());
+            } catch (IllegalArgumentException ex) {
+                resultArea.setText("Departure time must look like HH:MM.");
+                return;
+            }
+            if (departure >= 0 && Timetable.modeMask(mode) == 0) {
+                resultArea.setText(mode + " has no timetable; clear the departure time to search its routes.");
+                return;
+            }
+
+            resultArea.setText("");
+            findRoutesButton.setEnabled(false);
+            cancelButton.setEnabled(true);
+
+            SwingWorker<Integer, String> search = new SwingWorker<>() {
+                @Override
+                protected Integer doInBackground() {
+                    if (departure >= 0) {
+                        List<TimetableJourney> journeys = graph.departureProfile(source, destination, mode, departure,
+                                Math.max(departure, Timetable.MINUTES_PER_DAY - 1));
+                        for (TimetableJourney journey : journeys) {
+                            publish(journey.format());
+                        }
+                        return journeys.size();
+                    }
+                    if (allRoutes) {
+                        List<RouteResult> routes = graph.findAllRoutes(source, destination, mode, Graph.DEFAULT_ALL_ROUTES_DEPTH,
+                                Graph.DEFAULT_ALL_ROUTES_RESULTS, Graph.DEFAULT_TIMEOUT_MILLIS);
+                        for (RouteResult route : routes) {
+                            publish(route.format(mode.equals("Road")));
+                        }
+                        return routes.size();
+                    }
+                    return graph.streamRoutes(source, destination, mode, Graph.DEFAULT_MAX_ROUTES,
+                            Graph.DEFAULT_TIMEOUT_MILLIS, route -> {
+                                if (isCancelled()) {
+                                    return false;
+                                }
+                                publish(route);
+                                return true;
+                            });
+                }
+
+                @Override
+                protected void process(List<String> routes) {
+                    for (String route : routes) {
+                        resultArea.append(route + "\n");
+                    }
+                }
+
+                @Override
+                protected void done() {
+                    runningSearch.remove(this);
+                    findRoutesButton.setEnabled(true);
+                    cancelButton.setEnabled(false);
+                    if (isCancelled()) {
+                        resultArea.append("Search cancelled.\n");
+                        return;
+                    }
+                    try {
+                        if (get() == 0) {
+                            resultArea.setText("No routes found between " + source + " and " + destination);
+                        }
+                    } catch (Exception ex) {
+                        resultArea.append("Route search failed: " + ex.getMessage() + "\n");
+                    }
+                }
+            };
+            runningSearch.add(search);
+            search.execute();
+        });
 
-            List<String> routes = graph.findRoutes(source, destination, mode);
-            resultArea.setText(String.join("\n", routes));
+        cancelButton.addActionListener(e -> {
+            for (SwingWorker<Integer, String> search : runningSearch) {
+                search.cancel(true);
+            }
         });
 
         inputPanel.add(new JLabel("Source:"));
@@ -447,8 +7557,12 @@ gujaratFood.addRestaurant("Khaman", Arrays.asList(
         inputPanel.add(destinationField);
         inputPanel.add(new JLabel("Transport Mode:"));
         inputPanel.add(transportModeBox);
-        inputPanel.add(new JLabel());
+        inputPanel.add(new JLabel("Departing after (HH:MM, optional):"));
+        inputPanel.add(departureField);
+        inputPanel.add(allRoutesBox);
         inputPanel.add(findRoutesButton);
+        inputPanel.add(new JLabel());
+        inputPanel.add(cancelButton);
 
         panel.add(inputPanel, BorderLayout.NORTH);
         panel.add(new JScrollPane(resultArea), BorderLayout.CENTER);
@@ -456,81 +7570,113 @@ gujaratFood.addRestaurant("Khaman", Arrays.asList(
         return panel;
     }
 
-    private static JPanel createBudgetPlannerPanel() {
-   		
-		JPanel panel = new JPanel(new BorderLayout());
-        JPanel inputPanel = new JPanel(new GridLayout(4, 2, 10, 10));
-		
-		
-        JComboBox<String> destinationType = new JComboBox<>(new String[]{"India", "Foreign"});
+    private static JPanel createBudgetPlannerPanel(ItineraryPlanner planner, CityDictionary cities) {
+        JPanel panel = new JPanel(new BorderLayout());
+        JPanel inputPanel = new JPanel(new GridLayout(5, 2, 10, 10));
+
+        JTextField startField = new JTextField();
+        CityAutocomplete.attach(startField, cities);
+        JTextField daysField = new JTextField("3");
         JTextField budgetField = new JTextField();
-        JButton calculateButton = new JButton("Plan & Suggest");
+        JComboBox<String> transportModeBox = new JComboBox<>(CompactGraph.MODES);
+        JButton calculateButton = new JButton("Plan Itinerary");
+        JButton suggestButton = new JButton("Suggest Destinations");
         JTextArea outputArea = new JTextArea();
         outputArea.setEditable(false);
 
-        calculateButton.addActionListener(e -> {
+        suggestButton.addActionListener(e -> {
+            String start = cities.resolve(startField.getText());
+            long budget;
             try {
-                String type = (String) destinationType.getSelectedItem();
-                double budget = Double.parseDouble(budgetField.getText());
+                budget = Long.parseLong(budgetField.getText().trim());
+            } catch (NumberFormatException ex) {
+                outputArea.setText("Invalid budget. Please enter a numeric value.");
+                return;
+            }
+            ItineraryOptions options = new ItineraryOptions();
+            options.mode = (String) transportModeBox.getSelectedItem();
+            long unit = options.costPerUnit[CompactGraph.modeIndex(options.mode)];
 
-                double food = budget * 0.30;
-                double travel = budget * 0.40;
-                double shopping = budget * 0.20;
-                double misc = budget * 0.10;
+            List<ReachableCity> suggestions = planner.suggestDestinations(start, budget, options);
+            if (suggestions.isEmpty()) {
+                outputArea.setText("No destination with hotels is within a round trip of Rs. " + budget + " from " + start + ".");
+                return;
+            }
+            StringBuilder result = new StringBuilder("Destinations within budget from " + start + ":\n");
+            for (ReachableCity suggestion : suggestions) {
+                result.append(suggestion.city).append(": ").append(suggestion.cost)
+                        .append(options.mode.equals("Road") ? " km" : " legs")
+                        .append(", round trip Rs. ").append(2 * unit * suggestion.cost).append("\n");
+            }
+            outputArea.setText(result.toString());
+        });
 
-                StringBuilder breakdown = new StringBuilder();
-                breakdown.append(String.format("Budget Breakdown (Total: Rs. %.2f):\n", budget));
-                breakdown.append(String.format("  Food: Rs. %.2f\n", food));
-                breakdown.append(String.format("  Travel: Rs. %.2f\n", travel));
-                breakdown.append(String.format("  Shopping: Rs. %.2f\n", shopping));
-                breakdown.append(String.format("  Miscellaneous: Rs. %.2f\n\n", misc));
+        calculateButton.addActionListener(e -> {
+            String start = cities.resolve(startField.getText());
+            int days;
+            long budget;
+            try {
+                days = Integer.parseInt(daysField.getText().trim());
+                budget = Long.parseLong(budgetField.getText().trim());
+            } catch (NumberFormatException ex) {
+                outputArea.setText("Invalid budget or number of days. Please enter numeric values.");
+                return;
+            }
+            ItineraryOptions options = new ItineraryOptions();
+            options.mode = (String) transportModeBox.getSelectedItem();
 
-                String suggestions = "";
+            calculateButton.setEnabled(false);
+            outputArea.setText("Planning...");
+            new SwingWorker<List<ItineraryPlan>, Void>() {
+                @Override
+                protected List<ItineraryPlan> doInBackground() {
+                    return planner.plan(start, days, budget, options);
+                }
 
-                if (type.equals("India")) {
-                    if (budget < 10000) {
-                        suggestions = "Budget-friendly Indian trips:\n- Rishikesh\n- Jaipur\n- Varanasi";
-                    } else if (budget < 50000) {
-                        suggestions = "Mid-range Indian trips:\n- Goa\n- Kerala\n- Himachal Pradesh";
-                    } else {
-                        suggestions = "Luxury Indian trips:\n- Andaman\n- Ladakh\n- Kashmir";
-                    }
-                } else {
-                    if (budget < 50000) {
-                        suggestions = "Budget-friendly foreign trips:\n- Nepal\n- Sri Lanka\n- Bhutan";
-                    } else if (budget < 200000) {
-                        suggestions = "Mid-range foreign trips:\n- Southeast Asia\n- Middle East\n- Eastern Europe";
-                    } else {
-                        suggestions = "Luxury foreign trips:\n- Western Europe\n- Australia\n- USA";
+                @Override
+                protected void done() {
+                    calculateButton.setEnabled(true);
+                    try {
+                        List<ItineraryPlan> plans = get();
+                        if (plans.isEmpty()) {
+                            outputArea.setText("No itinerary from " + start + " fits a budget of Rs. " + budget + ".");
+                            return;
+                        }
+                        StringBuilder result = new StringBuilder();
+                        for (int i = 0; i < plans.size(); i++) {
+                            result.append("Plan ").append(i + 1).append(":\n").append(plans.get(i).format()).append("\n");
+                        }
+                        outputArea.setText(result.toString());
+                    } catch (Exception ex) {
+                        outputArea.setText("Planning failed: " + ex.getMessage());
                     }
                 }
-
-                outputArea.setText(breakdown + suggestions);
-            } catch (NumberFormatException ex) {
-                outputArea.setText("Invalid budget amount. Please enter a numeric value.");
-            }
+            }.execute();
         });
 
+        inputPanel.add(new JLabel("Start City:"));
+        inputPanel.add(startField);
+        inputPanel.add(new JLabel("Days:"));
+        inputPanel.add(daysField);
+        inputPanel.add(new JLabel("Budget (Rs.):"));
+        inputPanel.add(budgetField);
+        inputPanel.add(new JLabel("Transport Mode:"));
+        inputPanel.add(transportModeBox);
+        inputPanel.add(suggestButton);
+        inputPanel.add(calculateButton);
 
-		inputPanel.add(new JLabel("Destination Type:"));
-		inputPanel.add(destinationType);
-		inputPanel.add(new JLabel("Budget (?):"));
-		inputPanel.add(budgetField);
-		inputPanel.add(new JLabel());
-		inputPanel.add(calculateButton);
-		inputPanel.add(new JScrollPane(outputArea));
-
-
-		panel.add(inputPanel, BorderLayout.NORTH);
-		panel.add(new JScrollPane(outputArea), BorderLayout.CENTER);
+        panel.add(inputPanel, BorderLayout.NORTH);
+        panel.add(new JScrollPane(outputArea), BorderLayout.CENTER);
 
         return panel;
     }
 
-    private static JPanel createFoodAndHotelExplorerPanel(Map<String, DestinationFood> foodData, Map<String, DestinationHotel> hotelData) {
+    private static JPanel createFoodAndHotelExplorerPanel(Map<String, DestinationFood> foodData, Map<String, DestinationHotel> hotelData,
+                                                          FoodIndex foodIndex, HotelIndex hotelIndex, CityDictionary cities) {
         JPanel panel = new JPanel(new BorderLayout());
 
         JTextField destinationInput = new JTextField(20);
+        CityAutocomplete.attach(destinationInput, cities);
         JTextArea foodArea = new JTextArea(10, 30);
         JTextArea hotelArea = new JTextArea(10, 30);
         foodArea.setEditable(false);
@@ -538,9 +7684,15 @@ gujaratFood.addRestaurant("Khaman", Arrays.asList(
 
         JButton foodButton = new JButton("Show Food Details");
         JButton hotelButton = new JButton("Show Hotel Details");
+        JTextField dishInput = new JTextField(15);
+        JTextField maxPriceInput = new JTextField(6);
+        JButton dishButton = new JButton("Find Dish");
+        JTextField roomInput = new JTextField(10);
+        JTextField maxRoomPriceInput = new JTextField(6);
+        JButton roomButton = new JButton("Find Rooms");
 
         foodButton.addActionListener(e -> {
-            String destination = destinationInput.getText().trim().toLowerCase();
+            String destination = cities.resolve(destinationInput.getText()).toLowerCase();
             if (foodData.containsKey(destination)) {
                 foodArea.setText(foodData.get(destination).getFoodDetails());
             } else {
@@ -549,7 +7701,7 @@ gujaratFood.addRestaurant("Khaman", Arrays.asList(
         });
 
         hotelButton.addActionListener(e -> {
-            String destination = destinationInput.getText().trim().toLowerCase();
+            String destination = cities.resolve(destinationInput.getText()).toLowerCase();
             if (hotelData.containsKey(destination)) {
                 hotelArea.setText(hotelData.get(destination).getHotelDetails());
             } else {
@@ -557,13 +7709,75 @@ gujaratFood.addRestaurant("Khaman", Arrays.asList(
             }
         });
 
+        dishButton.addActionListener(e -> {
+            String dish = dishInput.getText().trim();
+            String maxPrice = maxPriceInput.getText().trim();
+            try {
+                int max = maxPrice.isEmpty() ? Integer.MAX_VALUE : Integer.parseInt(maxPrice);
+                List<FoodHit> hits = foodIndex.search(dish, 0, max, 100);
+                StringBuilder results = new StringBuilder();
+                for (FoodHit hit : hits) {
+                    results.append(hit.format()).append("\n");
+                }
+                foodArea.setText(hits.isEmpty() ? "No matching dishes found." : results.toString());
+            } catch (NumberFormatException ex) {
+                foodArea.setText("Invalid price. Please enter a numeric value.");
+            }
+        });
+
+        roomButton.addActionListener(e -> {
+            String category = roomInput.getText().trim();
+            String destination = destinationInput.getText().isBlank() ? "" : cities.resolve(destinationInput.getText());
+            String maxPrice = maxRoomPriceInput.getText().trim();
+            try {
+                int max = maxPrice.isEmpty() ? Integer.MAX_VALUE : Integer.parseInt(maxPrice);
+                List<RoomHit> hits;
+                if (destination.isEmpty()) {
+                    hits = hotelIndex.inRange(category.isEmpty() ? null : category, 0, max, 100);
+                } else {
+                    hits = new ArrayList<>();
+                    for (RoomHit hit : hotelIndex.cheapestIn(destination, category.isEmpty() ? null : category, 100)) {
+                        if (hit.price <= max) {
+                            hits.add(hit);
+                        }
+                    }
+                }
+                StringBuilder results = new StringBuilder();
+                for (RoomHit hit : hits) {
+                    results.append(hit.format()).append("\n");
+                }
+                hotelArea.setText(hits.isEmpty() ? "No matching rooms found." : results.toString());
+            } catch (NumberFormatException ex) {
+                hotelArea.setText("Invalid price. Please enter a numeric value.");
+            }
+        });
+
         JPanel inputPanel = new JPanel();
         inputPanel.add(new JLabel("Enter Destination:"));
         inputPanel.add(destinationInput);
         inputPanel.add(foodButton);
         inputPanel.add(hotelButton);
 
-        panel.add(inputPanel, BorderLayout.NORTH);
+        JPanel dishPanel = new JPanel();
+        dishPanel.add(new JLabel("Dish:"));
+        dishPanel.add(dishInput);
+        dishPanel.add(new JLabel("Max Price (Rs.):"));
+        dishPanel.add(maxPriceInput);
+        dishPanel.add(dishButton);
+
+        JPanel roomPanel = new JPanel();
+        roomPanel.add(new JLabel("Room Category:"));
+        roomPanel.add(roomInput);
+        roomPanel.add(new JLabel("Max Price/day (Rs.):"));
+        roomPanel.add(maxRoomPriceInput);
+        roomPanel.add(roomButton);
+
+        JPanel searchPanel = new JPanel(new GridLayout(3, 1));
+        searchPanel.add(inputPanel);
+        searchPanel.add(dishPanel);
+        searchPanel.add(roomPanel);
+
+        panel.add(searchPanel, BorderLayout.NORTH);
 
         JSplitPane splitPane = new JSplitPane(JSplitPane.HORIZONTAL_SPLIT, new JScrollPane(foodArea), new JScrollPane(hotelArea));
         splitPane.setDividerLocation(400);
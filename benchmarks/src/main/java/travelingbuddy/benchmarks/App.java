@@ -0,0 +1,285 @@
+package travelingbuddy.benchmarks;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Method;
+import java.util.List;
+import java.util.Map;
+
+// IntegratedProject lives in the unnamed package, which cannot be imported from a named package,
+// and JMH refuses benchmark classes without one. The entry points are therefore bound here once as
+// constant method handles, so measured calls are plain invokeExact calls rather than reflection.
+final class App {
+    private static final MethodHandle NEW_GENERATOR;
+    private static final MethodHandle GENERATE_GRAPH;
+    private static final MethodHandle GENERATE_FOOD;
+    private static final MethodHandle GENERATE_HOTELS;
+    private static final MethodHandle NEW_GRAPH;
+    private static final MethodHandle ROUTE_CACHE;
+    private static final MethodHandle SET_CACHE_LIMITS;
+    private static final MethodHandle FIND_ROUTES;
+    private static final MethodHandle SHORTEST_DISTANCE;
+    private static final MethodHandle COMPACT;
+    private static final MethodHandle MODE_INDEX;
+    private static final MethodHandle CITY_ID;
+    private static final MethodHandle DIJKSTRA_DISTANCE;
+    private static final MethodHandle BUILD_GEO_SEARCH;
+    private static final MethodHandle A_STAR_DISTANCE;
+    private static final MethodHandle BIDIRECTIONAL_A_STAR_DISTANCE;
+    private static final MethodHandle GENERATE_TIMETABLE;
+    private static final MethodHandle TIMETABLE_CITY_ID;
+    private static final MethodHandle MODE_MASK;
+    private static final MethodHandle EARLIEST_ARRIVAL;
+    private static final MethodHandle PROFILE;
+    private static final MethodHandle FOOD_DETAILS;
+    private static final MethodHandle HOTEL_DETAILS;
+
+    static {
+        try {
+            Class<?> generator = nested("TravelDataGenerator");
+            Class<?> compactGraph = nested("CompactGraph");
+            Class<?> graph = nested("Graph");
+            Class<?> geoSearch = nested("GeoSearch");
+            Class<?> timetable = nested("Timetable");
+            NEW_GENERATOR = constructor(generator, long.class);
+            GENERATE_GRAPH = method(generator, "generateGraph", int.class, double.class);
+            GENERATE_FOOD = method(generator, "generateFood", int.class, int.class, int.class);
+            GENERATE_HOTELS = method(generator, "generateHotels", int.class, int.class);
+            NEW_GRAPH = constructor(graph, compactGraph);
+            ROUTE_CACHE = method(graph, "routeCache");
+            SET_CACHE_LIMITS = method(nested("RouteCache"), "setLimits", int.class, long.class);
+            FIND_ROUTES = method(graph, "findRoutes", String.class, String.class, String.class, int.class, long.class);
+            SHORTEST_DISTANCE = method(graph, "shortestDistance", String.class, String.class, String.class);
+            COMPACT = method(graph, "compact");
+            MODE_INDEX = method(compactGraph, "modeIndex", String.class);
+            CITY_ID = method(compactGraph, "cityId", String.class);
+            DIJKSTRA_DISTANCE = method(compactGraph, "shortestDistance", int.class, int.class, int.class, long[].class);
+            BUILD_GEO_SEARCH = method(geoSearch, "build", compactGraph, int.class);
+            A_STAR_DISTANCE = method(geoSearch, "distance", int.class, int.class, long[].class);
+            BIDIRECTIONAL_A_STAR_DISTANCE = method(geoSearch, "bidirectionalDistance", int.class, int.class, long[].class);
+            GENERATE_TIMETABLE = method(generator, "generateTimetable", int.class, int.class);
+            TIMETABLE_CITY_ID = method(timetable, "cityId", String.class);
+            MODE_MASK = method(timetable, "modeMask", String.class);
+            EARLIEST_ARRIVAL = method(timetable, "earliestArrival", int.class, int.class, int.class, int.class);
+            PROFILE = method(timetable, "profile", int.class, int.class, int.class, int.class, int.class);
+            FOOD_DETAILS = method(nested("DestinationFood"), "getFoodDetails");
+            HOTEL_DETAILS = method(nested("DestinationHotel"), "getHotelDetails");
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private App() {
+    }
+
+    static String cityName(int city) {
+        return "City" + city;
+    }
+
+    static Object generateGraph(int cities, double density, long seed) {
+        try {
+            Object generator = NEW_GENERATOR.invokeExact(seed);
+            Object compact = GENERATE_GRAPH.invokeExact(generator, cities, density);
+            return NEW_GRAPH.invokeExact(compact);
+        } catch (Throwable e) {
+            throw rethrow(e);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    static Map<String, Object> generateFood(int destinations, int restaurants, int items, long seed) {
+        try {
+            Object generator = NEW_GENERATOR.invokeExact(seed);
+            return (Map<String, Object>) (Object) GENERATE_FOOD.invokeExact(generator, destinations, restaurants, items);
+        } catch (Throwable e) {
+            throw rethrow(e);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    static Map<String, Object> generateHotels(int destinations, int hotels, long seed) {
+        try {
+            Object generator = NEW_GENERATOR.invokeExact(seed);
+            return (Map<String, Object>) (Object) GENERATE_HOTELS.invokeExact(generator, destinations, hotels);
+        } catch (Throwable e) {
+            throw rethrow(e);
+        }
+    }
+
+    static void setRouteCacheLimits(Object graph, int maxEntries, long maxWeight) {
+        try {
+            Object cache = ROUTE_CACHE.invokeExact(graph);
+            Object ignored = SET_CACHE_LIMITS.invokeExact(cache, maxEntries, maxWeight);
+        } catch (Throwable e) {
+            throw rethrow(e);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    static List<String> findRoutes(Object graph, String start, String end, String mode, int maxRoutes, long timeoutMillis) {
+        try {
+            return (List<String>) (Object) FIND_ROUTES.invokeExact(graph, start, end, mode, maxRoutes, timeoutMillis);
+        } catch (Throwable e) {
+            throw rethrow(e);
+        }
+    }
+
+    static int shortestDistance(Object graph, String start, String end, String mode) {
+        try {
+            return (int) SHORTEST_DISTANCE.invokeExact(graph, start, end, mode);
+        } catch (Throwable e) {
+            throw rethrow(e);
+        }
+    }
+
+    static Object compact(Object graph) {
+        try {
+            return COMPACT.invokeExact(graph);
+        } catch (Throwable e) {
+            throw rethrow(e);
+        }
+    }
+
+    static int cityId(Object compactGraph, String city) {
+        try {
+            return (int) CITY_ID.invokeExact(compactGraph, city);
+        } catch (Throwable e) {
+            throw rethrow(e);
+        }
+    }
+
+    static Object geoSearch(Object compactGraph, String mode) {
+        try {
+            int index = (int) MODE_INDEX.invokeExact(mode);
+            return BUILD_GEO_SEARCH.invokeExact(compactGraph, index);
+        } catch (Throwable e) {
+            throw rethrow(e);
+        }
+    }
+
+    // The search methods below leave the number of settled cities in stats[0].
+    static int dijkstraDistance(Object compactGraph, String mode, int source, int target, long[] stats) {
+        try {
+            int index = (int) MODE_INDEX.invokeExact(mode);
+            return (int) DIJKSTRA_DISTANCE.invokeExact(compactGraph, index, source, target, (Object) stats);
+        } catch (Throwable e) {
+            throw rethrow(e);
+        }
+    }
+
+    static int aStarDistance(Object geoSearch, int source, int target, long[] stats) {
+        try {
+            return (int) A_STAR_DISTANCE.invokeExact(geoSearch, source, target, (Object) stats);
+        } catch (Throwable e) {
+            throw rethrow(e);
+        }
+    }
+
+    static int bidirectionalAStarDistance(Object geoSearch, int source, int target, long[] stats) {
+        try {
+            return (int) BIDIRECTIONAL_A_STAR_DISTANCE.invokeExact(geoSearch, source, target, (Object) stats);
+        } catch (Throwable e) {
+            throw rethrow(e);
+        }
+    }
+
+    static Object generateTimetable(int cities, int departuresPerLine, long seed) {
+        try {
+            Object generator = NEW_GENERATOR.invokeExact(seed);
+            return GENERATE_TIMETABLE.invokeExact(generator, cities, departuresPerLine);
+        } catch (Throwable e) {
+            throw rethrow(e);
+        }
+    }
+
+    static int timetableCityId(Object timetable, String city) {
+        try {
+            return (int) TIMETABLE_CITY_ID.invokeExact(timetable, city);
+        } catch (Throwable e) {
+            throw rethrow(e);
+        }
+    }
+
+    // Times are minutes after midnight; the journey objects come back opaque.
+    static Object earliestArrival(Object timetable, String mode, int source, int target, int departure) {
+        try {
+            int mask = (int) MODE_MASK.invokeExact(mode);
+            return EARLIEST_ARRIVAL.invokeExact(timetable, source, target, departure, mask);
+        } catch (Throwable e) {
+            throw rethrow(e);
+        }
+    }
+
+    static List<?> profile(Object timetable, String mode, int source, int target, int from, int until) {
+        try {
+            int mask = (int) MODE_MASK.invokeExact(mode);
+            return (List<?>) (Object) PROFILE.invokeExact(timetable, source, target, from, until, mask);
+        } catch (Throwable e) {
+            throw rethrow(e);
+        }
+    }
+
+    static String foodDetails(Object destinationFood) {
+        try {
+            return (String) FOOD_DETAILS.invokeExact(destinationFood);
+        } catch (Throwable e) {
+            throw rethrow(e);
+        }
+    }
+
+    static String hotelDetails(Object destinationHotel) {
+        try {
+            return (String) HOTEL_DETAILS.invokeExact(destinationHotel);
+        } catch (Throwable e) {
+            throw rethrow(e);
+        }
+    }
+
+    private static Class<?> nested(String name) throws ClassNotFoundException {
+        return Class.forName("IntegratedProject$" + name);
+    }
+
+    // Erases every parameter and the return type to Object (primitives stay primitive, void
+    // becomes Object) so callers can use invokeExact without naming unnamed-package types.
+    private static MethodHandle method(Class<?> owner, String name, Class<?>... parameters)
+            throws ReflectiveOperationException {
+        Method method = owner.getDeclaredMethod(name, parameters);
+        method.setAccessible(true);
+        return erase(MethodHandles.lookup().unreflect(method));
+    }
+
+    private static MethodHandle constructor(Class<?> owner, Class<?>... parameters) throws ReflectiveOperationException {
+        Constructor<?> constructor = owner.getDeclaredConstructor(parameters);
+        constructor.setAccessible(true);
+        return erase(MethodHandles.lookup().unreflectConstructor(constructor));
+    }
+
+    private static MethodHandle erase(MethodHandle handle) {
+        MethodType type = handle.type();
+        for (int i = 0; i < type.parameterCount(); i++) {
+            if (!type.parameterType(i).isPrimitive()) {
+                type = type.changeParameterType(i, type.parameterType(i) == String.class ? String.class : Object.class);
+            }
+        }
+        Class<?> returnType = type.returnType();
+        if (returnType == void.class) {
+            handle = MethodHandles.filterReturnValue(handle, MethodHandles.constant(Object.class, null));
+            type = type.changeReturnType(Object.class);
+        } else if (!returnType.isPrimitive() && returnType != String.class) {
+            type = type.changeReturnType(Object.class);
+        }
+        return handle.asType(type);
+    }
+
+    private static RuntimeException rethrow(Throwable e) {
+        if (e instanceof RuntimeException) {
+            return (RuntimeException) e;
+        }
+        if (e instanceof Error) {
+            throw (Error) e;
+        }
+        return new IllegalStateException(e);
+    }
+}
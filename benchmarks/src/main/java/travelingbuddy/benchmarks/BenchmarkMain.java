@@ -0,0 +1,39 @@
+package travelingbuddy.benchmarks;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.IOException;
+
+// With arguments this is the regular JMH command line. Without arguments it runs the standard
+// suite: every benchmark once with the GC profiler for allocation rates, then route throughput at
+// increasing thread counts.
+public class BenchmarkMain {
+    private static final int[] THREAD_COUNTS = {1, 2, 4, 8, 16};
+
+    public static void main(String[] args) throws RunnerException, IOException {
+        if (args.length > 0) {
+            org.openjdk.jmh.Main.main(args);
+            return;
+        }
+
+        new Runner(new OptionsBuilder()
+                .include(RouteBenchmark.class.getSimpleName() + ".*Latency")
+                .include(CatalogBenchmark.class.getSimpleName())
+                .include(RoadSearchBenchmark.class.getSimpleName())
+                .include(TimetableBenchmark.class.getSimpleName())
+                .addProfiler(GCProfiler.class)
+                .build()).run();
+
+        for (int threads : THREAD_COUNTS) {
+            ChainedOptionsBuilder options = new OptionsBuilder()
+                    .include(RouteBenchmark.class.getSimpleName() + ".findRoutesThroughput")
+                    .threads(threads)
+                    .addProfiler(GCProfiler.class);
+            new Runner(options.build()).run();
+        }
+    }
+}
@@ -0,0 +1,78 @@
+package travelingbuddy.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+// Food and hotel detail rendering for random destinations of a generated catalog.
+@Fork(value = 1, jvmArgsAppend = {"-Xms4g", "-Xmx4g"})
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class CatalogBenchmark {
+    private static final int QUERY_COUNT = 1024;
+
+    @State(Scope.Benchmark)
+    public static class Catalog {
+        @Param({"1000", "100000"})
+        int destinations;
+
+        @Param({"5"})
+        int restaurantsPerDestination;
+
+        @Param({"6"})
+        int itemsPerRestaurant;
+
+        @Param({"4"})
+        int hotelsPerDestination;
+
+        Object[] food = new Object[QUERY_COUNT];
+        Object[] hotels = new Object[QUERY_COUNT];
+
+        @Setup(Level.Trial)
+        public void generate() {
+            Map<String, Object> foodData = App.generateFood(destinations, restaurantsPerDestination, itemsPerRestaurant, 42);
+            Map<String, Object> hotelData = App.generateHotels(destinations, hotelsPerDestination, 42);
+            Random random = new Random(7);
+            for (int i = 0; i < QUERY_COUNT; i++) {
+                String key = App.cityName(random.nextInt(destinations)).toLowerCase();
+                food[i] = foodData.get(key);
+                hotels[i] = hotelData.get(key);
+            }
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Cursor {
+        int next;
+
+        int advance() {
+            next = (next + 1) & (QUERY_COUNT - 1);
+            return next;
+        }
+    }
+
+    @Benchmark
+    public String foodDetails(Catalog catalog, Cursor cursor) {
+        return App.foodDetails(catalog.food[cursor.advance()]);
+    }
+
+    @Benchmark
+    public String hotelDetails(Catalog catalog, Cursor cursor) {
+        return App.hotelDetails(catalog.hotels[cursor.advance()]);
+    }
+}
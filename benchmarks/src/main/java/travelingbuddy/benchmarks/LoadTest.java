@@ -0,0 +1,109 @@
+package travelingbuddy.benchmarks;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Closed-loop load generator for the --serve mode: each client thread sends its next request as
+// soon as the previous one completes, cycling through the given paths. After a warmup it reports
+// throughput and latency percentiles.
+//
+//     java -cp target/benchmarks.jar travelingbuddy.benchmarks.LoadTest http://localhost:8080 32 30 [path...]
+public class LoadTest {
+    private static final String[] DEFAULT_PATHS = {
+            "/routes?from=Delhi&to=Bihar&mode=Road",
+            "/routes?from=Delhi&to=Gujarat&mode=Multimodal",
+            "/food?destination=Delhi",
+            "/hotels?destination=Delhi",
+            "/dishes?q=paneer&max=300",
+            "/plan?start=UP&days=2&budget=40000",
+    };
+    private static final int WARMUP_SECONDS = 5;
+
+    public static void main(String[] args) throws InterruptedException {
+        if (args.length < 3) {
+            System.err.println("usage: LoadTest <base-url> <clients> <seconds> [path...]");
+            System.exit(2);
+        }
+        String baseUrl = args[0];
+        int clients = Integer.parseInt(args[1]);
+        int seconds = Integer.parseInt(args[2]);
+        String[] paths = args.length > 3 ? Arrays.copyOfRange(args, 3, args.length) : DEFAULT_PATHS;
+
+        HttpClient client = HttpClient.newBuilder().connectTimeout(Duration.ofSeconds(5)).build();
+        List<HttpRequest> requests = new ArrayList<>();
+        for (String path : paths) {
+            requests.add(HttpRequest.newBuilder(URI.create(baseUrl + path)).timeout(Duration.ofSeconds(30)).build());
+        }
+
+        long warmupEnd = System.nanoTime() + WARMUP_SECONDS * 1_000_000_000L;
+        long end = warmupEnd + seconds * 1_000_000_000L;
+        AtomicLong errors = new AtomicLong();
+        long[][] latencies = new long[clients][];
+        int[] counts = new int[clients];
+        Thread[] threads = new Thread[clients];
+        for (int c = 0; c < clients; c++) {
+            int id = c;
+            threads[c] = new Thread(() -> {
+                long[] samples = new long[1 << 16];
+                int count = 0;
+                for (int i = id; System.nanoTime() < end; i++) {
+                    long start = System.nanoTime();
+                    boolean ok;
+                    try {
+                        HttpResponse<byte[]> response = client.send(requests.get(i % requests.size()),
+                                HttpResponse.BodyHandlers.ofByteArray());
+                        ok = response.statusCode() == 200;
+                    } catch (Exception e) {
+                        ok = false;
+                    }
+                    long finish = System.nanoTime();
+                    if (start >= warmupEnd && !ok) {
+                        errors.incrementAndGet();
+                    } else if (start >= warmupEnd && finish <= end) {
+                        if (count == samples.length) {
+                            samples = Arrays.copyOf(samples, count * 2);
+                        }
+                        samples[count++] = finish - start;
+                    }
+                }
+                latencies[id] = samples;
+                counts[id] = count;
+            });
+            threads[c].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        int total = 0;
+        for (int count : counts) {
+            total += count;
+        }
+        long[] all = new long[total];
+        int position = 0;
+        for (int c = 0; c < clients; c++) {
+            System.arraycopy(latencies[c], 0, all, position, counts[c]);
+            position += counts[c];
+        }
+        Arrays.sort(all);
+
+        System.out.printf("clients: %d, measured: %d s, requests: %d, errors: %d%n", clients, seconds, total, errors.get());
+        System.out.printf("throughput: %.1f req/s%n", total / (double) seconds);
+        if (total > 0) {
+            System.out.printf("latency ms: p50 %.3f, p90 %.3f, p99 %.3f, max %.3f%n",
+                    percentile(all, 0.50), percentile(all, 0.90), percentile(all, 0.99), all[total - 1] / 1e6);
+        }
+    }
+
+    private static double percentile(long[] sorted, double fraction) {
+        int index = (int) Math.ceil(fraction * sorted.length) - 1;
+        return sorted[Math.max(0, index)] / 1e6;
+    }
+}
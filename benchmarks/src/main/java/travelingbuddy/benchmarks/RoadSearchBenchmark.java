@@ -0,0 +1,106 @@
+package travelingbuddy.benchmarks;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+// Point-to-point road distances on a generated network where every city has a location: plain
+// Dijkstra against A* and bidirectional A* on the same query pairs, which are up to `span` lattice
+// cells apart. Next to the latency, JMH reports the expandedNodes and queries counters; their ratio
+// is the number of cities a query settles.
+@Fork(value = 1, jvmArgsAppend = {"-Xms4g", "-Xmx4g"})
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class RoadSearchBenchmark {
+    private static final int QUERY_COUNT = 1024;
+
+    @State(Scope.Benchmark)
+    public static class Network {
+        @Param({"100000", "1000000"})
+        int cities;
+
+        @Param({"10", "100"})
+        int span;
+
+        @Param({"Dijkstra", "AStar", "BidirectionalAStar"})
+        String algorithm;
+
+        Object graph;
+        Object geoSearch;
+        int[] sources = new int[QUERY_COUNT];
+        int[] targets = new int[QUERY_COUNT];
+
+        @Setup(Level.Trial)
+        public void generate() {
+            Object compact = App.compact(App.generateGraph(cities, 1.0, 42));
+            graph = compact;
+            geoSearch = App.geoSearch(compact, "Road");
+
+            int side = (int) Math.ceil(Math.sqrt(cities));
+            int rows = (cities - 1) / side;
+            Random random = new Random(7);
+            for (int i = 0; i < QUERY_COUNT; i++) {
+                int source = random.nextInt(cities);
+                int x = Math.floorMod(source % side + random.nextInt(2 * span + 1) - span, side);
+                int y = Math.min(rows, Math.max(0, source / side + random.nextInt(2 * span + 1) - span));
+                sources[i] = App.cityId(compact, App.cityName(source));
+                targets[i] = App.cityId(compact, App.cityName(Math.min(cities - 1, y * side + x)));
+            }
+        }
+
+        int distance(int query, long[] stats) {
+            switch (algorithm) {
+                case "AStar":
+                    return App.aStarDistance(geoSearch, sources[query], targets[query], stats);
+                case "BidirectionalAStar":
+                    return App.bidirectionalAStarDistance(geoSearch, sources[query], targets[query], stats);
+                default:
+                    return App.dijkstraDistance(graph, "Road", sources[query], targets[query], stats);
+            }
+        }
+    }
+
+    // Totals over all measurement iterations.
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    @State(Scope.Thread)
+    public static class Expansions {
+        final long[] stats = new long[1];
+        public long expandedNodes;
+        public long queries;
+        int next;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            expandedNodes = 0;
+            queries = 0;
+        }
+
+        int advance() {
+            next = (next + 1) & (QUERY_COUNT - 1);
+            return next;
+        }
+    }
+
+    @Benchmark
+    public int distanceLatency(Network network, Expansions expansions) {
+        int distance = network.distance(expansions.advance(), expansions.stats);
+        expansions.expandedNodes += expansions.stats[0];
+        expansions.queries++;
+        return distance;
+    }
+}
@@ -0,0 +1,109 @@
+package travelingbuddy.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+// Route queries against a generated network. Query pairs are at most 10 lattice cells apart, so
+// they stay regional trips regardless of network size. The route cache is off unless routeCache=true.
+@Fork(value = 1, jvmArgsAppend = {"-Xms4g", "-Xmx4g"})
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class RouteBenchmark {
+    private static final int QUERY_COUNT = 1024;
+
+    @State(Scope.Benchmark)
+    public static class Network {
+        @Param({"1000", "100000", "1000000"})
+        int cities;
+
+        @Param({"1.0"})
+        double density;
+
+        @Param({"Road", "Train", "Plane", "Bus"})
+        String mode;
+
+        @Param({"10"})
+        int maxRoutes;
+
+        @Param({"false"})
+        boolean routeCache;
+
+        Object graph;
+        String[] sources = new String[QUERY_COUNT];
+        String[] destinations = new String[QUERY_COUNT];
+
+        @Setup(Level.Trial)
+        public void generate() {
+            graph = App.generateGraph(cities, density, 42);
+            if (!routeCache) {
+                App.setRouteCacheLimits(graph, 0, 0);
+            }
+
+            int side = (int) Math.ceil(Math.sqrt(cities));
+            Random random = new Random(7);
+            for (int i = 0; i < QUERY_COUNT; i++) {
+                int source = random.nextInt(cities);
+                int x = Math.floorMod(source % side + random.nextInt(21) - 10, side);
+                int y = Math.max(0, source / side + random.nextInt(21) - 10);
+                int destination = Math.min(cities - 1, y * side + x);
+                if (mode.equals("Plane")) {
+                    int airports = Math.max(2, cities / 100);
+                    source = (int) ((long) random.nextInt(airports) * cities / airports);
+                    destination = (int) ((long) random.nextInt(airports) * cities / airports);
+                }
+                sources[i] = App.cityName(source);
+                destinations[i] = App.cityName(destination);
+            }
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Cursor {
+        int next;
+
+        int advance() {
+            next = (next + 1) & (QUERY_COUNT - 1);
+            return next;
+        }
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public List<String> findRoutesLatency(Network network, Cursor cursor) {
+        int query = cursor.advance();
+        return App.findRoutes(network.graph, network.sources[query], network.destinations[query], network.mode,
+                network.maxRoutes, 10_000);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    public List<String> findRoutesThroughput(Network network, Cursor cursor) {
+        int query = cursor.advance();
+        return App.findRoutes(network.graph, network.sources[query], network.destinations[query], network.mode,
+                network.maxRoutes, 10_000);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public int shortestDistanceLatency(Network network, Cursor cursor) {
+        int query = cursor.advance();
+        return App.shortestDistance(network.graph, network.sources[query], network.destinations[query], network.mode);
+    }
+}
@@ -0,0 +1,88 @@
+package travelingbuddy.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+// Connection Scan queries over a generated daily timetable: 100k cities with 16 departures per line
+// each way come to about 3.2M connections. Query pairs are up to 40 lattice cells apart and leave
+// between 06:00 and 14:00; the profile covers the three hours after that.
+@Fork(value = 1, jvmArgsAppend = {"-Xms4g", "-Xmx4g"})
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class TimetableBenchmark {
+    private static final int QUERY_COUNT = 1024;
+    private static final int SPAN = 40;
+
+    @State(Scope.Benchmark)
+    public static class Schedule {
+        @Param({"100000"})
+        int cities;
+
+        @Param({"16"})
+        int departuresPerLine;
+
+        Object timetable;
+        int[] sources = new int[QUERY_COUNT];
+        int[] targets = new int[QUERY_COUNT];
+        int[] departures = new int[QUERY_COUNT];
+
+        @Setup(Level.Trial)
+        public void generate() {
+            timetable = App.generateTimetable(cities, departuresPerLine, 5);
+            int side = (int) Math.ceil(Math.sqrt(cities));
+            Random random = new Random(3);
+            for (int i = 0; i < QUERY_COUNT; i++) {
+                int source;
+                int target;
+                do {
+                    source = random.nextInt(cities);
+                    int x = Math.floorMod(source % side + random.nextInt(2 * SPAN + 1) - SPAN, side);
+                    int y = Math.max(0, source / side + random.nextInt(2 * SPAN + 1) - SPAN);
+                    target = Math.min(cities - 1, y * side + x);
+                    sources[i] = App.timetableCityId(timetable, App.cityName(source));
+                    targets[i] = App.timetableCityId(timetable, App.cityName(target));
+                } while (sources[i] < 0 || targets[i] < 0 || source == target);
+                departures[i] = 360 + random.nextInt(480);
+            }
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Cursor {
+        int next;
+
+        int advance() {
+            next = (next + 1) & (QUERY_COUNT - 1);
+            return next;
+        }
+    }
+
+    @Benchmark
+    public Object earliestArrivalLatency(Schedule schedule, Cursor cursor) {
+        int query = cursor.advance();
+        return App.earliestArrival(schedule.timetable, "Multimodal", schedule.sources[query], schedule.targets[query],
+                schedule.departures[query]);
+    }
+
+    @Benchmark
+    public Object profileLatency(Schedule schedule, Cursor cursor) {
+        int query = cursor.advance();
+        return App.profile(schedule.timetable, "Multimodal", schedule.sources[query], schedule.targets[query],
+                schedule.departures[query], schedule.departures[query] + 180);
+    }
+}
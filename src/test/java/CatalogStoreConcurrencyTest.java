@@ -0,0 +1,108 @@
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// A writer keeps replacing menus and another thread keeps reclaiming the store while readers walk
+// copies of the destination and check that every menu they see is one whole version of one
+// restaurant's menu.
+class CatalogStoreConcurrencyTest {
+    private static final int RESTAURANTS = 20;
+
+    @Test
+    void readersSeeWholeMenusWhileMenusAreReplacedAndReclaimed() throws InterruptedException {
+        long seconds = Long.getLong("stress.seconds", 2);
+        int readers = Integer.getInteger("stress.readers", 3);
+
+        IntegratedProject.CatalogStore store = new IntegratedProject.CatalogStore();
+        IntegratedProject.DestinationFood food = new IntegratedProject.DestinationFood("Testville", store);
+        for (int restaurant = 0; restaurant < RESTAURANTS; restaurant++) {
+            food.addRestaurant("R" + restaurant, menu(restaurant, 0));
+        }
+
+        AtomicBoolean stop = new AtomicBoolean();
+        LongAdder reads = new LongAdder();
+        LongAdder reclaims = new LongAdder();
+        ConcurrentLinkedQueue<String> errors = new ConcurrentLinkedQueue<>();
+        List<Thread> threads = new ArrayList<>();
+        threads.add(new Thread(() -> {
+            for (int version = 1; !stop.get(); version++) {
+                food.addRestaurant("R" + version % RESTAURANTS, menu(version % RESTAURANTS, version));
+            }
+        }, "menu-writer"));
+        threads.add(new Thread(() -> {
+            while (!stop.get()) {
+                if (store.reclaim()) {
+                    reclaims.increment();
+                }
+                Thread.yield();
+            }
+        }, "reclaimer"));
+        for (int r = 0; r < readers; r++) {
+            threads.add(new Thread(() -> {
+                while (!stop.get()) {
+                    String error = check(food.copy());
+                    if (error != null) {
+                        errors.add(error);
+                        return;
+                    }
+                    reads.increment();
+                }
+            }, "reader-" + r));
+        }
+
+        threads.forEach(Thread::start);
+        Thread.sleep(TimeUnit.SECONDS.toMillis(seconds));
+        stop.set(true);
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        assertTrue(errors.isEmpty(), () -> String.join("\n", errors));
+        assertTrue(reads.sum() > 0, "no reader finished a check");
+        assertTrue(reclaims.sum() > 0, "the store was never reclaimed");
+        assertNull(check(food.copy()));
+    }
+
+    // Version v of restaurant r has 1 + v % 5 dishes named "R<r> v<v> #<i>", priced v * 10 + i.
+    private static List<IntegratedProject.FoodItem> menu(int restaurant, int version) {
+        List<IntegratedProject.FoodItem> menu = new ArrayList<>();
+        for (int i = 0; i <= version % 5; i++) {
+            menu.add(new IntegratedProject.FoodItem("R" + restaurant + " v" + version + " #" + i, version * 10 + i));
+        }
+        return menu;
+    }
+
+    private static String check(IntegratedProject.DestinationFood food) {
+        if (food.restaurantCount() != RESTAURANTS) {
+            return "expected " + RESTAURANTS + " restaurants, saw " + food.restaurantCount();
+        }
+        for (int restaurant = 0; restaurant < RESTAURANTS; restaurant++) {
+            String name = food.restaurantName(restaurant);
+            int size = food.menuSize(restaurant);
+            if (size == 0) {
+                return name + " has an empty menu";
+            }
+            int version = food.price(restaurant, 0) / 10;
+            if (size != 1 + version % 5) {
+                return name + " v" + version + " has " + size + " dishes";
+            }
+            for (int i = 0; i < size; i++) {
+                String expected = name + " v" + version + " #" + i;
+                String dish = food.dishName(restaurant, i);
+                int price = food.price(restaurant, i);
+                if (!dish.equals(expected) || price != version * 10 + i) {
+                    return name + " dish " + i + " is " + dish + " at " + price + " instead of " + expected;
+                }
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,339 @@
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// Writes edits through the change log, damages the files the way a crash or a bad disk would,
+// replays them and compares the result with the same edits applied directly to the snapshot.
+class ChangeLogRecoveryTest {
+    private static final int CITIES = 400;
+    private static final int DESTINATIONS = 40;
+
+    @TempDir
+    Path directory;
+    private Path snapshot;
+    private Path original;
+
+    @BeforeEach
+    void writeSnapshot() throws IOException {
+        snapshot = directory.resolve("net.snap");
+        original = directory.resolve("original.snap");
+        IntegratedProject.TravelDataGenerator generator = new IntegratedProject.TravelDataGenerator(7);
+        IntegratedProject.TravelSnapshot.write(original, generator.generateGraph(CITIES, 1.0),
+                generator.generateFood(DESTINATIONS, 3, 4), generator.generateHotels(DESTINATIONS, 2));
+        Files.copy(original, snapshot);
+    }
+
+    @Test
+    void tornRecordAtTheEndIsCutOffAndLaterEditsAppendAfterIt() throws IOException {
+        State state = State.load(snapshot);
+        try (IntegratedProject.ChangeLog changeLog = state.open(snapshot)) {
+            logEdits(changeLog, 0, 40);
+        }
+        Path segment = segment(1);
+        List<Long> records = recordOffsets(segment);
+        assertEquals(40, records.size());
+        // A crash in the middle of the last write.
+        truncate(segment, Files.size(segment) - 3);
+
+        state = State.load(snapshot);
+        try (IntegratedProject.ChangeLog changeLog = state.open(snapshot)) {
+            assertEquals(39, changeLog.replayedRecords());
+            assertEquals((long) records.get(39), Files.size(segment));
+            assertEquals(expected(0, 39), state.dump());
+            logEdits(changeLog, 39, 45);
+        }
+
+        state = State.load(snapshot);
+        assertEquals(45, state.replay(snapshot));
+        assertEquals(expected(0, 45), state.dump());
+    }
+
+    @Test
+    void everySegmentAfterTheSnapshotIsReplayedInOrder() throws IOException {
+        writeTwoSegments();
+        State state = State.load(snapshot);
+        assertEquals(20, state.replay(snapshot));
+        assertEquals(expected(0, 20), state.dump());
+    }
+
+    @Test
+    void corruptRecordInAnEarlierSegmentIsRejected() throws IOException {
+        writeTwoSegments();
+        Path first = segment(1);
+        long size = Files.size(first);
+        corrupt(first, recordOffsets(first).get(4));
+
+        assertThrows(IOException.class, () -> State.load(snapshot).replay(snapshot));
+        IOException error = assertThrows(IOException.class, () -> State.load(snapshot).open(snapshot));
+        assertTrue(error.getMessage().contains("Corrupt"), error.getMessage());
+        // Only the last segment is ever repaired.
+        assertEquals(size, Files.size(first));
+        assertEquals(List.of(segment(1), segment(2)), segments());
+    }
+
+    @Test
+    void corruptRecordInTheLastSegmentEndsTheLog() throws IOException {
+        writeTwoSegments();
+        Path last = segment(2);
+        List<Long> records = recordOffsets(last);
+        corrupt(last, records.get(5));
+
+        State state = State.load(snapshot);
+        try (IntegratedProject.ChangeLog changeLog = state.open(snapshot)) {
+            assertEquals(15, changeLog.replayedRecords());
+            assertEquals((long) records.get(5), Files.size(last));
+            assertEquals(expected(0, 15), state.dump());
+        }
+    }
+
+    @Test
+    void compactionFoldsSegmentsIntoTheSnapshotAndMovesToTheNextGeneration() throws Exception {
+        State state = State.load(snapshot);
+        try (IntegratedProject.ChangeLog changeLog = state.open(snapshot)) {
+            logEdits(changeLog, 0, 15);
+            changeLog.compact().get();
+            assertEquals(1, IntegratedProject.TravelSnapshot.load(snapshot).logGeneration);
+            assertEquals(List.of(segment(2)), segments());
+            logEdits(changeLog, 15, 25);
+        }
+
+        state = State.load(snapshot);
+        assertEquals(1, state.logGeneration);
+        assertEquals(10, state.replay(snapshot));
+        assertEquals(expected(0, 25), state.dump());
+
+        state = State.load(snapshot);
+        try (IntegratedProject.ChangeLog changeLog = state.open(snapshot)) {
+            changeLog.compact().get();
+        }
+        state = State.load(snapshot);
+        assertEquals(2, state.logGeneration);
+        assertEquals(List.of(segment(3)), segments());
+        assertEquals(0, state.replay(snapshot));
+        assertEquals(expected(0, 25), state.dump());
+    }
+
+    @Test
+    void segmentsLeftByAnInterruptedCompactionAreSkippedAndDeleted() throws Exception {
+        Path folded = directory.resolve("folded.bak");
+        State state = State.load(snapshot);
+        try (IntegratedProject.ChangeLog changeLog = state.open(snapshot)) {
+            logEdits(changeLog, 0, 15);
+            Files.copy(segment(1), folded);
+            changeLog.compact().get();
+            logEdits(changeLog, 15, 20);
+        }
+        // As if the compaction had stopped after renaming the snapshot, before the deletes.
+        Files.copy(folded, segment(1));
+
+        state = State.load(snapshot);
+        assertEquals(5, state.replay(snapshot));
+        assertEquals(expected(0, 20), state.dump());
+        assertEquals(List.of(segment(1), segment(2)), segments());
+
+        state = State.load(snapshot);
+        try (IntegratedProject.ChangeLog changeLog = state.open(snapshot)) {
+            assertEquals(5, changeLog.replayedRecords());
+            assertEquals(expected(0, 20), state.dump());
+        }
+        assertEquals(List.of(segment(2)), segments());
+    }
+
+    // Edits 0-9 in segment 1 and 10-19 in segment 2, as a compaction that rotated but never
+    // finished its snapshot leaves them.
+    private void writeTwoSegments() throws IOException {
+        State state = State.load(snapshot);
+        try (IntegratedProject.ChangeLog changeLog = state.open(snapshot)) {
+            logEdits(changeLog, 0, 10);
+        }
+        Path first = directory.resolve("first.bak");
+        Files.move(segment(1), first);
+        state = State.load(snapshot);
+        try (IntegratedProject.ChangeLog changeLog = state.open(snapshot)) {
+            logEdits(changeLog, 10, 20);
+        }
+        Files.move(segment(1), segment(2));
+        try (FileChannel channel = FileChannel.open(segment(2), StandardOpenOption.WRITE)) {
+            channel.write(ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN).putLong(0, 2), 8);
+        }
+        Files.move(first, segment(1));
+    }
+
+    private String expected(int from, int to) throws IOException {
+        State state = State.load(original);
+        for (int edit = from; edit < to; edit++) {
+            state.apply(edit);
+        }
+        return state.dump();
+    }
+
+    // Edges to new and existing cities, locations, new and replaced menus and rooms, some of
+    // them for a destination the snapshot does not have.
+    private static void logEdits(IntegratedProject.ChangeLog changeLog, int from, int to) {
+        for (int edit = from; edit < to; edit++) {
+            switch (edit % 4) {
+                case 0 -> changeLog.addEdge("Road", city(edit), "Logged " + edit, 10 + edit).join();
+                case 1 -> changeLog.setLocation(city(edit), 10 + edit % 50, 70 + edit % 30).join();
+                case 2 -> changeLog.addRestaurant(destination(edit), restaurant(edit), menu(edit)).join();
+                default -> changeLog.putRooms(destination(edit), hotel(edit), rooms(edit)).join();
+            }
+        }
+    }
+
+    private static String city(int edit) {
+        return IntegratedProject.TravelDataGenerator.cityName(edit * 7 % CITIES);
+    }
+
+    private static String destination(int edit) {
+        return edit % 3 == 0 ? "Newtown" : IntegratedProject.TravelDataGenerator.cityName(edit % DESTINATIONS);
+    }
+
+    private static String restaurant(int edit) {
+        return "Logged Cafe " + edit % 3;
+    }
+
+    private static List<IntegratedProject.FoodItem> menu(int edit) {
+        List<IntegratedProject.FoodItem> menu = new ArrayList<>();
+        menu.add(new IntegratedProject.FoodItem("Dish " + edit, 100 + edit));
+        menu.add(new IntegratedProject.FoodItem("Tea", 20 + edit));
+        return menu;
+    }
+
+    private static String hotel(int edit) {
+        return "Logged Inn " + edit % 2;
+    }
+
+    private static Map<String, Integer> rooms(int edit) {
+        Map<String, Integer> rooms = new LinkedHashMap<>();
+        rooms.put("Deluxe", 1000 + edit);
+        rooms.put("Suite " + edit % 5, 3000 + edit);
+        return rooms;
+    }
+
+    private Path segment(long generation) {
+        return directory.resolve("net.snap." + generation + ".log");
+    }
+
+    private List<Path> segments() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.filter(file -> file.getFileName().toString().endsWith(".log")).sorted().toList();
+        }
+    }
+
+    // Start of every record after the 16-byte segment header, from the length in each frame.
+    private static List<Long> recordOffsets(Path segment) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(segment)).order(ByteOrder.LITTLE_ENDIAN);
+        List<Long> offsets = new ArrayList<>();
+        for (int position = 16; position + 8 <= buffer.limit(); position += 8 + buffer.getInt(position)) {
+            offsets.add((long) position);
+        }
+        return offsets;
+    }
+
+    // Flips a payload byte, so the record's CRC no longer matches.
+    private static void corrupt(Path segment, long record) throws IOException {
+        try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            ByteBuffer one = ByteBuffer.allocate(1);
+            channel.read(one, record + 9);
+            one.put(0, (byte) (one.get(0) ^ 0x55)).rewind();
+            channel.write(one, record + 9);
+        }
+    }
+
+    private static void truncate(Path segment, long size) throws IOException {
+        try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.WRITE)) {
+            channel.truncate(size);
+        }
+    }
+
+    // A loaded snapshot as main sets it up for serving.
+    private static final class State {
+        final long logGeneration;
+        final IntegratedProject.Graph graph;
+        final ConcurrentMap<String, IntegratedProject.DestinationFood> foodData;
+        final ConcurrentMap<String, IntegratedProject.DestinationHotel> hotelData;
+
+        private State(IntegratedProject.TravelSnapshot snapshot) {
+            logGeneration = snapshot.logGeneration;
+            graph = new IntegratedProject.Graph(snapshot.graph);
+            foodData = new ConcurrentHashMap<>(snapshot.foodData);
+            hotelData = new ConcurrentHashMap<>(snapshot.hotelData);
+        }
+
+        static State load(Path snapshot) throws IOException {
+            return new State(IntegratedProject.TravelSnapshot.load(snapshot));
+        }
+
+        IntegratedProject.ChangeLog open(Path snapshot) throws IOException {
+            return IntegratedProject.ChangeLog.open(snapshot, logGeneration, graph, foodData, hotelData, null, null,
+                    Long.MAX_VALUE);
+        }
+
+        long replay(Path snapshot) throws IOException {
+            return IntegratedProject.ChangeLog.replay(snapshot, logGeneration, graph, foodData, hotelData);
+        }
+
+        // The same edit as logEdits, made without a log.
+        void apply(int edit) {
+            switch (edit % 4) {
+                case 0 -> graph.addRoadEdge(city(edit), "Logged " + edit, 10 + edit);
+                case 1 -> graph.setLocation(city(edit), 10 + edit % 50, 70 + edit % 30);
+                case 2 -> foodData.computeIfAbsent(destination(edit).toLowerCase(),
+                        key -> new IntegratedProject.DestinationFood(destination(edit)))
+                        .addRestaurant(restaurant(edit), menu(edit));
+                default -> hotelData.computeIfAbsent(destination(edit).toLowerCase(),
+                        key -> new IntegratedProject.DestinationHotel(destination(edit)))
+                        .putRooms(hotel(edit), rooms(edit));
+            }
+        }
+
+        // Every city's arcs in every mode and location, then every destination's restaurants and
+        // hotels, in a fixed order.
+        String dump() {
+            IntegratedProject.CompactGraph compact = graph.latest();
+            StringBuilder dump = new StringBuilder();
+            for (int city = 0; city < compact.cityCount(); city++) {
+                dump.append(compact.cityName(city));
+                if (compact.hasLocation(city)) {
+                    dump.append(" @").append(compact.latitudes[city]).append(',').append(compact.longitudes[city]);
+                }
+                for (int mode = 0; mode < IntegratedProject.CompactGraph.MODES.length; mode++) {
+                    List<String> arcs = new ArrayList<>();
+                    for (int arc = compact.offsets[mode][city]; arc < compact.offsets[mode][city + 1]; arc++) {
+                        arcs.add(compact.cityName(compact.targets[mode][arc]) + ":" + compact.weights[mode][arc]);
+                    }
+                    arcs.sort(null);
+                    dump.append(' ').append(IntegratedProject.CompactGraph.MODES[mode]).append(arcs);
+                }
+                dump.append('\n');
+            }
+            for (IntegratedProject.DestinationFood food : new TreeMap<>(foodData).values()) {
+                dump.append(food.getFoodDetails());
+            }
+            for (IntegratedProject.DestinationHotel destinationHotel : new TreeMap<>(hotelData).values()) {
+                dump.append(destinationHotel.getHotelDetails());
+            }
+            return dump.toString();
+        }
+    }
+}
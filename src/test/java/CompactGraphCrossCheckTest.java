@@ -0,0 +1,58 @@
+import org.junit.jupiter.api.Test;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+// The links of a generated graph are added to an empty Graph in shuffled order, together with some
+// parallel links, and every mode's CSR search must then match a plain Dijkstra over the same links.
+class CompactGraphCrossCheckTest {
+    private static final int CITIES = 900;
+
+    @Test
+    void csrSearchAgreesWithPlainDijkstra() {
+        IntegratedProject.CompactGraph generated = new IntegratedProject.TravelDataGenerator(7).generateGraph(CITIES, 1.0);
+        IntegratedProject.Graph graph = new IntegratedProject.Graph();
+        Random random = new Random(13);
+        for (String mode : IntegratedProject.CompactGraph.MODES) {
+            int index = IntegratedProject.CompactGraph.modeIndex(mode);
+            List<String[]> edges = PlainGraph.edges(generated, index);
+            Collections.shuffle(edges, random);
+            PlainGraph plain = new PlainGraph();
+            for (String[] edge : edges) {
+                int distance = Integer.parseInt(edge[2]);
+                // Now and then a longer parallel link, which must never win.
+                if (random.nextInt(10) == 0) {
+                    graph.addEdge(index, edge[0], edge[1], distance + 1 + random.nextInt(20));
+                }
+                graph.addEdge(index, edge[0], edge[1], distance);
+                plain.addEdge(edge[0], edge[1], distance);
+            }
+
+            IntegratedProject.CompactGraph compact = graph.compact();
+            for (int i = 0; i < 20; i++) {
+                String source = city(random.nextInt(CITIES));
+                Map<String, Integer> expected = plain.distances(source);
+                int sourceId = compact.cityId(source);
+                int[] distances = sourceId < 0 ? null : compact.shortestDistances(index, sourceId);
+                for (int city = 0; city < CITIES; city++) {
+                    String target = city(city);
+                    int targetId = compact.cityId(target);
+                    int distance = distances == null || targetId < 0 || distances[targetId] == Integer.MAX_VALUE
+                            ? -1 : distances[targetId];
+                    assertEquals((int) expected.getOrDefault(target, -1), distance, mode + " " + source + " to " + target);
+                }
+                String target = city(random.nextInt(CITIES));
+                assertEquals(sourceId < 0 ? -1 : (int) expected.getOrDefault(target, -1),
+                        graph.shortestDistance(source, target, mode), mode + " " + source + " to " + target);
+            }
+        }
+    }
+
+    private static String city(int city) {
+        return IntegratedProject.TravelDataGenerator.cityName(city);
+    }
+}
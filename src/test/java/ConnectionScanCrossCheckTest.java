@@ -0,0 +1,118 @@
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// Earliest arrivals and departure profiles from the Connection Scan over a generated timetable
+// must match a plain scan that relaxes every connection, in no particular order, until nothing
+// improves.
+class ConnectionScanCrossCheckTest {
+    private static final int CITIES = 900;
+    private static final int UNREACHED = Integer.MAX_VALUE;
+
+    private final IntegratedProject.Timetable timetable =
+            new IntegratedProject.TravelDataGenerator(19).generateTimetable(CITIES, 12);
+    private final int modes = IntegratedProject.Timetable.modeMask(IntegratedProject.Graph.MULTIMODAL);
+
+    @Test
+    void earliestArrivalAgreesWithPlainScan() {
+        Random random = new Random(23);
+        for (int i = 0; i < 80; i++) {
+            int source = timetable.cityId(city(random.nextInt(CITIES)));
+            int target = timetable.cityId(city(random.nextInt(CITIES)));
+            if (source < 0 || target < 0 || source == target) {
+                continue;
+            }
+            int departure = 5 * 60 + random.nextInt(16 * 60);
+            int expected = earliestArrival(source, target, departure);
+            IntegratedProject.TimetableJourney journey = timetable.earliestArrival(source, target, departure, modes);
+            if (expected == UNREACHED) {
+                assertNull(journey, source + " to " + target + " at " + departure);
+            } else {
+                assertNotNull(journey, source + " to " + target + " at " + departure);
+                assertEquals(expected, journey.arrival(), source + " to " + target + " at " + departure);
+                assertTrue(journey.departure() >= departure);
+            }
+        }
+    }
+
+    @Test
+    void profileAgreesWithPlainScan() {
+        Random random = new Random(29);
+        for (int i = 0; i < 15; i++) {
+            int source = timetable.cityId(city(random.nextInt(CITIES)));
+            int target = timetable.cityId(city(random.nextInt(CITIES)));
+            if (source < 0 || target < 0 || source == target) {
+                continue;
+            }
+            int from = 6 * 60 + random.nextInt(6 * 60);
+            int until = from + 4 * 60;
+            List<IntegratedProject.TimetableJourney> journeys = timetable.profile(source, target, from, until, modes);
+            for (int j = 0; j < journeys.size(); j++) {
+                IntegratedProject.TimetableJourney journey = journeys.get(j);
+                assertTrue(journey.departure() >= from && journey.departure() <= until);
+                assertEquals(earliestArrival(source, target, journey.departure()), journey.arrival());
+                if (j > 0) {
+                    assertTrue(journey.departure() > journeys.get(j - 1).departure()
+                            && journey.arrival() > journeys.get(j - 1).arrival(), "profile is not Pareto-optimal");
+                }
+            }
+            // Leaving at any time in the window, the best journey of the profile still open is the
+            // best there is, unless that one leaves after the window.
+            for (int time = from; time <= until; time += 7) {
+                int expected = earliestArrival(source, target, time);
+                int best = UNREACHED;
+                for (IntegratedProject.TimetableJourney journey : journeys) {
+                    if (journey.departure() >= time) {
+                        best = Math.min(best, journey.arrival());
+                    }
+                }
+                if (best != expected) {
+                    IntegratedProject.TimetableJourney direct = timetable.earliestArrival(source, target, time, modes);
+                    assertTrue(direct != null && direct.departure() > until,
+                            source + " to " + target + " leaving at " + time + ": profile " + best + ", plain " + expected);
+                }
+            }
+        }
+    }
+
+    // Staying aboard needs no time; changing trips takes the default transfer time everywhere but
+    // at the source, since the generator sets none.
+    private int earliestArrival(int source, int target, int departure) {
+        int[] reached = new int[CITIES];
+        Arrays.fill(reached, UNREACHED);
+        reached[source] = departure;
+        int[] boarded = new int[Arrays.stream(timetable.trips).max().orElse(-1) + 1];
+        Arrays.fill(boarded, UNREACHED);
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (int c = 0; c < timetable.connectionCount(); c++) {
+                int trip = timetable.trips[c];
+                int from = timetable.departureCities[c];
+                int ready = reached[from] == UNREACHED ? UNREACHED : from == source ? reached[from]
+                        : reached[from] + IntegratedProject.Timetable.DEFAULT_TRANSFER_MINUTES;
+                if (boarded[trip] > timetable.departures[c] && ready <= timetable.departures[c]) {
+                    boarded[trip] = timetable.departures[c];
+                    changed = true;
+                }
+                int to = timetable.arrivalCities[c];
+                if (boarded[trip] <= timetable.departures[c] && timetable.arrivals[c] < reached[to]) {
+                    reached[to] = timetable.arrivals[c];
+                    changed = true;
+                }
+            }
+        }
+        return reached[target];
+    }
+
+    private static String city(int city) {
+        return IntegratedProject.TravelDataGenerator.cityName(city);
+    }
+}
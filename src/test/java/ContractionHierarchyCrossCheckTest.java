@@ -0,0 +1,73 @@
+import org.junit.jupiter.api.Test;
+
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+// Road distances answered with a contraction hierarchy must match a plain Dijkstra over the same
+// links, before and after edges are added while the publisher rebuilds the hierarchy.
+class ContractionHierarchyCrossCheckTest {
+    private static final int CITIES = 900;
+
+    @Test
+    void hierarchyAgreesWithPlainDijkstra() {
+        IntegratedProject.CompactGraph generated = new IntegratedProject.TravelDataGenerator(5).generateGraph(CITIES, 1.0);
+        int road = IntegratedProject.CompactGraph.modeIndex("Road");
+        IntegratedProject.ContractionHierarchy hierarchy = IntegratedProject.ContractionHierarchy.build(generated, road);
+        PlainGraph plain = PlainGraph.of(generated, road);
+
+        Random random = new Random(11);
+        for (int i = 0; i < 20; i++) {
+            String source = city(random.nextInt(CITIES));
+            Map<String, Integer> distances = plain.distances(source);
+            for (int j = 0; j < 20; j++) {
+                String target = city(random.nextInt(CITIES));
+                int distance = hierarchy.distance(generated.cityId(source), generated.cityId(target));
+                assertEquals((int) distances.getOrDefault(target, Integer.MAX_VALUE), distance, source + " to " + target);
+            }
+        }
+    }
+
+    @Test
+    void graphAnswersCorrectlyWhileTheHierarchyIsRebuilt() {
+        IntegratedProject.CompactGraph generated = new IntegratedProject.TravelDataGenerator(6).generateGraph(CITIES, 1.0);
+        IntegratedProject.Graph graph = new IntegratedProject.Graph(generated);
+        PlainGraph plain = PlainGraph.of(generated, IntegratedProject.CompactGraph.modeIndex("Road"));
+        graph.prepareHierarchy("Road");
+
+        Random random = new Random(12);
+        for (int round = 0; round < 5; round++) {
+            // Long links that shortcut the lattice, so the old hierarchy would answer too long.
+            for (int i = 0; i < 3; i++) {
+                String from = city(random.nextInt(CITIES));
+                String to = city(random.nextInt(CITIES));
+                if (!from.equals(to)) {
+                    int distance = 1 + random.nextInt(50);
+                    graph.addRoadEdge(from, to, distance);
+                    plain.addEdge(from, to, distance);
+                }
+            }
+            for (int i = 0; i < 10; i++) {
+                String source = city(random.nextInt(CITIES));
+                Map<String, Integer> distances = plain.distances(source);
+                for (int j = 0; j < 10; j++) {
+                    String target = city(random.nextInt(CITIES));
+                    assertEquals((int) distances.getOrDefault(target, -1), graph.shortestDistance(source, target, "Road"),
+                            "round " + round + ", " + source + " to " + target);
+                }
+            }
+        }
+    }
+
+    @Test
+    void unknownModeIsRejected() {
+        IntegratedProject.Graph graph = new IntegratedProject.Graph();
+        assertThrows(IllegalArgumentException.class, () -> graph.prepareHierarchy("Boat"));
+    }
+
+    private static String city(int city) {
+        return IntegratedProject.TravelDataGenerator.cityName(city);
+    }
+}
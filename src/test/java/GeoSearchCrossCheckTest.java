@@ -0,0 +1,41 @@
+import org.junit.jupiter.api.Test;
+
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// A* and its bidirectional form over a generated road graph with city locations must find the same
+// distances as a plain Dijkstra over the same links.
+class GeoSearchCrossCheckTest {
+    private static final int CITIES = 900;
+
+    @Test
+    void aStarAgreesWithPlainDijkstra() {
+        IntegratedProject.CompactGraph generated = new IntegratedProject.TravelDataGenerator(9).generateGraph(CITIES, 1.0);
+        int road = IntegratedProject.CompactGraph.modeIndex("Road");
+        IntegratedProject.GeoSearch search = IntegratedProject.GeoSearch.build(generated, road);
+        assertTrue(search.isGuided(), "every generated city has a location");
+        PlainGraph plain = PlainGraph.of(generated, road);
+
+        Random random = new Random(17);
+        for (int i = 0; i < 20; i++) {
+            String source = city(random.nextInt(CITIES));
+            Map<String, Integer> distances = plain.distances(source);
+            for (int j = 0; j < 20; j++) {
+                String target = city(random.nextInt(CITIES));
+                int expected = distances.getOrDefault(target, Integer.MAX_VALUE);
+                int sourceId = generated.cityId(source);
+                int targetId = generated.cityId(target);
+                assertEquals(expected, search.distance(sourceId, targetId, null), "A* " + source + " to " + target);
+                assertEquals(expected, search.bidirectionalDistance(sourceId, targetId, null),
+                        "bidirectional A* " + source + " to " + target);
+            }
+        }
+    }
+
+    private static String city(int city) {
+        return IntegratedProject.TravelDataGenerator.cityName(city);
+    }
+}
@@ -0,0 +1,166 @@
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// Writers add plane links from a hub to new cities while readers search the published versions and
+// check that each one is consistent. Sizes and duration can be raised for a throughput run, e.g.
+// mvn test -Dtest=GraphConcurrencyTest -Dstress.side=200 -Dstress.seconds=30 -Dstress.readers=8
+class GraphConcurrencyTest {
+    private static final String HUB = "Hub";
+
+    @Test
+    void readersSeeConsistentVersionsWhileWritersAddEdges() throws InterruptedException {
+        int side = Integer.getInteger("stress.side", 60);
+        long seconds = Long.getLong("stress.seconds", 2);
+        int writers = Integer.getInteger("stress.writers", 2);
+        int readers = Integer.getInteger("stress.readers", 4);
+        int batch = Integer.getInteger("stress.batch", 50);
+
+        IntegratedProject.Graph graph = new IntegratedProject.Graph();
+        for (int row = 0; row < side; row++) {
+            for (int column = 0; column < side; column++) {
+                if (column + 1 < side) {
+                    graph.addRoadEdge(cell(row, column), cell(row, column + 1), 1);
+                }
+                if (row + 1 < side) {
+                    graph.addRoadEdge(cell(row, column), cell(row + 1, column), 1);
+                }
+            }
+        }
+        graph.addPlaneEdge(HUB, cell(0, 0));
+        int cornerDistance = 2 * (side - 1);
+        assertEquals(cornerDistance, graph.shortestDistance(cell(0, 0), cell(side - 1, side - 1), "Road"));
+
+        AtomicBoolean stop = new AtomicBoolean();
+        LongAdder writes = new LongAdder();
+        LongAdder reads = new LongAdder();
+        ConcurrentLinkedQueue<String> errors = new ConcurrentLinkedQueue<>();
+        List<Thread> threads = new ArrayList<>();
+        for (int w = 0; w < writers; w++) {
+            int writer = w;
+            threads.add(new Thread(() -> {
+                for (int i = 0; !stop.get(); i++) {
+                    graph.addPlaneEdge(HUB, "New" + writer + "_" + i);
+                    writes.increment();
+                    if (i % batch == batch - 1) {
+                        Thread.yield();
+                    }
+                }
+            }, "writer-" + w));
+        }
+        for (int r = 0; r < readers; r++) {
+            threads.add(new Thread(() -> {
+                int lastCityCount = 0;
+                while (!stop.get()) {
+                    IntegratedProject.CompactGraph version = graph.compact();
+                    String error = check(version, lastCityCount);
+                    if (error == null) {
+                        error = checkQueries(graph, version, side, cornerDistance);
+                    }
+                    if (error != null) {
+                        errors.add(error);
+                        return;
+                    }
+                    lastCityCount = version.cityCount();
+                    reads.increment();
+                }
+            }, "reader-" + r));
+        }
+
+        long started = System.nanoTime();
+        threads.forEach(Thread::start);
+        Thread.sleep(TimeUnit.SECONDS.toMillis(seconds));
+        stop.set(true);
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        double elapsed = (System.nanoTime() - started) / 1e9;
+        System.out.printf("GraphConcurrencyTest: %d cities, %d writers, %d readers: %.0f reads/s, %.0f writes/s%n",
+                side * side, writers, readers, reads.sum() / elapsed, writes.sum() / elapsed);
+
+        assertTrue(errors.isEmpty(), () -> String.join("\n", errors));
+        assertTrue(reads.sum() > 0, "no reader finished a check");
+        assertTrue(writes.sum() > 0, "no writer added an edge");
+
+        // Every write is visible once the writers have stopped.
+        IntegratedProject.CompactGraph last = graph.compact();
+        assertEquals(side * side + 1 + writes.sum(), last.cityCount());
+        assertEquals(null, check(last, 0));
+    }
+
+    // CSR layout, city id round-trips and the hub links of every city a writer added.
+    private static String check(IntegratedProject.CompactGraph graph, int previousCityCount) {
+        int cities = graph.cityCount();
+        if (cities < previousCityCount) {
+            return "city count went back from " + previousCityCount + " to " + cities;
+        }
+        for (int mode = 0; mode < IntegratedProject.CompactGraph.MODES.length; mode++) {
+            int[] offsets = graph.offsets[mode];
+            int[] targets = graph.targets[mode];
+            if (offsets.length != cities + 1 || offsets[0] != 0 || offsets[cities] != targets.length
+                    || graph.weights[mode].length != targets.length) {
+                return "bad CSR shape in mode " + mode;
+            }
+            for (int city = 0; city < cities; city++) {
+                if (offsets[city] > offsets[city + 1]) {
+                    return "offsets decrease at city " + city + " in mode " + mode;
+                }
+            }
+            for (int target : targets) {
+                if (target < 0 || target >= cities) {
+                    return "arc to unknown city " + target + " in mode " + mode;
+                }
+            }
+        }
+        int hub = graph.cityId(HUB);
+        int plane = IntegratedProject.CompactGraph.modeIndex("Plane");
+        for (int city = 0; city < cities; city++) {
+            String name = graph.cityName(city);
+            if (graph.cityId(name) != city) {
+                return "city " + city + " (" + name + ") does not round-trip";
+            }
+            if (name.startsWith("New") && !linked(graph, plane, city, hub)) {
+                return name + " has no plane link to the hub";
+            }
+        }
+        return null;
+    }
+
+    private static String checkQueries(IntegratedProject.Graph graph, IntegratedProject.CompactGraph version, int side,
+                                       int cornerDistance) {
+        int distance = graph.shortestDistance(cell(0, 0), cell(side - 1, side - 1), "Road");
+        if (distance != cornerDistance) {
+            return "road distance " + distance + " instead of " + cornerDistance;
+        }
+        // Versions only grow, so a city seen in an earlier version is reachable in the current one.
+        String newest = version.cityName(version.cityCount() - 1);
+        if (newest.startsWith("New")) {
+            List<String> routes = graph.findRoutes(HUB, newest, "Plane", 1, IntegratedProject.Graph.DEFAULT_TIMEOUT_MILLIS);
+            if (routes.isEmpty() || !routes.get(0).startsWith("Route")) {
+                return "no plane route from the hub to " + newest + ": " + routes;
+            }
+        }
+        return null;
+    }
+
+    private static boolean linked(IntegratedProject.CompactGraph graph, int mode, int from, int to) {
+        for (int i = graph.offsets[mode][from]; i < graph.offsets[mode][from + 1]; i++) {
+            if (graph.targets[mode][i] == to) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static String cell(int row, int column) {
+        return "C" + row + "_" + column;
+    }
+}
@@ -0,0 +1,63 @@
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+// The reference the cross-check tests compare the graph searches against: one mode's links in
+// adjacency maps, searched with a textbook Dijkstra.
+final class PlainGraph {
+    private final Map<String, Map<String, Integer>> adjacency = new HashMap<>();
+
+    // A link both ways; of parallel links only the shortest counts.
+    void addEdge(String from, String to, int distance) {
+        adjacency.computeIfAbsent(from, city -> new HashMap<>()).merge(to, distance, Math::min);
+        adjacency.computeIfAbsent(to, city -> new HashMap<>()).merge(from, distance, Math::min);
+    }
+
+    // Every link of one mode, read back from the graph's arrays.
+    static PlainGraph of(IntegratedProject.CompactGraph graph, int mode) {
+        PlainGraph plain = new PlainGraph();
+        for (String[] edge : edges(graph, mode)) {
+            plain.addEdge(edge[0], edge[1], Integer.parseInt(edge[2]));
+        }
+        return plain;
+    }
+
+    static List<String[]> edges(IntegratedProject.CompactGraph graph, int mode) {
+        List<String[]> edges = new ArrayList<>();
+        for (int city = 0; city < graph.cityCount(); city++) {
+            for (int i = graph.offsets[mode][city]; i < graph.offsets[mode][city + 1]; i++) {
+                edges.add(new String[]{graph.cityName(city), graph.cityName(graph.targets[mode][i]),
+                        Integer.toString(graph.weights[mode][i])});
+            }
+        }
+        return edges;
+    }
+
+    Map<String, Integer> distances(String source) {
+        Map<String, Integer> distances = new HashMap<>();
+        PriorityQueue<Object[]> queue = new PriorityQueue<>((a, b) -> Integer.compare((int) a[1], (int) b[1]));
+        queue.add(new Object[]{source, 0});
+        while (!queue.isEmpty()) {
+            Object[] next = queue.poll();
+            String city = (String) next[0];
+            int distance = (int) next[1];
+            if (distances.containsKey(city)) {
+                continue;
+            }
+            distances.put(city, distance);
+            for (Map.Entry<String, Integer> link : adjacency.getOrDefault(city, Map.of()).entrySet()) {
+                if (!distances.containsKey(link.getKey())) {
+                    queue.add(new Object[]{link.getKey(), distance + link.getValue()});
+                }
+            }
+        }
+        return distances;
+    }
+
+    // -1 when target cannot be reached, as Graph.shortestDistance answers.
+    int distance(String source, String target) {
+        return distances(source).getOrDefault(target, -1);
+    }
+}